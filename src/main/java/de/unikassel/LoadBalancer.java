@@ -1,44 +1,132 @@
 package de.unikassel;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
 import de.unikassel.cgroup.CGroup;
 import de.unikassel.cgroup.CGroupBuilder;
 import de.unikassel.prediction.pyearth.Predictor;
+import de.unikassel.rpc.CompressionStats;
+import de.unikassel.rpc.EventLoop;
+import de.unikassel.rpc.Heartbeats;
+import de.unikassel.rpc.StreamedResult;
+import de.unikassel.rpc.WorkerBusyException;
+import de.unikassel.rpc.WorkerConnection;
+import de.unikassel.schedule.HedgingPolicy;
 import de.unikassel.schedule.Scheduler;
 import de.unikassel.schedule.SimpleScheduler;
 import de.unikassel.schedule.data.ExecutionTimes;
+import de.unikassel.schedule.data.PhaseTimes;
 import de.unikassel.schedule.data.ScheduledFuture;
 import de.unikassel.schedule.data.TaskPrediction;
+import de.unikassel.util.classloading.ClassFiles;
+import de.unikassel.util.classloading.CodeBundle;
+import de.unikassel.util.classloading.CodeRepository;
+import de.unikassel.util.serialization.BlobCache;
+import de.unikassel.util.serialization.DeterministicCallable;
 import de.unikassel.util.serialization.RemoteCallable;
-import de.unikassel.util.serialization.Serializer;
+import de.unikassel.util.serialization.SerializedCallable;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Distributes load between multiple {@link WorkerNode}-instances it is connected to.
  */
 public class LoadBalancer implements AutoCloseable {
 
+    private static final long BLOB_CACHE_SIZE = 256L * 1024 * 1024;
+    private static final int MAX_BUSY_RETRIES = 8;
+    private static final long BUSY_BACKOFF_MILLIS = 10;
+    private static final int MAX_KNOWN_RESULTS = 65536;
+    /**
+     * Time to wait for the first heartbeats of workers, that were just added.
+     */
+    private static final long FIRST_HEARTBEAT_TIMEOUT_MILLIS = 2000;
+    /**
+     * Time between two attempts to reconnect to workers, whose connection was lost.
+     */
+    private static final long RECONNECT_INTERVAL_MILLIS = 1000;
+    /**
+     * The resources of a lookup in the cache of a worker, which does not run the task.
+     */
+    private static final double[] NO_RESOURCES = new double[0];
+
     private final Scheduler scheduler;
     private final Predictor inputToTaskSizePredictor;
     private final Predictor taskSizeToResourcesPredictor;
     private final CGroupBuilder cGroupBuilder;
 
-    private final LinkedHashMap<InetSocketAddress, String> workerNodeAddresses;
+    /**
+     * Immutable snapshot, replaced whenever workers are added, so admission never has to lock.
+     */
+    private volatile Map<InetSocketAddress, String> workerNodeAddresses;
+    private final ConcurrentHashMap<InetSocketAddress, WorkerConnection> connections;
+    private final EventLoop eventLoop;
+    private final CodeRepository codeRepository;
+    /**
+     * Blobs of large captured arguments recently sent, kept to answer requests of workers, that evicted them.
+     */
+    private final BlobCache blobCache;
+    /**
+     * The latest resources pushed by each worker.
+     */
+    private final Heartbeats heartbeats;
+    /**
+     * Workers, that cached the result of a {@link DeterministicCallable}, by the key of the task.
+     */
+    private final Map<String, CachedResult> cachedResults = Collections.synchronizedMap(
+            new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                    return this.size() > MAX_KNOWN_RESULTS;
+                }
+            });
 
+    /**
+     * Only used for short CPU-bound work like (de-)serialization. No thread waits for a task in flight.
+     */
     private final ExecutorService executorService;
-    private final HashMap<TaskPrediction<?>, HashSet<RunnableFuture<?>>> waiting;
     /**
-     * Create a new {@link LoadBalancer} without predictors.
+     * Delays retries of tasks rejected by busy workers, if all workers are busy, and duplicates of straggling tasks.
+     */
+    private final ScheduledExecutorService retryTimer;
+    /**
+     * Tasks, that did not finish yet, mapped to the tasks waiting for them.
+     */
+    private final ConcurrentHashMap<TaskPrediction<?>, Queue<ScheduledFuture<?>>> waiting;
+    /**
+     * Tasks, that were rejected by busy workers, mapped to the state of their retries.
+     */
+    private final ConcurrentHashMap<ScheduledFuture<?>, Rerouting> rerouting = new ConcurrentHashMap<>();
+    /**
+     * Tasks, that were hedged, mapped to the future of their duplicate.
+     */
+    private final ConcurrentHashMap<ScheduledFuture<?>, ScheduledFuture<?>> hedges = new ConcurrentHashMap<>();
+    /**
+     * Futures of the duplicates of hedged tasks, which are not hedged again.
+     */
+    private final Set<ScheduledFuture<?>> duplicates = ConcurrentHashMap.newKeySet();
+    /**
+     * Held while scheduling a task and adding it to {@link LoadBalancer#waiting}, so no task can be scheduled to
+     * start after it before it is added, and while scheduling a whole burst.
+     */
+    private final Object scheduling = new Object();
+    private volatile HedgingPolicy hedgingPolicy = HedgingPolicy.never();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean shutDown = new AtomicBoolean();
+
+    /**
+     * Create a new {@link LoadBalancer} without predictors, that runs as many tasks in parallel on each worker as it
+     * has cores, spread across its execution lanes, if it has any.
      */
     public LoadBalancer() {
-        this(new SimpleScheduler(), x -> null, x -> null, x -> null);
+        this(new Heartbeats());
+    }
+
+    private LoadBalancer(Heartbeats heartbeats) {
+        this(new SimpleScheduler(heartbeats::cores, heartbeats::lanes), x -> null, x -> null, x -> null, heartbeats);
     }
 
     /**
@@ -51,15 +139,51 @@ public class LoadBalancer implements AutoCloseable {
      */
     public LoadBalancer(Scheduler scheduler, Predictor inputToTaskSizePredictor, Predictor taskSizeToResourcesPredictor,
                         CGroupBuilder cGroupBuilder) {
+        this(scheduler, inputToTaskSizePredictor, taskSizeToResourcesPredictor, cGroupBuilder, new Heartbeats());
+    }
+
+    /**
+     * Create a new {@link LoadBalancer}, that stores the resources pushed by the workers in the given snapshots.
+     *
+     * <p>The scheduler can read the free resources from the same snapshots, e.g.
+     * {@code new QueueScheduler(heartbeats::freeResources)}, instead of requesting them from the workers.</p>
+     *
+     * @param scheduler                    {@link Scheduler} used for load-balancing.
+     * @param inputToTaskSizePredictor     {@link Predictor} from input to scalar score.
+     * @param taskSizeToResourcesPredictor {@link Predictor} from scalar score to resources.
+     * @param cGroupBuilder                {@link CGroupBuilder} to generate {@link CGroup} for executed task.
+     * @param heartbeats                   {@link Heartbeats} to store the resources pushed by the workers in.
+     */
+    public LoadBalancer(Scheduler scheduler, Predictor inputToTaskSizePredictor, Predictor taskSizeToResourcesPredictor,
+                        CGroupBuilder cGroupBuilder, Heartbeats heartbeats) {
         this.scheduler = scheduler;
+        this.heartbeats = heartbeats;
         this.inputToTaskSizePredictor = inputToTaskSizePredictor;
         this.taskSizeToResourcesPredictor = taskSizeToResourcesPredictor;
         this.cGroupBuilder = cGroupBuilder;
 
-        this.workerNodeAddresses = new LinkedHashMap<>();
+        this.workerNodeAddresses = Collections.emptyMap();
+        this.connections = new ConcurrentHashMap<>();
+        this.codeRepository = new CodeRepository();
+        this.blobCache = new BlobCache(BLOB_CACHE_SIZE);
 
-        this.executorService = Executors.newCachedThreadPool();
-        waiting = new HashMap<>();
+        this.executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LoadBalancer-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            this.eventLoop = new EventLoop();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open event loop", e);
+        }
+        this.eventLoop.setDecompressionExecutor(this.executorService);
+        this.eventLoop.startThread("LoadBalancer-io");
+        // Workers without connection send no heartbeats, so schedulers reading them would never choose them again
+        this.retryTimer.scheduleWithFixedDelay(this::reconnect, RECONNECT_INTERVAL_MILLIS, RECONNECT_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        waiting = new ConcurrentHashMap<>();
     }
 
     /**
@@ -68,34 +192,135 @@ public class LoadBalancer implements AutoCloseable {
      * @param address  The new {@link WorkerNode}s address and port.
      * @param password The new {@link WorkerNode}s password.
      */
-    public synchronized void addWorkerNodeAddress(InetSocketAddress address, String password) {
-        this.workerNodeAddresses.put(address, password);
+    public void addWorkerNodeAddress(InetSocketAddress address, String password) {
+        this.addWorkerNodeAddresses(Collections.singletonMap(address, password));
     }
 
     /**
      * Add one or more new {@link WorkerNode}-instances  and their passwords.
      *
+     * <p>Waits up to {@link LoadBalancer#FIRST_HEARTBEAT_TIMEOUT_MILLIS} for their first heartbeats, so schedulers
+     * reading them never wait for them themselves.</p>
+     *
      * @param addresses The new {@link WorkerNode}s addresses, ports as keys and passwords as values.
      */
-    public synchronized void addWorkerNodeAddresses(Map<InetSocketAddress, String> addresses) {
-        this.workerNodeAddresses.putAll(addresses);
+    public void addWorkerNodeAddresses(Map<InetSocketAddress, String> addresses) {
+        synchronized (this) {
+            LinkedHashMap<InetSocketAddress, String> updated = new LinkedHashMap<>(this.workerNodeAddresses);
+            updated.putAll(addresses);
+            this.workerNodeAddresses = Collections.unmodifiableMap(updated);
+            for (InetSocketAddress address : addresses.keySet()) {
+                try {
+                    // Connect right away, so the heartbeats arrive before the first task is scheduled
+                    this.connectionTo(address);
+                } catch (IOException e) {
+                    e.printStackTrace(); // Retried by the reconnect timer
+                }
+            }
+        }
+        try {
+            this.heartbeats.awaitFirst(addresses.keySet(), FIRST_HEARTBEAT_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Remove a {@link WorkerNode}-instance, so no more tasks are scheduled on it and its connection is not restored
+     * once lost. Tasks already scheduled on it are still run there.
+     *
+     * @param address The {@link WorkerNode}s address and port.
+     */
+    public void removeWorkerNodeAddress(InetSocketAddress address) {
+        synchronized (this) {
+            if (!this.workerNodeAddresses.containsKey(address)) {
+                return;
+            }
+            LinkedHashMap<InetSocketAddress, String> updated = new LinkedHashMap<>(this.workerNodeAddresses);
+            updated.remove(address);
+            this.workerNodeAddresses = Collections.unmodifiableMap(updated);
+        }
+        synchronized (this.scheduling) {
+            // Not while a task is scheduled on the old workers
+            this.scheduler.removed(address);
+        }
+    }
+
+    /**
+     * Connect to all workers, whose connection was lost or could not be opened in the first place.
+     */
+    private void reconnect() {
+        for (InetSocketAddress address : this.workerNodeAddresses.keySet()) {
+            WorkerConnection connection = this.connections.get(address);
+            if (connection == null || !connection.isOpen()) {
+                try {
+                    this.connectionTo(address);
+                } catch (IOException ignored) {
+                    // Tried again later
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the latest resources pushed by each worker.
+     *
+     * @return The snapshots.
+     */
+    public Heartbeats getHeartbeats() {
+        return heartbeats;
+    }
+
+    /**
+     * Set the policy to start duplicates of tasks, that run much longer than predicted, on other workers.
+     *
+     * <p>Only applies to tasks started afterwards. Tasks without time prediction are never hedged.</p>
+     *
+     * @param hedgingPolicy The policy, e.g. {@link HedgingPolicy#never()}.
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Get the current policy to hedge straggling tasks with, including its statistics.
+     *
+     * @return The policy.
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
     }
 
     /**
      * Execute the given task on one of the known {@link WorkerNode}-instances.
      *
+     * <p>This method does not wait for the task to finish. The returned {@link ScheduledFuture} is completed as soon
+     * as the result arrives.</p>
+     *
      * @param callable The task to be executed remotely.
      * @param input    The values to use for the prediction of time and resources.
      * @param <T>      The type of the returned value.
      * @return A {@link ScheduledFuture} of the execution on the chosen {@link WorkerNode}.
      * @throws IOException If the callable could not be scheduled by the scheduler.
      */
-    public synchronized <T> ScheduledFuture<T> executeOnWorker(RemoteCallable<T> callable, double... input)
+    public <T> ScheduledFuture<T> executeOnWorker(RemoteCallable<T> callable, double... input)
             throws IOException {
 
         ExecutionTimes executionTimes = new ExecutionTimes();
         executionTimes.entered();
 
+        SerializedCallable serialized = serializeIfDeterministic(callable);
+        String memoKey = this.memoKey(serialized);
+        InetSocketAddress cachedOn = this.whereCached(memoKey);
+        if (cachedOn != null) {
+            return this.fetchCached(callable, input, memoKey, serialized, cachedOn, executionTimes);
+        }
+        return this.scheduleAndStart(callable, input, memoKey, serialized, executionTimes);
+    }
+
+    private <T> ScheduledFuture<T> scheduleAndStart(RemoteCallable<T> callable, double[] input, String memoKey,
+                                                    SerializedCallable serialized, ExecutionTimes executionTimes)
+            throws IOException {
         TaskPrediction<T> taskPrediction = scheduleTask(callable, input);
         if (taskPrediction == null) {
             throw new IOException("Could not schedule task!");
@@ -103,36 +328,292 @@ public class LoadBalancer implements AutoCloseable {
 
 //        System.out.println("\t" + taskPrediction.hashCode() + "\tafter\t"
 //                + (taskPrediction.startAfter == null ? "START" : "" + taskPrediction.startAfter.hashCode()));
-        waiting.put(taskPrediction, new HashSet<>());
 
-        RunnableFuture<T> future = new FutureTask<>(() -> {
-            try {
-                return executeOnSpecifiedWorker(taskPrediction.worker, taskPrediction,
-                        cGroupBuilder.buildCGroup(taskPrediction.resources), executionTimes);
-            } finally {
-                startWaitingAfter(taskPrediction);
+        ScheduledFuture<T> future = new ScheduledFuture<>(taskPrediction, executionTimes, memoKey, serialized);
+        this.releaseIfCancelled(future);
+        this.startAfter(taskPrediction.startAfter, future);
+
+        return future;
+    }
+
+    /**
+     * Get the result of a {@link DeterministicCallable} from the cache of a worker, without scheduling it. If it is
+     * not cached anymore, the task is scheduled like any other task.
+     */
+    private <T> ScheduledFuture<T> fetchCached(RemoteCallable<T> callable, double[] input, String memoKey,
+                                               SerializedCallable serialized, InetSocketAddress worker,
+                                               ExecutionTimes executionTimes) {
+        TaskPrediction<T> lookup = new TaskPrediction<>(callable, System.nanoTime(), 0, worker, NO_RESOURCES, null);
+        waiting.put(lookup, new ConcurrentLinkedQueue<>());
+        ScheduledFuture<T> future = new ScheduledFuture<>(lookup, executionTimes, memoKey, serialized);
+        executionTimes.started();
+
+        CompletableFuture<Object> response;
+        try {
+            response = this.connectionTo(worker).lookup(memoKey);
+        } catch (IOException | RuntimeException e) {
+            response = failed(e);
+        }
+        future.runningAs(response);
+        CompletableFuture<Object> lookupResponse = response;
+        response.whenComplete((result, exception) -> {
+            if (exception == null) {
+                // Nothing ran on the worker, so there are no phases
+                executionTimes.cacheHit();
+                executionTimes.finished();
+                @SuppressWarnings("unchecked")
+                T typedResult = (T) result;
+                future.complete(typedResult);
+            } else if (!future.isCancelled()) {
+                // Evicted in the meantime -> run it
+                this.cachedResults.remove(memoKey);
+                try {
+                    ScheduledFuture<T> scheduled = this.scheduleAndStart(callable, input, memoKey, serialized,
+                            executionTimes);
+                    future.runningAs(scheduled);
+                    scheduled.whenComplete((r, e) -> {
+                        if (e == null) {
+                            future.complete(r);
+                        } else {
+                            future.completeExceptionally(e);
+                        }
+                    });
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
             }
+            this.startWaitingAfter(lookup);
         });
+        return future;
+    }
+
+    /**
+     * Check, whether the result of a {@link DeterministicCallable} is cached on any {@link WorkerNode}, as far as
+     * known from the results received so far.
+     *
+     * @param callable The task.
+     * @return The address of the worker, that cached the result or null, if it is not known to be cached.
+     */
+    public InetSocketAddress whereCached(RemoteCallable<?> callable) {
+        return this.whereCached(this.memoKey(serializeIfDeterministic(callable)));
+    }
 
-        if (taskPrediction.startAfter == null || !waiting.containsKey(taskPrediction.startAfter)) {
+    private InetSocketAddress whereCached(String memoKey) {
+        if (memoKey == null) {
+            return null;
+        }
+        CachedResult cached = this.cachedResults.get(memoKey);
+        if (cached == null || System.nanoTime() - cached.since > WorkerNode.RESULT_CACHE_TTL_MILLIS * 1_000_000) {
+            return null;
+        }
+        return cached.worker;
+    }
+
+    /**
+     * Serialize a task, whose result may be cached, to compute its key. The bytes are sent later on.
+     *
+     * @return The serialized task or null, if the task is not a {@link DeterministicCallable}.
+     */
+    private static SerializedCallable serializeIfDeterministic(RemoteCallable<?> callable) {
+        return callable instanceof DeterministicCallable ? new SerializedCallable(callable) : null;
+    }
+
+    /**
+     * Compute the key to cache the result of a task by.
+     *
+     * @param serialized The serialized task or null, if it must not be cached.
+     * @return The key or null, if the task must not be cached.
+     */
+    private String memoKey(SerializedCallable serialized) {
+        if (serialized == null) {
+            return null;
+        }
+        // Large captured arguments are only represented by their hash
+        CodeBundle code = this.codeRepository.bundleFor(serialized.callable);
+        return ClassFiles.hash(Arrays.asList(code == null ? "" : code.hash, ClassFiles.hash(serialized.bytes)));
+    }
+
+    /**
+     * Serialize the task of a future to send it, reusing the bytes its key was computed from, unless it is sent
+     * wrapped with its cgroup.
+     */
+    private static SerializedCallable serialize(ScheduledFuture<?> future, RemoteCallable<?> prepared) {
+        SerializedCallable serialized = future.getSerialized();
+        return serialized != null && serialized.callable == prepared ? serialized : new SerializedCallable(prepared);
+    }
+
+    /**
+     * Execute multiple tasks on the known {@link WorkerNode}-instances at once.
+     *
+     * <p>All tasks are predicted in one pass before being scheduled under a single lock, so tasks submitted
+     * concurrently are not scheduled in between. The tasks, that can start right away, are sent to each
+     * {@link WorkerNode} in a single message. Tasks, that have to wait for other tasks, are sent as soon as these have
+     * finished.</p>
+     *
+     * @param callables The tasks to be executed remotely.
+     * @param inputs    The values to use for the prediction of time and resources, one entry per task.
+     * @param <T>       The type of the returned values.
+     * @return {@link ScheduledFuture}s of the executions, in the same order as the tasks.
+     * @throws IOException If any of the callables could not be scheduled by the scheduler. In this case, none of the
+     *                     tasks is executed.
+     */
+    public <T> List<ScheduledFuture<T>> executeAllOnWorkers(List<? extends RemoteCallable<T>> callables,
+                                                            List<double[]> inputs) throws IOException {
+        if (callables.size() != inputs.size()) {
+            throw new IllegalArgumentException("Exactly one input is required per callable");
+        }
+
+        ExecutionTimes[] executionTimes = new ExecutionTimes[callables.size()];
+        double[][] predictions = new double[callables.size()][];
+        String[] memoKeys = new String[callables.size()];
+        SerializedCallable[] serialized = new SerializedCallable[callables.size()];
+        InetSocketAddress[] cachedOn = new InetSocketAddress[callables.size()];
+        for (int i = 0; i < callables.size(); ++i) {
+            executionTimes[i] = new ExecutionTimes();
+            executionTimes[i].entered();
+            serialized[i] = serializeIfDeterministic(callables.get(i));
+            memoKeys[i] = this.memoKey(serialized[i]);
+            cachedOn[i] = this.whereCached(memoKeys[i]);
+            if (cachedOn[i] == null) {
+                predictions[i] = this.predict(callables.get(i), inputs.get(i));
+            }
+        }
+
+        List<TaskPrediction<T>> taskPredictions = new ArrayList<>(callables.size());
+        synchronized (this.scheduling) {
+            // No other task is scheduled in between, so a rollback only releases the reservations of this burst
+            for (int i = 0; i < callables.size(); ++i) {
+                if (cachedOn[i] != null) {
+                    taskPredictions.add(null); // Not scheduled, fetched from the cache of the worker
+                    continue;
+                }
+                TaskPrediction<T> taskPrediction;
+                try {
+                    taskPrediction = this.schedule(callables.get(i), predictions[i]);
+                } catch (RuntimeException e) {
+                    this.unschedule(taskPredictions);
+                    throw e;
+                }
+                if (taskPrediction == null) {
+                    this.unschedule(taskPredictions);
+                    throw new IOException("Could not schedule task!");
+                }
+                taskPredictions.add(taskPrediction);
+            }
+        }
+
+        Map<InetSocketAddress, List<ScheduledFuture<T>>> startNow = new LinkedHashMap<>();
+        List<ScheduledFuture<T>> futures = new ArrayList<>(callables.size());
+        for (int i = 0; i < callables.size(); ++i) {
+            TaskPrediction<T> taskPrediction = taskPredictions.get(i);
+            if (taskPrediction == null) {
+                futures.add(this.fetchCached(callables.get(i), inputs.get(i), memoKeys[i], serialized[i],
+                        cachedOn[i], executionTimes[i]));
+                continue;
+            }
+            ScheduledFuture<T> future = new ScheduledFuture<>(taskPrediction, executionTimes[i], memoKeys[i],
+                    serialized[i]);
+            this.releaseIfCancelled(future);
+            futures.add(future);
+
+            if (taskPrediction.startAfter == null || !waiting.containsKey(taskPrediction.startAfter)) {
+                // Send it with the other tasks for this worker
+                startNow.computeIfAbsent(taskPrediction.worker, w -> new ArrayList<>()).add(future);
+            } else {
+                this.startAfter(taskPrediction.startAfter, future);
+            }
+        }
+
+        for (Map.Entry<InetSocketAddress, List<ScheduledFuture<T>>> batch : startNow.entrySet()) {
+            List<SerializedCallable> prepared = new ArrayList<>(batch.getValue().size());
+            List<CodeBundle> code = new ArrayList<>(batch.getValue().size());
+            List<Integer> lanes = new ArrayList<>(batch.getValue().size());
+            List<String> memoKeyList = new ArrayList<>(batch.getValue().size());
+            for (ScheduledFuture<T> future : batch.getValue()) {
+                prepared.add(serialize(future, this.prepare(future.getTaskPrediction())));
+                code.add(this.codeRepository.bundleFor(future.getTaskPrediction().task));
+                lanes.add(future.getTaskPrediction().lane);
+                memoKeyList.add(future.getMemoKey());
+            }
+
+            List<CompletableFuture<Object>> responses;
+            try {
+                responses = this.connectionTo(batch.getKey()).sendAll(prepared, code, lanes, memoKeyList);
+            } catch (IOException | RuntimeException e) {
+                responses = Collections.nCopies(prepared.size(), failed(e));
+            }
+
+            for (int j = 0; j < batch.getValue().size(); ++j) {
+                this.awaitResult(batch.getValue().get(j), responses.get(j));
+            }
+        }
+
+        return futures;
+    }
+
+    /**
+     * Release the reservations of tasks, that were scheduled, but will never be sent, latest first, and start the
+     * tasks, that were scheduled to wait for them in the meantime.
+     *
+     * @param taskPredictions The scheduled tasks, null for tasks, that were not scheduled.
+     */
+    private void unschedule(List<? extends TaskPrediction<?>> taskPredictions) {
+        for (int i = taskPredictions.size() - 1; i >= 0; --i) {
+            if (taskPredictions.get(i) != null) {
+                this.scheduler.cancelled(taskPredictions.get(i));
+                this.startWaitingAfter(taskPredictions.get(i));
+            }
+        }
+    }
+
+    private void startAfter(TaskPrediction<?> predecessor, ScheduledFuture<?> future) {
+        // Adding to the queue is atomic with removing it in startWaitingAfter -> the task is started exactly once
+        if (predecessor == null || waiting.computeIfPresent(predecessor, (p, queue) -> {
+            queue.add(future);
+            return queue;
+        }) == null) {
             // Start the task immediately
-            executorService.submit(future);
-        } else {
-            // Wait for other task
-            waiting.get(taskPrediction.startAfter).add(future);
+            this.executeOnSpecifiedWorker(future);
         }
+    }
 
-        return new ScheduledFuture<>(future, taskPrediction, executionTimes);
+    /**
+     * Release the reservation of a task, as soon as it is cancelled while waiting for its predecessor, and start the
+     * tasks waiting for it right away. Tasks already sent are released by {@link LoadBalancer#awaitResult}, as soon as
+     * their response is cancelled, which happens locally right away, even if the worker still runs the task until it
+     * reacts to the interrupt.
+     */
+    private void releaseIfCancelled(ScheduledFuture<?> future) {
+        future.whenComplete((result, exception) -> {
+            TaskPrediction<?> taskPrediction = future.getTaskPrediction();
+            Queue<ScheduledFuture<?>> queue = taskPrediction.startAfter == null
+                    ? null
+                    : this.waiting.get(taskPrediction.startAfter);
+            if (future.isCancelled() && queue != null && queue.remove(future)) {
+                this.scheduler.cancelled(taskPrediction);
+                this.startWaitingAfter(taskPrediction);
+            }
+        });
     }
 
-    private synchronized void startWaitingAfter(TaskPrediction<?> taskPrediction) {
-        for (RunnableFuture<?> waitingFuture : this.waiting.get(taskPrediction)) {
-            executorService.submit(waitingFuture);
+    private void startWaitingAfter(TaskPrediction<?> taskPrediction) {
+        Queue<ScheduledFuture<?>> waitingFutures = this.waiting.remove(taskPrediction);
+        if (waitingFutures != null) {
+            for (ScheduledFuture<?> waitingFuture : waitingFutures) {
+                // Don't serialize on the thread that completed the predecessor
+                executorService.execute(() -> this.executeOnSpecifiedWorker(waitingFuture));
+            }
+        }
+        if (closed.get() && this.waiting.isEmpty()) {
+            this.shutDown();
         }
-        this.waiting.remove(taskPrediction);
     }
 
     private <T> TaskPrediction<T> scheduleTask(RemoteCallable<T> callable, double[] input) {
+        return this.schedule(callable, this.predict(callable, input));
+    }
+
+    private double[] predict(RemoteCallable<?> callable, double[] input) {
         double[] score = this.inputToTaskSizePredictor.predict(input);
         double[] timeAndResources = this.taskSizeToResourcesPredictor.predict(score);
 
@@ -145,7 +626,10 @@ public class LoadBalancer implements AutoCloseable {
                 }
             }
         }
+        return timeAndResources;
+    }
 
+    private <T> TaskPrediction<T> schedule(RemoteCallable<T> callable, double[] timeAndResources) {
         double timePrediction;
         double[] resourcePrediction;
         if (timeAndResources != null) {
@@ -156,50 +640,345 @@ public class LoadBalancer implements AutoCloseable {
             resourcePrediction = null;
         }
 
-        return this.scheduler.schedule(callable, timePrediction, resourcePrediction, this.workerNodeAddresses.keySet());
+        return this.register(callable, timePrediction, resourcePrediction, this.workerNodeAddresses.keySet());
     }
 
-    private <T> T executeOnSpecifiedWorker(InetSocketAddress chosenAddress, TaskPrediction<T> taskPrediction,
-                                           CGroup cGroup, ExecutionTimes executionTimes) throws IOException {
+    /**
+     * Schedule a task and add it to the unfinished tasks in one step. Otherwise, another task could be scheduled to
+     * start after it in between, not find it and start right away.
+     *
+     * @return The prediction or null, if the task could not be scheduled.
+     */
+    private <T> TaskPrediction<T> register(RemoteCallable<T> task, double timePrediction, double[] resourcePrediction,
+                                           Set<InetSocketAddress> workers) {
+        synchronized (this.scheduling) {
+            TaskPrediction<T> taskPrediction = this.scheduler.schedule(task, timePrediction, resourcePrediction,
+                    workers);
+            if (taskPrediction != null) {
+                this.waiting.put(taskPrediction, new ConcurrentLinkedQueue<>());
+            }
+            return taskPrediction;
+        }
+    }
 
-        RemoteCallable<T> callable = taskPrediction.task;
-        if (cGroup != null) {
-            callable = this.wrapWithCGroup(callable, cGroup, workerNodeAddresses.get(chosenAddress));
+    private <T> void executeOnSpecifiedWorker(ScheduledFuture<T> future) {
+        TaskPrediction<T> taskPrediction = future.getTaskPrediction();
+        if (future.isCancelled()) {
+            // Cancelled, while its predecessor finished
+            this.scheduler.cancelled(taskPrediction);
+            this.startWaitingAfter(taskPrediction);
+            return;
         }
-        try (
-                Socket worker = new Socket(chosenAddress.getAddress(), chosenAddress.getPort());
-                Output out = new Output(worker.getOutputStream());
-                Input in = new Input(worker.getInputStream())
-        ) {
-            Kryo kryo = Serializer.setupKryoInstance();
-            kryo.writeClassAndObject(out, callable);
-            out.flush();
+        CompletableFuture<Object> response;
+        try {
+            response = this.connectionTo(taskPrediction.worker).send(serialize(future, this.prepare(taskPrediction)),
+                    this.codeRepository.bundleFor(taskPrediction.task), taskPrediction.lane, future.getMemoKey());
+        } catch (IOException | RuntimeException e) {
+            response = failed(e);
+        }
+        this.awaitResult(future, response);
+    }
 
-            // Execution started
-            this.scheduler.started(taskPrediction);
-            executionTimes.started();
+    private <T> void awaitResult(ScheduledFuture<T> future, CompletableFuture<Object> response) {
+        TaskPrediction<T> taskPrediction = future.getTaskPrediction();
+        ExecutionTimes executionTimes = future.getExecutionTimes();
 
+        // Execution started
+        this.scheduler.started(taskPrediction);
+        executionTimes.started();
+        future.runningAs(response);
+        this.hedgeLater(future, taskPrediction, response);
 
-            @SuppressWarnings("unchecked")
-            T result = (T) kryo.readClassAndObject(in);
-            return result;
+        response.whenComplete((result, exception) -> {
+            if (exception == null && future.getMemoKey() != null && !(result instanceof StreamedResult)) {
+                // The worker cached the result -> send the same task there next time
+                this.cachedResults.put(future.getMemoKey(), new CachedResult(taskPrediction.worker));
+            }
+            Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+            if (cause instanceof WorkerBusyException && this.reroute(future, taskPrediction, cause)) {
+                return;
+            }
+            this.rerouting.remove(future);
 
-        } catch (IOException e) {
-            throw new IOException("Exception while executing on worker", e);
-        } finally {
             // Execution finished (successfully or with an exception)
             this.scheduler.finished(taskPrediction);
-            executionTimes.finished();
+            if (!future.isDone()) { // Otherwise a duplicate won or it was cancelled
+                if (exception == null) {
+                    executionTimes.phases(phaseTimesOf(response));
+                }
+                executionTimes.finished();
+            }
+
+            if (exception == null) {
+                @SuppressWarnings("unchecked")
+                T typedResult = (T) result;
+                future.complete(typedResult);
+            } else {
+                IOException failure = new IOException("Exception while executing on worker", cause);
+                ScheduledFuture<?> hedge = this.hedges.get(future);
+                if (hedge == null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    // The duplicate may still succeed, it completes the future in that case
+                    hedge.whenComplete((r, e) -> {
+                        if (e != null) {
+                            future.completeExceptionally(failure);
+                        }
+                    });
+                }
+            }
+            this.startWaitingAfter(taskPrediction);
+        });
+    }
+
+    /**
+     * Start a duplicate of a task on another worker, if it runs longer than allowed by the {@link HedgingPolicy}.
+     *
+     * @param response The response of the worker. Once it arrives, no duplicate is started for this attempt anymore.
+     */
+    private <T> void hedgeLater(ScheduledFuture<T> future, TaskPrediction<T> taskPrediction,
+                                CompletableFuture<Object> response) {
+        if (this.duplicates.contains(future)) {
+            return; // Neither counted as a task nor hedged again
+        }
+        HedgingPolicy policy = this.hedgingPolicy;
+        if (!this.rerouting.containsKey(future)) {
+            // First attempt
+            future.whenComplete((result, exception) -> {
+                if (!future.isCancelled()) {
+                    policy.getStats().completed(future.getExecutionTimes().retention());
+                }
+            });
+        }
+        long delay = policy.hedgeAfter(taskPrediction);
+        if (delay < 0 || this.workerNodeAddresses.size() < 2) {
+            return;
+        }
+        try {
+            java.util.concurrent.ScheduledFuture<?> timer = this.retryTimer.schedule(
+                    () -> this.executorService.execute(() -> this.hedge(future, taskPrediction, policy)),
+                    delay, TimeUnit.NANOSECONDS);
+            response.whenComplete((result, exception) -> timer.cancel(false));
+        } catch (RejectedExecutionException ignored) {
+            // Shutting down
         }
     }
 
+    /**
+     * Schedule a duplicate of a straggling task on another worker. It is started like any other task, once the task
+     * it was scheduled after finished. The result arriving first completes the task and the other execution is
+     * cancelled.
+     */
+    private <T> void hedge(ScheduledFuture<T> future, TaskPrediction<T> straggler, HedgingPolicy policy) {
+        if (future.isDone() || this.hedges.containsKey(future)) {
+            return;
+        }
+        Set<InetSocketAddress> others = new HashSet<>(this.workerNodeAddresses.keySet());
+        others.remove(straggler.worker);
+        TaskPrediction<T> duplicate;
+        try {
+            duplicate = this.register(straggler.task, straggler.duration, straggler.resources, others);
+        } catch (RuntimeException e) {
+            return;
+        }
+        if (duplicate == null) {
+            return;
+        }
+        ExecutionTimes executionTimes = new ExecutionTimes();
+        executionTimes.entered();
+        ScheduledFuture<T> copy = new ScheduledFuture<>(duplicate, executionTimes, future.getMemoKey(),
+                future.getSerialized());
+        this.duplicates.add(copy);
+        this.hedges.put(future, copy);
+        policy.getStats().hedged();
+        this.releaseIfCancelled(copy);
+
+        future.whenComplete((result, exception) -> {
+            this.hedges.remove(future);
+            copy.cancel(true); // The loser is cancelled
+        });
+        copy.whenComplete((result, exception) -> {
+            this.duplicates.remove(copy);
+            if (exception != null || future.isDone()) {
+                return; // The original execution may still succeed
+            }
+            future.getExecutionTimes().phasesOf(executionTimes);
+            future.getExecutionTimes().finished();
+            if (future.complete(result)) {
+                policy.getStats().hedgeWon();
+                future.cancelRunning();
+            }
+        });
+        this.startAfter(duplicate.startAfter, copy);
+    }
+
+    /**
+     * Schedule a task again on another worker, if the worker it was sent to rejected it.
+     *
+     * @param future The future of the task.
+     * @param busy   The prediction the task was sent with.
+     * @param cause  The rejection of the worker.
+     * @return False, if the task is not retried anymore.
+     */
+    private <T> boolean reroute(ScheduledFuture<T> future, TaskPrediction<T> busy, Throwable cause) {
+        // Only one attempt of a task is in flight at a time
+        Rerouting rerouting = this.rerouting.computeIfAbsent(future, f -> new Rerouting());
+        if (rerouting.attempts >= MAX_BUSY_RETRIES || this.shutDown.get() || future.isDone()) {
+            return false;
+        }
+        // Free the resources reserved on the busy worker
+        this.scheduler.finished(busy);
+
+        rerouting.busyWorkers.add(busy.worker);
+        Set<InetSocketAddress> candidates = new HashSet<>(this.workerNodeAddresses.keySet());
+        candidates.removeAll(rerouting.busyWorkers);
+        long delay = 0;
+        if (candidates.isEmpty()) {
+            // Everybody is busy -> back off and try all workers again
+            candidates = this.workerNodeAddresses.keySet();
+            rerouting.busyWorkers.clear();
+            delay = BUSY_BACKOFF_MILLIS << Math.min(rerouting.attempts, 6);
+        }
+        ++rerouting.attempts;
+        Set<InetSocketAddress> workers = candidates;
+        Runnable retry = () -> this.rerouteTo(workers, future, busy, cause);
+        try {
+            if (delay == 0) {
+                this.executorService.execute(retry);
+            } else {
+                this.retryTimer.schedule(retry, delay, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            this.rerouting.remove(future);
+            future.completeExceptionally(new IOException("Exception while executing on worker", cause));
+            this.startWaitingAfter(busy);
+        }
+        return true;
+    }
+
+    /**
+     * Replace the prediction of a rejected task by a new one and start the task, once the task it was scheduled after
+     * finished. The tasks waiting for the rejected prediction are started right away.
+     */
+    private <T> void rerouteTo(Set<InetSocketAddress> workers, ScheduledFuture<T> future, TaskPrediction<T> busy,
+                               Throwable busyCause) {
+        TaskPrediction<T> rerouted = null;
+        Throwable cause = busyCause;
+        if (!future.isDone()) {
+            try {
+                rerouted = this.register(busy.task, busy.duration, busy.resources, workers);
+            } catch (RuntimeException e) {
+                cause = e;
+            }
+        }
+        if (rerouted == null) {
+            this.rerouting.remove(future);
+            future.completeExceptionally(new IOException("Exception while executing on worker", cause));
+        } else {
+            future.rescheduledAs(rerouted);
+            this.startAfter(rerouted.startAfter, future);
+        }
+        this.startWaitingAfter(busy);
+    }
+
+    private static PhaseTimes phaseTimesOf(CompletableFuture<Object> response) {
+        return response instanceof WorkerConnection.Response
+                ? ((WorkerConnection.Response) response).getPhaseTimes()
+                : null;
+    }
+
+    private static CompletableFuture<Object> failed(Exception exception) {
+        CompletableFuture<Object> failed = new CompletableFuture<>();
+        failed.completeExceptionally(exception);
+        return failed;
+    }
+
+    private <T> RemoteCallable<T> prepare(TaskPrediction<T> taskPrediction) {
+        CGroup cGroup = cGroupBuilder.buildCGroup(taskPrediction.resources);
+        if (cGroup == null) {
+            return taskPrediction.task;
+        }
+        return this.wrapWithCGroup(taskPrediction.task, cGroup, workerNodeAddresses.get(taskPrediction.worker));
+    }
+
+    private WorkerConnection connectionTo(InetSocketAddress address) throws IOException {
+        WorkerConnection connection = this.connections.get(address);
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+        synchronized (this.connections) {
+            // Check again, another thread might have reconnected in the meantime
+            connection = this.connections.get(address);
+            if (connection == null || !connection.isOpen()) {
+                connection = new WorkerConnection(this.eventLoop, address, this.executorService,
+                        this.codeRepository, this.blobCache, this.heartbeats);
+                this.connections.put(address, connection);
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * Enable or disable the adaptive compression of messages sent to {@link WorkerNode}s.
+     *
+     * @param enabled True, to compress large payloads, whenever it pays off on the link to a worker.
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        this.eventLoop.setCompressionEnabled(enabled);
+    }
+
+    /**
+     * Get statistics about the compression of messages exchanged with a {@link WorkerNode}.
+     *
+     * @param address The address of the {@link WorkerNode}.
+     * @return The statistics or null, if there is no connection to this worker.
+     */
+    public CompressionStats getCompressionStats(InetSocketAddress address) {
+        WorkerConnection connection = this.connections.get(address);
+        return connection == null ? null : connection.getCompressionStats();
+    }
+
     private <T> RemoteCallable<T> wrapWithCGroup(RemoteCallable<T> callable, CGroup cGroup, String sudoPW) {
         return new WrappedCallable<>(callable, cGroup, sudoPW);
     }
 
+    /**
+     * Stop accepting results once all tasks have finished.
+     *
+     * <p>This method does not block. Tasks still in flight or waiting for other tasks are completed first.</p>
+     */
     @Override
-    public synchronized void close() {
-        this.executorService.shutdown();
+    public void close() {
+        this.closed.set(true);
+        if (this.waiting.isEmpty()) {
+            this.shutDown();
+        }
+    }
+
+    private void shutDown() {
+        if (this.shutDown.compareAndSet(false, true)) {
+            this.connections.values().forEach(WorkerConnection::close);
+            this.eventLoop.close();
+            this.executorService.shutdown();
+            this.retryTimer.shutdown();
+        }
+    }
+
+    private static class Rerouting {
+        /**
+         * The workers, that rejected the task since all workers were tried last.
+         */
+        private final Set<InetSocketAddress> busyWorkers = new HashSet<>();
+        private int attempts = 0;
+    }
+
+    private static class CachedResult {
+        private final InetSocketAddress worker;
+        private final long since = System.nanoTime();
+
+        private CachedResult(InetSocketAddress worker) {
+            this.worker = worker;
+        }
     }
 
     private static class WrappedCallable<T> implements RemoteCallable<T> {
@@ -228,5 +1007,10 @@ public class LoadBalancer implements AutoCloseable {
         public String sudoPW() {
             return innerSudoPW;
         }
+
+        @Override
+        public boolean isIoBound() {
+            return innerCallable.isIoBound();
+        }
     }
 }
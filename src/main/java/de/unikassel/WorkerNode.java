@@ -1,32 +1,133 @@
 package de.unikassel;
 
 import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-import de.unikassel.cgroup.CGroup;
+import com.esotericsoftware.kryo.util.Pool;
+import de.unikassel.cgroup.CGroupBackend;
+import de.unikassel.cgroup.CGroupFs;
+import de.unikassel.cgroup.CGroupPool;
+import de.unikassel.cgroup.CGroupTools;
+import de.unikassel.cgroup.ExecutionLanes;
+import de.unikassel.rpc.*;
+import de.unikassel.schedule.data.PhaseTimes;
+import de.unikassel.util.classloading.ClassCache;
+import de.unikassel.util.classloading.CodeBundle;
+import de.unikassel.util.classloading.CodeRequest;
+import de.unikassel.util.concurrent.VirtualThreads;
 import de.unikassel.util.security.RemoteCallableRestrictingSecurityManager;
+import de.unikassel.util.serialization.BlobCache;
+import de.unikassel.util.serialization.DeterministicCallable;
+import de.unikassel.util.serialization.IoBoundCallable;
 import de.unikassel.util.serialization.RemoteCallable;
+import de.unikassel.util.serialization.ResultCache;
 import de.unikassel.util.serialization.Serializer;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.PermissionCollection;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A node to execute tasks provided by a {@link LoadBalancer} over the network.
+ *
+ * <p>Classes of tasks, that are not on the classpath of the node, are requested from the {@link LoadBalancer} once and
+ * kept in a bounded {@link ClassCache}, so later tasks using the same classes are run without any further transfer.
+ * Large captured arguments are kept in a {@link BlobCache} the same way. Results of {@link DeterministicCallable}s
+ * are kept in a {@link ResultCache} for {@link WorkerNode#RESULT_CACHE_TTL_MILLIS} and returned without running
+ * the task again.</p>
+ *
+ * <p>The number of tasks admitted at the same time is bounded. Tasks beyond this bound are rejected with a
+ * {@link MessageType#BUSY}-reply instead of piling up in memory. Optionally, I/O-bound tasks (see
+ * {@link IoBoundCallable}) are admitted against a separate bound and run on virtual threads, if the JVM supports
+ * them. They can not be limited by a cgroup. A {@link MessageType#CANCEL} drops a task not started yet and interrupts
+ * the thread running it otherwise, so its cgroup is released as soon as the task reacts to the interrupt. The tasks
+ * of a closed connection are cancelled the same way.</p>
+ *
+ * <p>Cgroups requested by tasks are taken from a {@link CGroupPool}, instead of creating and deleting one per
+ * task. They are written directly to the cgroup filesystem by a {@link CGroupFs}, if it is mounted. A task, whose
+ * cgroup can not be applied to its thread, fails instead of running without limits. Optionally, tasks run on
+ * {@link ExecutionLanes} pinned to single cores or NUMA-nodes.</p>
+ *
+ * <p>The free resources and the load of the node are pushed to all connected {@link LoadBalancer}s as
+ * {@link Heartbeat}s every {@link WorkerNode#DEFAULT_HEARTBEAT_INTERVAL_MILLIS} milliseconds by default, so their
+ * schedulers do not have to request them.</p>
+ *
+ * <p>Every computed result is sent with the {@link PhaseTimes} of its task, so the {@link LoadBalancer} can tell
+ * queueing, cgroup setup and (de-)serialization on the worker from the call itself.</p>
+ *
+ * <p>Tasks returning a {@link StreamedResult} have their result sent in flow-controlled chunks by a
+ * {@link ResultStreamer}.</p>
  */
 public class WorkerNode implements AutoCloseable {
 
     public static final int DEFAULT_MONITORING_PORT = 42042;
     public static final int DEFAULT_RPC_PORT = 42043;
 
-    private final ServerSocket serverSocket;
+    private static final int MAX_CACHED_BUNDLES = 64;
+    private static final int MAX_CACHED_CLASSES = 4096;
+    private static final long BLOB_CACHE_SIZE = 256L * 1024 * 1024;
+    private static final int DEFAULT_QUEUED_TASKS_PER_THREAD = 4;
+    private static final int MAX_IDLE_CGROUPS = 32;
+    private static final long RESULT_CACHE_SIZE = 64L * 1024 * 1024;
+    /**
+     * Time in milliseconds, a cached result of a {@link DeterministicCallable} is used for.
+     */
+    public static final long RESULT_CACHE_TTL_MILLIS = 10 * 60 * 1000;
+    public static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 250;
+
+    private final EventLoop eventLoop;
     private final ExecutorService executorService;
+    /**
+     * Executor for I/O-bound tasks or null, if they are run like all other tasks.
+     */
+    private final ExecutorService ioExecutorService;
+    /**
+     * Handles the shipped code, since looking up classes on the classpath reads from disk.
+     */
+    private final ExecutorService codeExecutorService;
+    private final ClassCache classCache;
+    private final BlobCache blobCache;
+    private final ResultCache resultCache;
+    private final ResultStreamer resultStreamer;
+    private final CGroupBackend cGroupBackend;
+    private final CGroupPool cGroupPool;
+    /**
+     * Lanes to run tasks on instead of the shared pool or null, if not enabled.
+     */
+    private volatile ExecutionLanes executionLanes;
+    private final int maxAdmittedTasks;
+    private final int maxAdmittedIoTasks;
+    /**
+     * The number of cores CPU-bound tasks run on in parallel, as announced in the heartbeats.
+     */
+    private final int cores;
+    /**
+     * Tasks accepted, but not finished yet. Only incremented by the event loop.
+     */
+    private final AtomicInteger admittedTasks = new AtomicInteger();
+    private final AtomicInteger admittedIoTasks = new AtomicInteger();
+    private final AtomicInteger runningTasks = new AtomicInteger();
+    /**
+     * Connections of the {@link LoadBalancer}s to send heartbeats to. Only used by the event loop.
+     */
+    private final Set<NioConnection> connections = new HashSet<>();
+    private final ScheduledExecutorService heartbeatTimer;
+    private java.util.concurrent.ScheduledFuture<?> heartbeats;
+    /**
+     * Tasks waiting for classes or blobs, by connection. Only used by the event loop.
+     */
+    private final Map<NioConnection, Waiting> waiting = new HashMap<>();
+    /**
+     * Tasks submitted, but not finished yet, by connection and id.
+     */
+    private final Map<NioConnection, Map<Long, Execution>> executions = new ConcurrentHashMap<>();
 
     /**
      * Create a new node to accept tasks on the default port ({@link WorkerNode#DEFAULT_RPC_PORT}).
@@ -55,56 +156,545 @@ public class WorkerNode implements AutoCloseable {
      * @throws IOException In case the port is already in use.
      */
     public WorkerNode(int port, int maxThreadCount) throws IOException {
-        this.serverSocket = new ServerSocket(port);
+        this(port, maxThreadCount, DEFAULT_QUEUED_TASKS_PER_THREAD * maxThreadCount);
+    }
+
+    /**
+     * Create a new node to accept tasks on the specified port with a limited amount of threads and queued tasks.
+     *
+     * <p>Tasks exceeding the limit are rejected with a {@link MessageType#BUSY}-reply, so the {@link LoadBalancer}
+     * can run them somewhere else.</p>
+     *
+     * @param port           The port to bind to.
+     * @param maxThreadCount The maximal number of threads to run simultaneously.
+     * @param maxQueuedTasks The maximal number of tasks waiting for a thread.
+     * @throws IOException In case the port is already in use.
+     */
+    public WorkerNode(int port, int maxThreadCount, int maxQueuedTasks) throws IOException {
+        this(port, maxThreadCount, maxQueuedTasks, 0);
+    }
+
+    /**
+     * Create a new node, that runs I/O-bound tasks on virtual threads, if the JVM supports them, or on a separate
+     * pool of threads otherwise.
+     *
+     * <p>I/O-bound tasks are admitted independently of all other tasks, so tasks waiting for I/O neither take the
+     * threads of CPU-bound tasks, nor are they limited by them.</p>
+     *
+     * @param port           The port to bind to.
+     * @param maxThreadCount The maximal number of threads to run CPU-bound tasks simultaneously.
+     * @param maxQueuedTasks The maximal number of CPU-bound tasks waiting for a thread.
+     * @param maxIoTasks     The maximal number of I/O-bound tasks admitted at the same time or 0 to run them like all
+     *                       other tasks.
+     * @throws IOException In case the port is already in use.
+     */
+    public WorkerNode(int port, int maxThreadCount, int maxQueuedTasks, int maxIoTasks) throws IOException {
+        this.maxAdmittedTasks = maxThreadCount + maxQueuedTasks;
+        this.maxAdmittedIoTasks = maxIoTasks;
+        this.cores = Math.min(maxThreadCount, Runtime.getRuntime().availableProcessors());
+        this.classCache = new ClassCache(WorkerNode.class.getClassLoader(), MAX_CACHED_BUNDLES, MAX_CACHED_CLASSES);
+        this.blobCache = new BlobCache(BLOB_CACHE_SIZE);
+        this.resultCache = new ResultCache(RESULT_CACHE_SIZE, RESULT_CACHE_TTL_MILLIS);
+        this.eventLoop = new EventLoop();
+        this.resultStreamer = new ResultStreamer(this.eventLoop);
+        this.cGroupBackend = CGroupFs.isAvailable() ? new CGroupFs() : new CGroupTools();
+        this.cGroupPool = new CGroupPool(MAX_IDLE_CGROUPS, this.cGroupBackend);
+        try {
+            this.eventLoop.bind(port, new MessageHandler() {
+                @Override
+                public void onMessage(NioConnection connection, Message message) {
+                    WorkerNode.this.onMessage(connection, message);
+                }
+
+                @Override
+                public void onAccepted(NioConnection connection) {
+                    connections.add(connection);
+                    sendHeartbeat(connection, heartbeat());
+                }
+
+                @Override
+                public void onClosed(NioConnection connection, IOException cause) {
+                    connections.remove(connection);
+                    Waiting closed = waiting.remove(connection);
+                    if (closed != null) {
+                        closed.tasks.forEach(waitingTask -> admitted(waitingTask.task).decrementAndGet());
+                    }
+                    Map<Long, Execution> running = executions.remove(connection);
+                    if (running != null) {
+                        // Nobody is waiting for the results anymore
+                        running.values().forEach(Execution::cancel);
+                    }
+                    resultStreamer.onClosed(connection);
+                }
+            });
+        } catch (IOException e) {
+            this.eventLoop.close();
+            throw e;
+        }
         this.executorService = Executors.newWorkStealingPool(maxThreadCount);
+        this.ioExecutorService = maxIoTasks > 0 ? VirtualThreads.newExecutor("WorkerNode-io") : null;
+        this.codeExecutorService = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WorkerNode-code");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeatTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WorkerNode-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.setHeartbeatInterval(DEFAULT_HEARTBEAT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Set the rate to push heartbeats to the connected {@link LoadBalancer}s with.
+     *
+     * @param millis The time between two heartbeats in milliseconds or 0 to stop sending them.
+     */
+    public synchronized void setHeartbeatInterval(long millis) {
+        if (this.heartbeats != null) {
+            this.heartbeats.cancel(false);
+            this.heartbeats = null;
+        }
+        if (millis > 0) {
+            // Measured on the timer, only sending is done by the event loop
+            this.heartbeats = this.heartbeatTimer.scheduleAtFixedRate(() -> {
+                Heartbeat heartbeat = this.heartbeat();
+                this.eventLoop.execute(() -> this.connections.forEach(c -> this.sendHeartbeat(c, heartbeat)));
+            }, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Heartbeat heartbeat() {
+        double cpuUsage = -1;
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            cpuUsage = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+        }
+        if (cpuUsage < 0) {
+            // Not available -> estimate by the load of the whole system
+            cpuUsage = Math.max(0, os.getSystemLoadAverage()) / os.getAvailableProcessors();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        int running = this.runningTasks.get();
+        return new Heartbeat(Math.max(0, 1 - cpuUsage), freeMemory,
+                Math.max(0, this.admittedTasks.get() + this.admittedIoTasks.get() - running), running, this.cores,
+                this.getExecutionLaneCount());
+    }
+
+    private void sendHeartbeat(NioConnection connection, Heartbeat heartbeat) {
+        try {
+            connection.send(new Message(0, MessageType.HEARTBEAT, heartbeat.encode()));
+        } catch (IOException ignored) {
+            // Closed -> removed from the connections anyway
+        }
     }
 
     /**
      * Start listening for tasks to execute.
      *
+     * <p>This method blocks until {@link WorkerNode#stop()} is called. The calling thread only handles the network
+     * I/O, the tasks are executed by a separate pool of threads.</p>
+     *
      * @param permissions Permission required for task execution.
      * @throws IOException In case of problems with the connection.
      */
     public void start(PermissionCollection permissions) throws IOException {
         RemoteCallableRestrictingSecurityManager.install(permissions);
-        for (Socket socket = serverSocket.accept(); socket != null; socket = serverSocket.accept()) {
-            InputStream inputStream = socket.getInputStream();
-            OutputStream outputStream = socket.getOutputStream();
-            this.executorService.submit(() -> {
-                try (
-                        Input in = new Input(inputStream);
-                        Output out = new Output(outputStream)
-                ) {
-                    Kryo kryo = Serializer.setupKryoInstance();
-                    RemoteCallable<?> callable = (RemoteCallable<?>) kryo.readClassAndObject(in);
-                    try {
-                        Object result;
-                        if (callable.getCGroup() != null) {
-                            CGroup cGroup = callable.getCGroup();
-                            String sudoPW = callable.sudoPW();
-
-                            cGroup.create(sudoPW);
-                            cGroup.classify(sudoPW);
-
-                            result = callable.call();
-
-                            cGroup.delete(sudoPW);
-
-                        } else {
-                            result = callable.call();
-                        }
-                        kryo.writeClassAndObject(out, result);
-                        out.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        kryo.writeClassAndObject(out, null);
-                        out.flush();
+        this.eventLoop.run();
+    }
+
+    private void onMessage(NioConnection connection, Message request) {
+        switch (request.type) {
+            case TASK:
+                this.onTask(connection, request);
+                break;
+            case CODE:
+                this.onCode(connection, request);
+                break;
+            case BLOB:
+                this.onBlobs(connection, request);
+                break;
+            case STREAM_CREDIT:
+                this.resultStreamer.onCredit(connection, request);
+                break;
+            case CACHE_LOOKUP:
+                byte[] cached = this.resultCache.get(new String(request.payload, StandardCharsets.UTF_8));
+                this.respond(connection, cached == null
+                        ? new Message(request.id, MessageType.CACHE_MISS, new byte[0])
+                        : new Message(request.id, MessageType.RESULT, ResultTrailer.append(cached, null)));
+                break;
+            case CANCEL:
+                this.onCancel(connection, request.id);
+                break;
+            case BATCH:
+                try {
+                    for (Message task : request.unbatch()) {
+                        this.onMessage(connection, task);
                     }
-                } catch (Exception e) {
+                } catch (IOException e) {
                     e.printStackTrace();
                 }
+                break;
+            default:
+                System.err.println("Ignoring unexpected message of type " + request.type);
+        }
+    }
+
+    private void onTask(NioConnection connection, Message request) {
+        TaskPayload task;
+        try {
+            task = TaskPayload.decode(request.payload);
+        } catch (IOException e) {
+            // Fail the task instead of letting the load balancer wait for it forever
+            this.respond(connection, new Message(request.id, MessageType.ERROR,
+                    String.valueOf(e).getBytes(StandardCharsets.UTF_8)));
+            return;
+        }
+        byte[] cached = task.memoKey.isEmpty() ? null : this.resultCache.get(task.memoKey);
+        if (cached != null) {
+            // Computed before -> no need to admit it at all
+            this.respond(connection, new Message(request.id, MessageType.RESULT,
+                    ResultTrailer.append(cached, null)));
+            return;
+        }
+        AtomicInteger admittedTasks = this.admitted(task);
+        int admitted = admittedTasks.get();
+        if (admitted >= (admittedTasks == this.admittedIoTasks ? this.maxAdmittedIoTasks : this.maxAdmittedTasks)) {
+            this.respond(connection, new Message(request.id, MessageType.BUSY,
+                    ByteBuffer.allocate(Integer.BYTES).putInt(admitted).array()));
+            return;
+        }
+        admittedTasks.incrementAndGet();
+        long admittedAt = System.nanoTime();
+        if (!this.trySubmit(connection, request.id, task, admittedAt, Collections.emptyMap())) {
+            Waiting waiting = this.waiting.computeIfAbsent(connection, c -> new Waiting());
+            waiting.tasks.add(new WaitingTask(request.id, task, admittedAt));
+            this.requestMissing(connection, waiting, task);
+        }
+    }
+
+    private void onCancel(NioConnection connection, long id) {
+        Waiting waiting = this.waiting.get(connection);
+        if (waiting != null) {
+            for (Iterator<WaitingTask> iterator = waiting.tasks.iterator(); iterator.hasNext(); ) {
+                WaitingTask waitingTask = iterator.next();
+                if (waitingTask.id == id) {
+                    iterator.remove();
+                    this.admitted(waitingTask.task).decrementAndGet();
+                    this.respond(connection, cancelled(id));
+                    return;
+                }
+            }
+        }
+        Map<Long, Execution> running = this.executions.get(connection);
+        Execution execution = running == null ? null : running.get(id);
+        if (execution != null) {
+            execution.cancel();
+        }
+    }
+
+    private void onCode(NioConnection connection, Message message) {
+        // Only the tasks waiting for the code are handled by the event loop
+        this.codeExecutorService.execute(() -> {
+            CodeBundle bundle;
+            try {
+                bundle = (CodeBundle) Serializer.deserialize(message.payload);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                return;
+            }
+            this.classCache.addDefinitions(bundle.definitions);
+            String[] missing = this.classCache.missing(bundle);
+            if (missing.length > 0 && bundle.definitions.isEmpty()) {
+                // Manifest received -> only ask for the classes, that are neither cached nor on the classpath
+                this.respond(connection, new Message(message.id, MessageType.CODE_REQUEST,
+                        Serializer.serialize(new CodeRequest(bundle.hash, missing))));
+                return;
+            }
+            this.classCache.define(bundle);
+            this.eventLoop.execute(() -> {
+                Waiting waiting = this.waiting.get(connection);
+                if (waiting != null) {
+                    waiting.requested.remove(bundle.hash);
+                }
+                this.retryWaiting(connection, Collections.emptyMap());
             });
+        });
+    }
+
+    private void onBlobs(NioConnection connection, Message message) {
+        Map<String, byte[]> blobs;
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, byte[]> received = (Map<String, byte[]>) Serializer.deserialize(message.payload);
+            blobs = received;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return;
+        }
+        Waiting waiting = this.waiting.get(connection);
+        for (Map.Entry<String, byte[]> blob : blobs.entrySet()) {
+            if (waiting != null) {
+                waiting.requested.remove(blob.getKey());
+            }
+            if (blob.getValue() != null) {
+                this.blobCache.put(blob.getKey(), blob.getValue());
+            } else if (waiting != null) {
+                // Not even the load balancer has it anymore -> fail instead of waiting forever
+                waiting.tasks.removeIf(waitingTask -> {
+                    if (!Arrays.asList(waitingTask.task.blobHashes).contains(blob.getKey())) {
+                        return false;
+                    }
+                    this.respond(connection, new Message(waitingTask.id, MessageType.ERROR,
+                            ("Blob " + blob.getKey() + " not available").getBytes(StandardCharsets.UTF_8)));
+                    this.admitted(waitingTask.task).decrementAndGet();
+                    return true;
+                });
+            }
         }
+        this.retryWaiting(connection, blobs);
+    }
+
+    /**
+     * Submit the waiting tasks of a connection, that have all their classes and blobs now.
+     *
+     * @param received Blobs just received, in case they did not fit into the cache.
+     */
+    private void retryWaiting(NioConnection connection, Map<String, byte[]> received) {
+        Waiting waiting = this.waiting.get(connection);
+        if (waiting == null) {
+            return;
+        }
+        waiting.tasks.removeIf(waitingTask -> {
+            if (this.trySubmit(connection, waitingTask.id, waitingTask.task, waitingTask.admittedAt, received)) {
+                return true;
+            }
+            // Blobs might have been evicted while waiting for the code
+            this.requestMissing(connection, waiting, waitingTask.task);
+            return false;
+        });
+        if (waiting.tasks.isEmpty() && waiting.requested.isEmpty()) {
+            this.waiting.remove(connection);
+        }
+    }
+
+    private void requestMissing(NioConnection connection, Waiting waiting, TaskPayload task) {
+        if (!task.bundleHash.isEmpty() && this.classCache.kryoPoolFor(task.bundleHash) == null
+                && waiting.requested.add(task.bundleHash)) {
+            // First task of an unknown bundle -> ask for its manifest
+            this.respond(connection, new Message(0, MessageType.CODE_REQUEST,
+                    Serializer.serialize(new CodeRequest(task.bundleHash))));
+        }
+        String[] missingBlobs = Arrays.stream(task.blobHashes)
+                .filter(hash -> this.blobCache.get(hash) == null)
+                .filter(waiting.requested::add)
+                .toArray(String[]::new);
+        if (missingBlobs.length > 0) {
+            this.respond(connection, new Message(0, MessageType.BLOB_REQUEST, Serializer.serialize(missingBlobs)));
+        }
+    }
+
+    /**
+     * Submit a task for execution, if its classes and blobs are available.
+     *
+     * @return True, if the task was submitted.
+     */
+    private boolean trySubmit(NioConnection connection, long id, TaskPayload task, long admittedAt,
+                              Map<String, byte[]> received) {
+        Pool<Kryo> kryoPool = null;
+        if (!task.bundleHash.isEmpty()) {
+            kryoPool = this.classCache.kryoPoolFor(task.bundleHash);
+            if (kryoPool == null) {
+                return false;
+            }
+        }
+        // Resolve the blobs now, so they can not be evicted before the task is deserialized
+        Map<String, byte[]> blobs = new HashMap<>();
+        for (String hash : task.blobHashes) {
+            byte[] blob = received.get(hash);
+            if (blob == null && (blob = this.blobCache.get(hash)) == null) {
+                return false;
+            }
+            blobs.put(hash, blob);
+        }
+        Pool<Kryo> taskKryoPool = kryoPool;
+        Execution execution = new Execution(admittedAt);
+        this.executions.computeIfAbsent(connection, c -> new ConcurrentHashMap<>()).put(id, execution);
+        // Deserialization and execution are done by the pool, the event loop only handles I/O
+        Runnable run = () -> this.execute(connection, id, task, taskKryoPool, blobs, execution);
+        ExecutionLanes lanes = this.executionLanes;
+        if (this.admitted(task) == this.admittedIoTasks) {
+            this.ioExecutorService.execute(run);
+        } else if (lanes != null) {
+            lanes.execute(task.lane, run);
+        } else {
+            this.executorService.submit(run);
+        }
+        return true;
+    }
+
+    private void execute(NioConnection connection, long id, TaskPayload task, Pool<Kryo> kryoPool,
+                         Map<String, byte[]> blobs, Execution execution) {
+        if (!execution.start()) {
+            this.respond(connection, cancelled(id));
+            this.finish(connection, id, task, execution);
+            return;
+        }
+        this.runningTasks.incrementAndGet();
+        try {
+            RemoteCallable<?> callable = (RemoteCallable<?>) (kryoPool == null
+                    ? Serializer.deserialize(task.task, blobs)
+                    : Serializer.deserialize(kryoPool, task.task, blobs));
+            long deserialized = System.nanoTime();
+            long callStarted;
+            long callEnded;
+            Object result;
+            if (this.admitted(task) == this.admittedIoTasks) {
+                if (callable.getCGroup() != null) {
+                    // Cgroups would apply to the carrier thread, which changes whenever a virtual thread blocks
+                    throw new IOException("I/O-bound tasks can not be limited by a cgroup");
+                }
+                callStarted = System.nanoTime();
+                result = callable.call();
+                callEnded = System.nanoTime();
+            } else if (callable.getCGroup() != null) {
+                CGroupPool.Lease lease = this.cGroupPool.acquire(callable.getCGroup(), callable.sudoPW());
+                try {
+                    callStarted = System.nanoTime();
+                    result = callable.call();
+                    callEnded = System.nanoTime();
+                } finally {
+                    try {
+                        lease.close();
+                    } finally {
+                        this.repin();
+                    }
+                }
+            } else {
+                if (this.cGroupPool.leave(callable.sudoPW())) {
+                    this.repin();
+                }
+                callStarted = System.nanoTime();
+                result = callable.call();
+                callEnded = System.nanoTime();
+            }
+            long released = System.nanoTime();
+            if (result instanceof StreamedResult) {
+                this.resultStreamer.stream(connection, id, (StreamedResult) result);
+                return;
+            }
+            byte[] serialized = kryoPool == null
+                    ? Serializer.serialize(result)
+                    : Serializer.serialize(kryoPool, result);
+            if (!task.memoKey.isEmpty()) {
+                this.resultCache.put(task.memoKey, serialized);
+            }
+            PhaseTimes times = new PhaseTimes(execution.startedAt - execution.admittedAt,
+                    deserialized - execution.startedAt, (callStarted - deserialized) + (released - callEnded),
+                    callEnded - callStarted, System.nanoTime() - released);
+            this.respond(connection, new Message(id, MessageType.RESULT, ResultTrailer.append(serialized, times)));
+        } catch (Exception | LinkageError e) {
+            if (!execution.isCancelled()) {
+                e.printStackTrace();
+            }
+            this.respond(connection,
+                    new Message(id, MessageType.ERROR, String.valueOf(e).getBytes(StandardCharsets.UTF_8)));
+        } finally {
+            this.runningTasks.decrementAndGet();
+            this.finish(connection, id, task, execution);
+        }
+    }
+
+    /**
+     * Move the current thread back into the cpuset of its execution lane, if it runs on one, after it was moved to
+     * the cgroup of a task or out of it.
+     */
+    private void repin() {
+        ExecutionLanes lanes = this.executionLanes;
+        if (lanes != null) {
+            try {
+                lanes.repin();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Get the counter of admitted tasks, a task is accounted in.
+     */
+    private AtomicInteger admitted(TaskPayload task) {
+        return task.ioBound && this.ioExecutorService != null ? this.admittedIoTasks : this.admittedTasks;
+    }
+
+    private void finish(NioConnection connection, long id, TaskPayload task, Execution execution) {
+        execution.end();
+        Map<Long, Execution> running = this.executions.get(connection);
+        if (running != null) {
+            running.remove(id, execution);
+        }
+        this.admitted(task).decrementAndGet();
+    }
+
+    private static Message cancelled(long id) {
+        return new Message(id, MessageType.ERROR, "Cancelled".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void respond(NioConnection connection, Message response) {
+        try {
+            connection.send(response);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Run tasks on execution lanes confined to single cores or NUMA-nodes instead of the shared pool.
+     *
+     * <p>Tasks sent to a specific lane (see {@link TaskPayload#lane}) always run on the same CPUs, all others on the
+     * least busy lane.</p>
+     *
+     * @param granularity The part of the CPUs to confine each lane to.
+     * @param sudoPW      The sudo-password to allow the creation of the cpuset-cgroups.
+     * @throws IOException In case the cgroups of the lanes could not be created.
+     */
+    public synchronized void enableExecutionLanes(ExecutionLanes.Granularity granularity, String sudoPW)
+            throws IOException {
+        ExecutionLanes previous = this.executionLanes;
+        this.executionLanes = new ExecutionLanes(granularity, this.cGroupBackend, sudoPW);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Get the number of execution lanes.
+     *
+     * @return The number of lanes or 0, if tasks are run on the shared pool.
+     */
+    public int getExecutionLaneCount() {
+        ExecutionLanes lanes = this.executionLanes;
+        return lanes == null ? 0 : lanes.size();
+    }
+
+    /**
+     * Enable or disable the adaptive compression of results sent to the {@link LoadBalancer}.
+     *
+     * @param enabled True, to compress large payloads, whenever it pays off on the link.
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        this.eventLoop.setCompressionEnabled(enabled);
+    }
+
+    /**
+     * Get statistics about the compression of messages on all connections of this node.
+     *
+     * @return The statistics.
+     */
+    public CompressionStats getCompressionStats() {
+        return this.eventLoop.getCompressionStats();
     }
 
     /**
@@ -113,7 +703,17 @@ public class WorkerNode implements AutoCloseable {
      * @throws IOException In case of problems while closing the socket.
      */
     public void stop() throws IOException {
-        this.serverSocket.close();
+        this.heartbeatTimer.shutdownNow();
+        this.codeExecutorService.shutdownNow();
+        if (this.ioExecutorService != null) {
+            this.ioExecutorService.shutdown();
+        }
+        this.eventLoop.close();
+        ExecutionLanes lanes = this.executionLanes;
+        if (lanes != null) {
+            lanes.close();
+        }
+        this.cGroupPool.close();
         RemoteCallableRestrictingSecurityManager.uninstall();
     }
 
@@ -121,4 +721,71 @@ public class WorkerNode implements AutoCloseable {
     public void close() throws IOException {
         this.stop();
     }
+
+    private static class Waiting {
+        private final List<WaitingTask> tasks = new ArrayList<>();
+        /**
+         * Hashes of bundles and blobs requested, but not received yet.
+         */
+        private final Set<String> requested = new HashSet<>();
+    }
+
+    /**
+     * A submitted task, that can be cancelled before and while it runs.
+     */
+    private static class Execution {
+        private final long admittedAt;
+        private long startedAt;
+        private Thread thread;
+        private boolean cancelled = false;
+
+        private Execution(long admittedAt) {
+            this.admittedAt = admittedAt;
+        }
+
+        /**
+         * Mark the task as running on the current thread.
+         *
+         * @return False, if it was cancelled before.
+         */
+        private synchronized boolean start() {
+            if (cancelled) {
+                return false;
+            }
+            thread = Thread.currentThread();
+            startedAt = System.nanoTime();
+            return true;
+        }
+
+        private void end() {
+            synchronized (this) {
+                thread = null;
+            }
+            // Don't interrupt the next task of this thread
+            Thread.interrupted();
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static class WaitingTask {
+        private final long id;
+        private final TaskPayload task;
+        private final long admittedAt;
+
+        private WaitingTask(long id, TaskPayload task, long admittedAt) {
+            this.id = id;
+            this.task = task;
+            this.admittedAt = admittedAt;
+        }
+    }
 }
@@ -29,7 +29,7 @@ public class CGroup {
      */
     public CGroup(String name, Collection<Controller> controllers) {
         this.name = name;
-        this.values = new HashMap<>();
+        this.values = new EnumMap<>(Controller.class);
         controllers.forEach(c -> values.put(c, new HashMap<>()));
 
     }
@@ -81,19 +81,65 @@ public class CGroup {
                 );
         for (Controller controller : controllers) {
             for (Map.Entry<Option, String> entry : values.get(controller).entrySet()) {
-                shell.addShellCommand(
-                        new ShellCommand(Command.CGSET, true)
-                                .withArgs(
-                                        "-r",
-                                        String.format("%s.%s=%s", controller, entry.getKey(), entry.getValue()),
-                                        name
-                                )
-                );
+                shell.addShellCommand(this.setCommand(entry.getKey(), entry.getValue()));
             }
         }
         return shell.execute();
     }
 
+    /**
+     * Change the values of options of the existing cgroup in place to the ones of another cgroup.
+     *
+     * <p>Only options, whose values differ, are set. Options the other cgroup does not have are left unchanged.</p>
+     *
+     * @param sudoPW The sudo-password to allow changing the cgroup.
+     * @param target The cgroup to take the values from.
+     * @return The result of the call to change the cgroup or null, if no value had to be changed.
+     * @throws IOException In case of exceptions when executing cgroup set.
+     */
+    public ShellResult adjust(String sudoPW, CGroup target) throws IOException {
+        Shell shell = new Shell().addSudoRightCommand(sudoPW);
+        boolean changed = false;
+        for (Map.Entry<Controller, Map<Option, String>> controller : target.values.entrySet()) {
+            Map<Option, String> current = this.values.get(controller.getKey());
+            if (current == null) {
+                continue;
+            }
+            for (Map.Entry<Option, String> entry : controller.getValue().entrySet()) {
+                if (!entry.getValue().equals(current.get(entry.getKey()))) {
+                    shell.addShellCommand(this.setCommand(entry.getKey(), entry.getValue()));
+                    current.put(entry.getKey(), entry.getValue());
+                    changed = true;
+                }
+            }
+        }
+        return changed ? shell.execute() : null;
+    }
+
+    /**
+     * Get the controllers of this cgroup.
+     *
+     * @return The controllers.
+     */
+    public Set<Controller> getControllers() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    /**
+     * Get the options set for one controller of this cgroup.
+     *
+     * @param controller The controller.
+     * @return The options with their values or an empty map, if the controller is not used.
+     */
+    public Map<Option, String> getOptions(Controller controller) {
+        return Collections.unmodifiableMap(values.getOrDefault(controller, Collections.emptyMap()));
+    }
+
+    private ShellCommand setCommand(Option option, String value) {
+        return new ShellCommand(Command.CGSET, true)
+                .withArgs("-r", String.format("%s.%s=%s", option.getController(), option, value), name);
+    }
+
     /**
      * Classify the current thread to this cgroup using all of its controllers.
      *
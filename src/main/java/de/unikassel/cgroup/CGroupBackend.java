@@ -0,0 +1,63 @@
+package de.unikassel.cgroup;
+
+import java.io.IOException;
+
+/**
+ * A way of managing cgroups on the current machine.
+ */
+public interface CGroupBackend extends AutoCloseable {
+
+    /**
+     * Create the cgroup with all of its {@link Controller}s and options.
+     *
+     * @param cGroup The cgroup to create.
+     * @param sudoPW The sudo-password to allow the creation of the cgroup.
+     * @throws IOException In case the cgroup could not be created.
+     */
+    void create(CGroup cGroup, String sudoPW) throws IOException;
+
+    /**
+     * Change the values of options of an existing cgroup in place to the ones of another cgroup.
+     *
+     * @param cGroup The existing cgroup. Its values are updated as well.
+     * @param target The cgroup to take the values from.
+     * @param sudoPW The sudo-password to allow changing the cgroup.
+     * @throws IOException In case the cgroup could not be changed.
+     */
+    void adjust(CGroup cGroup, CGroup target, String sudoPW) throws IOException;
+
+    /**
+     * Classify the current thread to the cgroup using all of its {@link Controller}s.
+     *
+     * @param cGroup The cgroup to move the current thread into.
+     * @param sudoPW The sudo-password to allow the classification.
+     * @throws IOException In case the thread could not be classified.
+     */
+    void classify(CGroup cGroup, String sudoPW) throws IOException;
+
+    /**
+     * Check whether a single thread can be classified into the cgroup at all, before creating it.
+     *
+     * @param cGroup The cgroup.
+     * @return False, if {@link CGroupBackend#classify(CGroup, String)} would always fail for this cgroup.
+     */
+    default boolean canClassifyThread(CGroup cGroup) {
+        return true;
+    }
+
+    /**
+     * Delete the cgroup with all of its {@link Controller}s.
+     *
+     * @param cGroup The cgroup to delete.
+     * @param sudoPW The sudo-password to allow the deletion of the cgroup.
+     * @throws IOException In case the cgroup could not be deleted.
+     */
+    void delete(CGroup cGroup, String sudoPW) throws IOException;
+
+    /**
+     * Release any resources held by this backend.
+     */
+    @Override
+    default void close() {
+    }
+}
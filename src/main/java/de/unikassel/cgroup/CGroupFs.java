@@ -0,0 +1,382 @@
+package de.unikassel.cgroup;
+
+import de.unikassel.cgroup.options.Blkio;
+import de.unikassel.cgroup.options.Cpu;
+import de.unikassel.cgroup.options.CpuSet;
+import de.unikassel.cgroup.options.Memory;
+import de.unikassel.cgroup.options.Option;
+import de.unikassel.util.nativ.jna.ThreadUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * {@link CGroupBackend} writing directly to the cgroup filesystem instead of running the cgroup-tools.
+ *
+ * <p>Both the v1 hierarchy with one directory per {@link Controller} and the v2 unified hierarchy are supported. On
+ * v2 the options are translated to their unified counterparts, e.g. {@link Cpu#CFS_QUOTA_US} to {@code cpu.max},
+ * {@link Memory#LIMIT_IN_BYTES} to {@code memory.max} and the throttles of {@link Blkio.Throttle} to
+ * {@code io.max}.</p>
+ *
+ * <p>If the root of the hierarchy is not writable for the current user, all files are written by a
+ * {@link PrivilegedHelper}, that is started once with the first sudo-password passed.</p>
+ *
+ * <p>On v2 single threads can only be moved into threaded cgroups, which only support the cpu- and
+ * cpuset-{@link Controller}s. Cgroups only using these are created as threaded. Classifying a thread into any other
+ * cgroup is rejected, as it would be by the kernel.</p>
+ */
+public class CGroupFs implements CGroupBackend {
+
+    /**
+     * The usual mount point of the cgroup filesystem.
+     */
+    public static final Path DEFAULT_ROOT = Paths.get("/sys/fs/cgroup");
+
+    private static final long DEFAULT_CFS_PERIOD_US = 100000;
+
+    private final Path root;
+    private final boolean unified;
+    private final boolean privileged;
+    private PrivilegedHelper helper;
+
+    /**
+     * Manage cgroups in the hierarchy mounted at {@link CGroupFs#DEFAULT_ROOT}.
+     */
+    public CGroupFs() {
+        this(DEFAULT_ROOT);
+    }
+
+    /**
+     * Manage cgroups in the hierarchy at the given root.
+     *
+     * @param root The root of the hierarchy, containing one directory per {@link Controller} for v1 or the file
+     *             {@code cgroup.controllers} for v2.
+     */
+    public CGroupFs(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        this.unified = Files.exists(this.root.resolve("cgroup.controllers"));
+        this.privileged = !Files.isWritable(this.root);
+    }
+
+    /**
+     * Check whether a cgroup filesystem is mounted at {@link CGroupFs#DEFAULT_ROOT}.
+     *
+     * @return True, if cgroups can be managed by a {@link CGroupFs}.
+     */
+    public static boolean isAvailable() {
+        return Files.exists(DEFAULT_ROOT.resolve("cgroup.controllers"))
+                || Files.isDirectory(DEFAULT_ROOT.resolve(Controller.CPU.toString()));
+    }
+
+    /**
+     * Check whether the hierarchy is the unified one of cgroup v2.
+     *
+     * @return True for v2, false for v1.
+     */
+    public boolean isUnified() {
+        return unified;
+    }
+
+    @Override
+    public void create(CGroup cGroup, String sudoPW) throws IOException {
+        if (unified) {
+            Path dir = this.directory(cGroup, null);
+            Map<String, List<String>> values = unifiedValues(cGroup);
+            this.enableControllers(dir.getParent(), cGroup.getControllers(), sudoPW);
+            this.mkdirs(dir, sudoPW);
+            if (isThreaded(cGroup)) {
+                this.write(dir.resolve("cgroup.type"), "threaded", sudoPW);
+            }
+            this.writeAll(dir, values, sudoPW);
+            return;
+        }
+        for (Controller controller : cGroup.getControllers()) {
+            Path dir = this.directory(cGroup, controller);
+            this.mkdirs(dir, sudoPW);
+            Map<Option, String> options = cGroup.getOptions(controller);
+            if (controller == Controller.CPUSET) {
+                // Threads can not be added to a cpuset without cpus and mems
+                for (Option option : Arrays.asList(CpuSet.CPUS, CpuSet.MEMS)) {
+                    Path inherited = dir.getParent().resolve(v1File(option));
+                    if (!options.containsKey(option) && Files.exists(inherited)) {
+                        this.write(dir.resolve(v1File(option)), read(inherited).trim(), sudoPW);
+                    }
+                }
+            }
+            for (Map.Entry<Option, String> entry : options.entrySet()) {
+                this.write(dir.resolve(v1File(entry.getKey())), entry.getValue(), sudoPW);
+            }
+        }
+    }
+
+    @Override
+    public void adjust(CGroup cGroup, CGroup target, String sudoPW) throws IOException {
+        if (unified) {
+            Map<String, List<String>> before = unifiedValues(cGroup);
+            takeValues(cGroup, target);
+            Map<String, List<String>> after = unifiedValues(cGroup);
+            after.entrySet().removeIf(entry -> entry.getValue().equals(before.get(entry.getKey())));
+            this.writeAll(this.directory(cGroup, null), after, sudoPW);
+            return;
+        }
+        for (Controller controller : cGroup.getControllers()) {
+            Map<Option, String> current = cGroup.getOptions(controller);
+            for (Map.Entry<Option, String> entry : target.getOptions(controller).entrySet()) {
+                if (!entry.getValue().equals(current.get(entry.getKey()))) {
+                    this.write(this.directory(cGroup, controller).resolve(v1File(entry.getKey())), entry.getValue(),
+                            sudoPW);
+                    cGroup.withOption(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean canClassifyThread(CGroup cGroup) {
+        return !unified || isThreaded(cGroup);
+    }
+
+    @Override
+    public void classify(CGroup cGroup, String sudoPW) throws IOException {
+        String threadId = String.valueOf(ThreadUtil.getThreadId());
+        if (unified) {
+            if (!isThreaded(cGroup)) {
+                throw new IOException("Only the cpu- and cpuset-controllers can limit single threads on cgroup v2, not "
+                        + cGroup.getControllers());
+            }
+            this.write(this.directory(cGroup, null).resolve("cgroup.threads"), threadId, sudoPW);
+            return;
+        }
+        for (Controller controller : cGroup.getControllers()) {
+            this.write(this.directory(cGroup, controller).resolve("tasks"), threadId, sudoPW);
+        }
+    }
+
+    @Override
+    public void delete(CGroup cGroup, String sudoPW) throws IOException {
+        if (unified) {
+            this.delete(this.directory(cGroup, null), "cgroup.threads", sudoPW);
+            return;
+        }
+        for (Controller controller : cGroup.getControllers()) {
+            this.delete(this.directory(cGroup, controller), "tasks", sudoPW);
+        }
+    }
+
+    private void delete(Path dir, String threadsFile, String sudoPW) throws IOException {
+        if (dir.equals(root) || !Files.isDirectory(dir)) {
+            return;
+        }
+        // A cgroup can only be removed without threads -> move the remaining ones to the parent
+        Path threads = dir.resolve(threadsFile);
+        if (Files.exists(threads)) {
+            for (String threadId : read(threads).split("\\s+")) {
+                if (threadId.isEmpty()) {
+                    continue;
+                }
+                try {
+                    this.write(dir.getParent().resolve(threadsFile), threadId, sudoPW);
+                } catch (IOException ignored) {
+                    // Thread terminated in the meantime
+                }
+            }
+        }
+        this.rmdir(dir, sudoPW);
+    }
+
+    /**
+     * Make sure all controllers are enabled for the children of every directory from the root down to the given one.
+     */
+    private void enableControllers(Path dir, Collection<Controller> controllers, String sudoPW) throws IOException {
+        List<Path> ancestors = new ArrayList<>();
+        for (Path current = dir; current.startsWith(root); current = current.getParent()) {
+            ancestors.add(0, current);
+            if (current.equals(root)) {
+                break;
+            }
+        }
+        for (Path ancestor : ancestors) {
+            Path subtreeControl = ancestor.resolve("cgroup.subtree_control");
+            List<String> enabled = Files.exists(subtreeControl)
+                    ? Arrays.asList(read(subtreeControl).trim().split("\\s+"))
+                    : Collections.emptyList();
+            StringJoiner missing = new StringJoiner(" ");
+            for (Controller controller : controllers) {
+                if (!enabled.contains(unifiedName(controller))) {
+                    missing.add("+" + unifiedName(controller));
+                }
+            }
+            if (missing.length() > 0) {
+                if (!Files.isDirectory(ancestor)) {
+                    this.mkdirs(ancestor, sudoPW);
+                }
+                this.write(subtreeControl, missing.toString(), sudoPW);
+            }
+        }
+    }
+
+    private Path directory(CGroup cGroup, Controller controller) throws IOException {
+        Path base = controller == null ? root : root.resolve(controller.toString());
+        String name = cGroup.name.replaceFirst("^/+", "");
+        Path dir = name.isEmpty() ? base : base.resolve(name).normalize();
+        if (!dir.startsWith(base)) {
+            throw new IOException("Invalid name of cgroup: " + cGroup.name);
+        }
+        return dir;
+    }
+
+    private void writeAll(Path dir, Map<String, List<String>> values, String sudoPW) throws IOException {
+        for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+            for (String line : entry.getValue()) {
+                this.write(dir.resolve(entry.getKey()), line, sudoPW);
+            }
+        }
+    }
+
+    private void mkdirs(Path dir, String sudoPW) throws IOException {
+        if (privileged) {
+            this.helper(sudoPW).mkdirs(dir);
+        } else {
+            Files.createDirectories(dir);
+        }
+    }
+
+    private void write(Path file, String value, String sudoPW) throws IOException {
+        if (privileged) {
+            this.helper(sudoPW).write(file, value);
+        } else {
+            Files.write(file, value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void rmdir(Path dir, String sudoPW) throws IOException {
+        if (privileged) {
+            this.helper(sudoPW).rmdir(dir);
+        } else {
+            try {
+                Files.delete(dir);
+            } catch (DirectoryNotEmptyException e) {
+                // Not a real cgroup filesystem, e.g. a fake hierarchy for testing -> remove its files first
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, Files::isRegularFile)) {
+                    for (Path file : files) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(dir);
+            }
+        }
+    }
+
+    private synchronized PrivilegedHelper helper(String sudoPW) throws IOException {
+        if (helper == null || !helper.isAlive()) {
+            helper = new PrivilegedHelper(sudoPW);
+        }
+        return helper;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static String v1File(Option option) {
+        return String.format("%s.%s", option.getController(), option);
+    }
+
+    private static boolean isThreaded(CGroup cGroup) {
+        return Arrays.asList(Controller.CPU, Controller.CPUSET).containsAll(cGroup.getControllers());
+    }
+
+    private static String unifiedName(Controller controller) {
+        return controller == Controller.BLKIO ? "io" : controller.toString();
+    }
+
+    private static void takeValues(CGroup cGroup, CGroup target) {
+        for (Controller controller : cGroup.getControllers()) {
+            target.getOptions(controller).forEach(cGroup::withOption);
+        }
+    }
+
+    /**
+     * Translate the options of a cgroup to the files and lines to write on v2.
+     */
+    static Map<String, List<String>> unifiedValues(CGroup cGroup) throws IOException {
+        Map<String, List<String>> values = new LinkedHashMap<>();
+        for (Controller controller : cGroup.getControllers()) {
+            Map<Option, String> options = cGroup.getOptions(controller);
+            for (Map.Entry<Option, String> entry : options.entrySet()) {
+                try {
+                    translate(entry.getKey(), entry.getValue().trim(), options, values);
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format("Invalid value of %s: %s", v1File(entry.getKey()),
+                            entry.getValue()), e);
+                }
+            }
+        }
+        return values;
+    }
+
+    private static void translate(Option option, String value, Map<Option, String> options,
+                                  Map<String, List<String>> values) throws IOException {
+        if (option == Cpu.SHARES) {
+            // Same mapping as used by the container runtimes: [2, 262144] -> [1, 10000]
+            long shares = Math.min(Math.max(Long.parseLong(value), 2), 262144);
+            put(values, "cpu.weight", String.valueOf(1 + (shares - 2) * 9999 / 262142));
+        } else if (option == Cpu.CFS_QUOTA_US || option == Cpu.CFS_PERIOD_US) {
+            String quota = options.getOrDefault(Cpu.CFS_QUOTA_US, "-1").trim();
+            String period = options.getOrDefault(Cpu.CFS_PERIOD_US, "" + DEFAULT_CFS_PERIOD_US).trim();
+            values.put("cpu.max", Collections.singletonList(limit(quota) + " " + period));
+        } else if (option == Memory.LIMIT_IN_BYTES) {
+            put(values, "memory.max", limit(value));
+        } else if (option == Memory.Memsw.LIMIT_IN_BYTES) {
+            // v1 limits memory and swap together, v2 only the swap
+            long memsw = Long.parseLong(value);
+            long memory = Long.parseLong(options.getOrDefault(Memory.LIMIT_IN_BYTES, "0").trim());
+            put(values, "memory.swap.max", memsw < 0 ? "max" : String.valueOf(Math.max(0, memsw - memory)));
+        } else if (option == CpuSet.CPUS || option == CpuSet.MEMS) {
+            put(values, "cpuset." + option, value);
+        } else if (option instanceof Blkio.Throttle && ioKey((Blkio.Throttle) option) != null) {
+            // "major:minor value" -> "major:minor key=value"
+            String[] deviceAndValue = value.split("\\s+", 2);
+            if (deviceAndValue.length != 2) {
+                throw new IOException(String.format("Invalid value of %s: %s", v1File(option), value));
+            }
+            values.computeIfAbsent("io.max", file -> new ArrayList<>()).add(String.format("%s %s=%s",
+                    deviceAndValue[0], ioKey((Blkio.Throttle) option), limit(deviceAndValue[1])));
+        } else {
+            throw new IOException(String.format("%s is not supported by cgroup v2", v1File(option)));
+        }
+    }
+
+    private static String ioKey(Blkio.Throttle throttle) {
+        switch (throttle) {
+            case READ_BPS_DEVICE:
+                return "rbps";
+            case WRITE_BPS_DEVICE:
+                return "wbps";
+            case READ_IOPS_DEVICE:
+                return "riops";
+            case WRITE_IOPS_DEVICE:
+                return "wiops";
+            default:
+                return null;
+        }
+    }
+
+    private static String limit(String value) {
+        return value.startsWith("-") ? "max" : value;
+    }
+
+    private static void put(Map<String, List<String>> values, String file, String line) {
+        values.put(file, Collections.singletonList(line));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (helper != null) {
+            helper.close();
+            helper = null;
+        }
+    }
+}
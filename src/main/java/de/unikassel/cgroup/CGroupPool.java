@@ -0,0 +1,297 @@
+package de.unikassel.cgroup;
+
+import de.unikassel.cgroup.options.Cpu;
+import de.unikassel.cgroup.options.Memory;
+import de.unikassel.cgroup.options.Option;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of cgroups, that are created once and reused by the following tasks.
+ *
+ * <p>Creating a cgroup, classifying a thread into it and deleting it is expensive, especially with
+ * {@link CGroupTools} forking a shell for every call, which takes tens of milliseconds. Instead, the limits of
+ * requested cgroups are rounded up into buckets, so tasks with similar limits run in the same pooled cgroup one after
+ * the other. A pooled cgroup with the same options, but other limits, is
+ * adjusted in place instead of creating a new one.</p>
+ *
+ * <p>A pooled cgroup is leased to one task at a time, because its limits apply to all threads in it. The thread of
+ * the task is moved out of it again, before it is returned to the pool.</p>
+ */
+public class CGroupPool implements AutoCloseable {
+
+    /**
+     * Prefix of the names of all pooled cgroups.
+     */
+    public static final String NAME_PREFIX = "fog-load-balancer-";
+
+    /**
+     * Options, whose values are rounded up into buckets.
+     */
+    private static final Set<Option> QUANTIZED = new HashSet<>(Arrays.asList(
+            Cpu.SHARES, Cpu.CFS_QUOTA_US, Memory.LIMIT_IN_BYTES, Memory.Memsw.LIMIT_IN_BYTES
+    ));
+    /**
+     * Number of significant bits kept when rounding up, so a bucket is at most 25% larger than the requested limit.
+     */
+    private static final int SIGNIFICANT_BITS = 3;
+
+    private final int maxIdle;
+    private final CGroupBackend backend;
+    private final AtomicInteger nextId = new AtomicInteger();
+    /**
+     * Idle cgroups by the options (without their values) they have.
+     */
+    private final Map<String, Deque<Pooled>> idle = new HashMap<>();
+    private int idleCount = 0;
+    private boolean closed = false;
+    /**
+     * The pooled cgroup each thread is classified into, from leasing it until the thread was moved out again.
+     */
+    private final ThreadLocal<Pooled> classified = new ThreadLocal<>();
+
+    /**
+     * Create a new pool.
+     *
+     * @param maxIdle The maximal number of idle cgroups to keep. Further cgroups are deleted when released.
+     * @param backend The backend to manage the cgroups with.
+     */
+    public CGroupPool(int maxIdle, CGroupBackend backend) {
+        this.maxIdle = maxIdle;
+        this.backend = backend;
+    }
+
+    /**
+     * Lease a pooled cgroup with (at least) the limits of the requested one and classify the current thread into it.
+     *
+     * @param requested The cgroup requested by the task. It is only used as template and never created itself.
+     * @param sudoPW    The sudo-password to allow the usage of cgroups.
+     * @return The lease, that has to be closed after the task finished, to move the thread out of the cgroup again.
+     * @throws IOException In case the thread could not be classified into a cgroup with these limits, e.g. because
+     *                     the backend can not limit single threads by all of its controllers.
+     */
+    public Lease acquire(CGroup requested, String sudoPW) throws IOException {
+        CGroup bucket = quantize(requested, requested.name);
+        if (!backend.canClassifyThread(bucket)) {
+            // Fail before creating anything, it would fail again for every task
+            throw new IOException("Can not classify a single thread into a cgroup using " + bucket.getControllers());
+        }
+        Pooled pooled = this.take(bucket);
+        try {
+            if (pooled == null) {
+                pooled = new Pooled(quantize(requested, NAME_PREFIX + nextId.incrementAndGet()));
+                backend.create(pooled.cGroup, sudoPW);
+            } else {
+                backend.adjust(pooled.cGroup, bucket, sudoPW);
+            }
+            backend.classify(pooled.cGroup, sudoPW);
+            classified.set(pooled);
+        } catch (IOException e) {
+            // Fail the task instead of running it without its limits, and don't reuse the cgroup
+            try {
+                backend.delete(pooled.cGroup, sudoPW);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        return new Lease(pooled, sudoPW);
+    }
+
+    /**
+     * Move the current thread out of the pooled cgroup it is classified into, if any.
+     *
+     * <p>Called when a lease is closed. If that failed, it has to be called before running a task without cgroup, so
+     * it is not limited by the cgroup of another task.</p>
+     *
+     * @param sudoPW The sudo-password to allow the usage of cgroups.
+     * @return True, if the thread was moved to the root cgroup.
+     * @throws IOException In case of exceptions when executing cgroup classify.
+     */
+    public boolean leave(String sudoPW) throws IOException {
+        Pooled pooled = classified.get();
+        if (pooled == null) {
+            return false;
+        }
+        classified.set(null);
+        backend.classify(new CGroup("/", pooled.cGroup.getControllers()), sudoPW);
+        return true;
+    }
+
+    private synchronized Pooled take(CGroup bucket) {
+        Deque<Pooled> candidates = idle.get(shape(bucket));
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        Pooled chosen = null;
+        // Prefer a cgroup already having the right limits
+        for (Pooled candidate : candidates) {
+            if (sameValues(candidate.cGroup, bucket)) {
+                chosen = candidate;
+                break;
+            }
+        }
+        if (chosen == null) {
+            chosen = candidates.peekFirst();
+        }
+        candidates.remove(chosen);
+        --idleCount;
+        return chosen;
+    }
+
+    private void release(Pooled pooled, String sudoPW) throws IOException {
+        try {
+            this.leave(sudoPW);
+        } catch (IOException e) {
+            pooled.broken = true; // The thread is still in it -> never lease it to another task
+            throw e;
+        }
+        synchronized (this) {
+            if (!pooled.broken && !closed && idleCount < maxIdle) {
+                // Most recently used first, so the same few cgroups are reused
+                idle.computeIfAbsent(shape(pooled.cGroup), key -> new ArrayDeque<>()).addFirst(pooled);
+                ++idleCount;
+                return;
+            }
+        }
+        backend.delete(pooled.cGroup, sudoPW);
+    }
+
+    /**
+     * Get the number of idle cgroups in this pool.
+     *
+     * @return The number of idle cgroups.
+     */
+    public synchronized int getIdleCount() {
+        return idleCount;
+    }
+
+    /**
+     * Delete all idle cgroups and close the backend. Cgroups leased at the moment are deleted, when they are
+     * released.
+     *
+     * @throws IOException In case of exceptions when executing cgroup delete.
+     */
+    @Override
+    public void close() throws IOException {
+        List<Pooled> toDelete = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            idle.values().forEach(toDelete::addAll);
+            idle.clear();
+            idleCount = 0;
+        }
+        try {
+            for (Pooled pooled : toDelete) {
+                backend.delete(pooled.cGroup, pooled.sudoPW);
+            }
+        } finally {
+            backend.close();
+        }
+    }
+
+    /**
+     * Copy a cgroup with all of its limits rounded up into their buckets.
+     */
+    static CGroup quantize(CGroup cGroup, String name) {
+        CGroup quantized = new CGroup(name, cGroup.getControllers());
+        for (Controller controller : cGroup.getControllers()) {
+            for (Map.Entry<Option, String> entry : cGroup.getOptions(controller).entrySet()) {
+                String value = entry.getValue();
+                if (QUANTIZED.contains(entry.getKey())) {
+                    value = roundUp(value);
+                }
+                quantized.withOption(entry.getKey(), value);
+            }
+        }
+        return quantized;
+    }
+
+    /**
+     * Round a numeric value up, so it only has {@link CGroupPool#SIGNIFICANT_BITS} significant bits.
+     */
+    static String roundUp(String value) {
+        long number;
+        try {
+            number = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return value; // e.g. "max"
+        }
+        if (number <= 0) {
+            return value; // e.g. -1 for unlimited
+        }
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(number) - SIGNIFICANT_BITS);
+        long step = 1L << shift;
+        long rounded = (number + step - 1) & -step;
+        return String.valueOf(rounded < 0 ? Long.MAX_VALUE : rounded);
+    }
+
+    private static String shape(CGroup cGroup) {
+        StringBuilder sb = new StringBuilder();
+        for (Controller controller : new TreeSet<>(cGroup.getControllers())) {
+            sb.append(controller).append('[');
+            cGroup.getOptions(controller).keySet().stream().map(Object::toString).sorted()
+                    .forEach(option -> sb.append(option).append(';'));
+            sb.append(']');
+        }
+        return sb.toString();
+    }
+
+    private static boolean sameValues(CGroup a, CGroup b) {
+        for (Controller controller : a.getControllers()) {
+            if (!a.getOptions(controller).equals(b.getOptions(controller))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Pooled {
+        private final CGroup cGroup;
+        private String sudoPW;
+        /**
+         * Set if the cgroup could not be set up, so it is not reused.
+         */
+        private boolean broken = false;
+
+        private Pooled(CGroup cGroup) {
+            this.cGroup = cGroup;
+        }
+    }
+
+    /**
+     * A pooled cgroup leased to one task.
+     */
+    public class Lease implements AutoCloseable {
+        private final Pooled pooled;
+        private final String sudoPW;
+
+        private Lease(Pooled pooled, String sudoPW) {
+            this.pooled = pooled;
+            this.sudoPW = sudoPW;
+            pooled.sudoPW = sudoPW;
+        }
+
+        /**
+         * Get the leased cgroup.
+         *
+         * @return The cgroup.
+         */
+        public CGroup getCGroup() {
+            return pooled.cGroup;
+        }
+
+        /**
+         * Move the current thread out of the cgroup and return the cgroup to the pool.
+         *
+         * @throws IOException In case the thread could not be moved out or the cgroup had to be deleted and the
+         *                     deletion failed.
+         */
+        @Override
+        public void close() throws IOException {
+            CGroupPool.this.release(pooled, sudoPW);
+        }
+    }
+}
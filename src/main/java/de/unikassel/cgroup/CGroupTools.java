@@ -0,0 +1,37 @@
+package de.unikassel.cgroup;
+
+import de.unikassel.util.shell.ShellResult;
+
+import java.io.IOException;
+
+/**
+ * {@link CGroupBackend} running the cgroup-tools ({@link Command}) with sudo in a new shell for every call.
+ */
+public class CGroupTools implements CGroupBackend {
+
+    @Override
+    public void create(CGroup cGroup, String sudoPW) throws IOException {
+        check(cGroup.create(sudoPW), Command.CGCREATE, cGroup);
+    }
+
+    @Override
+    public void adjust(CGroup cGroup, CGroup target, String sudoPW) throws IOException {
+        check(cGroup.adjust(sudoPW, target), Command.CGSET, cGroup);
+    }
+
+    @Override
+    public void classify(CGroup cGroup, String sudoPW) throws IOException {
+        check(cGroup.classify(sudoPW), Command.CGCLASSIFY, cGroup);
+    }
+
+    @Override
+    public void delete(CGroup cGroup, String sudoPW) throws IOException {
+        check(cGroup.delete(sudoPW), Command.CGDELETE, cGroup);
+    }
+
+    private static void check(ShellResult result, Command command, CGroup cGroup) throws IOException {
+        if (result != null && result.exitVal != 0) {
+            throw new IOException(String.format("%s failed for %s: %s", command, cGroup.name, result));
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package de.unikassel.cgroup;
+
+import de.unikassel.cgroup.options.CpuSet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Executors, whose threads are confined to a part of the CPUs by a cpuset-cgroup each.
+ *
+ * <p>Threads of the shared pool of a {@link de.unikassel.WorkerNode} migrate across all cores, so CPU-heavy tasks
+ * lose their caches and their runtimes vary. A lane instead only runs on one core or on the cores of one NUMA-node,
+ * using the memory of this node. Tasks can be sent to a specific lane, so their runtimes are predictable.</p>
+ *
+ * <p>On cgroup v2 a thread is only in one cgroup, so a task with its own cgroup leaves the cpuset of its lane. The
+ * thread has to be moved back with {@link ExecutionLanes#repin()} afterwards.</p>
+ */
+public class ExecutionLanes implements AutoCloseable {
+
+    /**
+     * Prefix of the names of the cpuset-cgroups of the lanes.
+     */
+    public static final String NAME_PREFIX = "fog-load-balancer-lane-";
+
+    private static final Path CPU_ONLINE = Paths.get("/sys/devices/system/cpu/online");
+    private static final Path NODES = Paths.get("/sys/devices/system/node");
+
+    /**
+     * The part of the CPUs to confine each lane to.
+     */
+    public enum Granularity {
+        /**
+         * One lane with one thread per core.
+         */
+        CORE,
+        /**
+         * One lane per NUMA-node with one thread per core of the node.
+         */
+        NUMA_NODE
+    }
+
+    private final CGroupBackend backend;
+    private final String sudoPW;
+    private final List<Lane> lanes = new ArrayList<>();
+    /**
+     * The lane of the current thread or null, if it is not a thread of these lanes.
+     */
+    private final ThreadLocal<Lane> current = new ThreadLocal<>();
+
+    /**
+     * Create one lane per core or NUMA-node of this machine.
+     *
+     * @param granularity The part of the CPUs to confine each lane to.
+     * @param backend     The backend to create the cpuset-cgroups with.
+     * @param sudoPW      The sudo-password to allow the usage of cgroups.
+     * @throws IOException In case the cgroups could not be created.
+     */
+    public ExecutionLanes(Granularity granularity, CGroupBackend backend, String sudoPW) throws IOException {
+        this.backend = backend;
+        this.sudoPW = sudoPW;
+        List<List<Integer>> nodes = numaNodes();
+        try {
+            for (int node = 0; node < nodes.size(); ++node) {
+                if (granularity == Granularity.NUMA_NODE) {
+                    this.addLane(nodes.get(node), node);
+                } else {
+                    for (int cpu : nodes.get(node)) {
+                        this.addLane(Collections.singletonList(cpu), node);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    private void addLane(List<Integer> cpus, int node) throws IOException {
+        CGroup cpuSet = new CGroup(NAME_PREFIX + lanes.size(), Controller.CPUSET)
+                .withOption(CpuSet.CPUS, cpus.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .withOption(CpuSet.MEMS, node);
+        backend.create(cpuSet, sudoPW);
+        lanes.add(new Lane(cpuSet, cpus.size()));
+    }
+
+    /**
+     * Get the number of lanes.
+     *
+     * @return The number of lanes.
+     */
+    public int size() {
+        return lanes.size();
+    }
+
+    /**
+     * Run a task on a lane.
+     *
+     * @param lane The index of the lane (modulo the number of lanes) or a negative number for the least busy lane.
+     * @param task The task to run.
+     */
+    public void execute(int lane, Runnable task) {
+        Lane chosen;
+        if (lane >= 0) {
+            chosen = lanes.get(lane % lanes.size());
+        } else {
+            chosen = lanes.get(0);
+            for (Lane candidate : lanes) {
+                if (candidate.load() < chosen.load()) {
+                    chosen = candidate;
+                }
+            }
+        }
+        chosen.execute(task);
+    }
+
+    /**
+     * Move the current thread back into the cpuset of its lane, after a task moved it to another cgroup. Does nothing
+     * for threads, that do not belong to these lanes.
+     *
+     * @throws IOException In case of exceptions when executing cgroup classify.
+     */
+    public void repin() throws IOException {
+        Lane lane = current.get();
+        if (lane != null) {
+            backend.classify(lane.cpuSet, sudoPW);
+        }
+    }
+
+    /**
+     * Stop all lanes and delete their cgroups. Tasks already submitted are still run.
+     */
+    @Override
+    public void close() {
+        for (Lane lane : lanes) {
+            lane.executor.shutdown();
+            try {
+                backend.delete(lane.cpuSet, sudoPW);
+            } catch (IOException e) {
+                // The threads may still be in the cgroup, it is deleted after they finished
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Get the online CPUs of each NUMA-node. Without NUMA-information, all online CPUs are on node 0.
+     */
+    private static List<List<Integer>> numaNodes() throws IOException {
+        List<List<Integer>> nodes = new ArrayList<>();
+        for (int node = 0; Files.exists(NODES.resolve("node" + node + "/cpulist")); ++node) {
+            nodes.add(parseCpuList(read(NODES.resolve("node" + node + "/cpulist"))));
+        }
+        if (nodes.isEmpty()) {
+            List<Integer> cpus = new ArrayList<>();
+            if (Files.exists(CPU_ONLINE)) {
+                cpus.addAll(parseCpuList(read(CPU_ONLINE)));
+            } else {
+                for (int cpu = 0; cpu < Runtime.getRuntime().availableProcessors(); ++cpu) {
+                    cpus.add(cpu);
+                }
+            }
+            nodes.add(cpus);
+        }
+        return nodes;
+    }
+
+    /**
+     * Parse a list of CPUs in the format of the kernel, e.g. {@code 0-3,8,10-11}.
+     */
+    static List<Integer> parseCpuList(String cpuList) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : cpuList.trim().split(",")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            String[] bounds = range.split("-");
+            int from = Integer.parseInt(bounds[0]);
+            int to = bounds.length > 1 ? Integer.parseInt(bounds[1]) : from;
+            for (int cpu = from; cpu <= to; ++cpu) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private class Lane {
+        private final CGroup cpuSet;
+        private final int threads;
+        private final ExecutorService executor;
+        /**
+         * Tasks submitted to this lane, but not finished yet.
+         */
+        private final AtomicInteger queued = new AtomicInteger();
+
+        private Lane(CGroup cpuSet, int threads) {
+            this.cpuSet = cpuSet;
+            this.threads = threads;
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(() -> {
+                    current.set(this);
+                    try {
+                        // Classified once, all tasks of this thread run on the cpus of the lane
+                        backend.classify(cpuSet, sudoPW);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    runnable.run();
+                }, cpuSet.name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private double load() {
+            return queued.get() / (double) threads;
+        }
+
+        private void execute(Runnable task) {
+            queued.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    queued.decrementAndGet();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.unikassel.cgroup;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * A shell running with sudo-rights, that creates, writes and removes files in the cgroup filesystem on request.
+ *
+ * <p>The shell is started once, so the password is only sent once and no further process is forked for writing
+ * values. Each request is one line of tab-separated operation, path and value, answered with one line.</p>
+ */
+class PrivilegedHelper implements AutoCloseable {
+
+    private static final String SCRIPT = String.join("\n",
+            "while IFS='\t' read -r op path value; do",
+            "  case \"$op\" in",
+            "    sync) echo synced; continue ;;",
+            "    mkdir) mkdir -p -- \"$path\" ;;",
+            "    write) printf '%s\\n' \"$value\" > \"$path\" ;;",
+            "    rmdir) rmdir -- \"$path\" ;;",
+            "    *) false ;;",
+            "  esac 2>/dev/null && echo ok || echo err",
+            "done");
+
+    private final Process process;
+    private final BufferedWriter requests;
+    private final BufferedReader responses;
+
+    /**
+     * Start the helper.
+     *
+     * @param sudoPW The sudo-password.
+     * @throws IOException In case the helper could not be started.
+     */
+    PrivilegedHelper(String sudoPW) throws IOException {
+        this.process = new ProcessBuilder("sudo", "-S", "-p", "", "/bin/sh", "-c", SCRIPT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        this.requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        this.responses = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        // If sudo does not need the password, the shell reads it as unknown request -> wait for the sync-answer
+        requests.write(sudoPW);
+        requests.newLine();
+        requests.write("sync");
+        requests.newLine();
+        requests.flush();
+        String line;
+        do {
+            line = responses.readLine();
+            if (line == null) {
+                process.destroy();
+                throw new IOException("Privileged helper could not be started, wrong sudo-password?");
+            }
+        } while (!line.equals("synced"));
+    }
+
+    void mkdirs(Path path) throws IOException {
+        this.request("mkdir", path, "");
+    }
+
+    void write(Path path, String value) throws IOException {
+        this.request("write", path, value);
+    }
+
+    void rmdir(Path path) throws IOException {
+        this.request("rmdir", path, "");
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    private synchronized void request(String operation, Path path, String value) throws IOException {
+        String pathName = path.toString();
+        if (pathName.matches(".*[\t\n].*") || value.matches(".*[\t\n].*")) {
+            throw new IOException("Invalid path or value: " + pathName + " " + value);
+        }
+        requests.write(operation + '\t' + pathName + '\t' + value);
+        requests.newLine();
+        requests.flush();
+        String response = responses.readLine();
+        if (response == null) {
+            throw new IOException("Privileged helper died");
+        }
+        if (!response.equals("ok")) {
+            throw new IOException(String.format("Could not %s %s %s", operation, pathName, value));
+        }
+    }
+
+    @Override
+    public void close() {
+        process.destroy();
+    }
+}
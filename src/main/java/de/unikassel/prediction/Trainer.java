@@ -7,6 +7,7 @@ import de.unikassel.prediction.metrics.MetricsGetter;
 import de.unikassel.prediction.metrics.MetricsParser;
 import de.unikassel.prediction.pyearth.Predictor;
 import de.unikassel.prediction.pyearth.PyEarth;
+import de.unikassel.schedule.data.ScheduledFuture;
 import de.unikassel.util.serialization.RemoteCallable;
 
 import java.io.IOException;
@@ -104,9 +105,14 @@ public class Trainer {
                         new InetSocketAddress(host, monitoringPort), 1_000);
                 metricsGetter.start();
 
-                long startTime = System.nanoTime(); // Network time included at the moment
-                loadBalancer.executeOnWorker(remoteCallable).get();
-                rnt = System.nanoTime() - startTime;
+                long startTime = System.nanoTime();
+                ScheduledFuture<?> future = loadBalancer.executeOnWorker(remoteCallable);
+                future.get();
+                // Only the time the task occupied the worker, without network and queueing
+                rnt = future.getExecutionTimes().occupied();
+                if (rnt < 0) {
+                    rnt = System.nanoTime() - startTime;
+                }
 
                 List<HashMap<MetricType, HashSet<MetricData>>> allValues = metricsGetter.stop();
                 MetricsParser parser = new MetricsParser();
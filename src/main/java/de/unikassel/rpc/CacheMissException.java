@@ -0,0 +1,28 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Thrown, if a {@link de.unikassel.WorkerNode} did not have the result of a task cached.
+ */
+public class CacheMissException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final InetSocketAddress worker;
+
+    /**
+     * Create a new exception.
+     *
+     * @param worker The address of the worker.
+     */
+    public CacheMissException(InetSocketAddress worker) {
+        super(String.format("Result not cached on %s", worker));
+        this.worker = worker;
+    }
+
+    public InetSocketAddress getWorker() {
+        return worker;
+    }
+}
@@ -0,0 +1,178 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Adaptive compression of the payloads of one {@link NioConnection}.
+ *
+ * <p>Payloads are only compressed, if the time saved on the link is expected to exceed the CPU time spent
+ * compressing. This decision is based on the measured bandwidth of the link and on the compression ratio and speed
+ * observed on recent payloads. Small payloads are never compressed.</p>
+ */
+class Compression {
+
+    /**
+     * Payloads smaller than this are never compressed.
+     */
+    static final int MIN_SIZE = 1024;
+    /**
+     * Every n-th payload, that would not be compressed, is compressed anyway to keep the estimates up to date.
+     */
+    private static final int PROBE_INTERVAL = 32;
+    /**
+     * Bandwidth samples over fewer bytes are too inaccurate.
+     */
+    private static final int MIN_BANDWIDTH_SAMPLE = 64 * 1024;
+    private static final double SMOOTHING = 0.2;
+
+    private static final ThreadLocal<Deflater> deflaters
+            = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final CompressionStats[] stats;
+
+    // Written by multiple threads without synchronization, as they are only estimates
+    private volatile double bytesPerSecond = 12.5e6; // Assume 100 Mbit/s until measured
+    private volatile double ratio = 0.5;
+    private volatile double nanosPerByte = 20; // About 50 MB/s
+    private volatile int skipped = 0;
+
+    /**
+     * Create a new compression.
+     *
+     * @param stats The statistics to record to.
+     */
+    Compression(CompressionStats... stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Encode a message, compressing its payload if it pays off.
+     *
+     * @param message The message.
+     * @return The buffers of the frame, flipped for reading.
+     */
+    ByteBuffer[] encode(Message message) {
+        int length = message.payload.length;
+        if (length >= MIN_SIZE && (this.pays(length) || ++skipped % PROBE_INTERVAL == 0)) {
+            long start = System.nanoTime();
+            byte[] compressed = deflate(message.payload);
+            long nanos = System.nanoTime() - start;
+            double observedRatio = compressed == null ? 1 : (double) compressed.length / length;
+            ratio += SMOOTHING * (observedRatio - ratio);
+            nanosPerByte += SMOOTHING * ((double) nanos / length - nanosPerByte);
+            if (compressed != null) {
+                for (CompressionStats s : stats) {
+                    s.recordCompressed(length, compressed.length, nanos);
+                }
+                return new ByteBuffer[]{
+                        Message.encodeHeader(message.id, message.type, true, compressed.length),
+                        ByteBuffer.wrap(compressed)
+                };
+            }
+        }
+        for (CompressionStats s : stats) {
+            s.recordUncompressed();
+        }
+        return new ByteBuffer[]{message.encode()};
+    }
+
+    /**
+     * Decompress the payload of a received message.
+     *
+     * @param message The message with {@link Message#compressed} set.
+     * @return The message with the original payload.
+     * @throws IOException In case the payload is malformed.
+     */
+    Message decode(Message message) throws IOException {
+        long start = System.nanoTime();
+        byte[] payload = inflate(message.payload);
+        long nanos = System.nanoTime() - start;
+        for (CompressionStats s : stats) {
+            s.recordDecompressed(message.payload.length, payload.length, nanos);
+        }
+        return new Message(message.id, message.type, payload);
+    }
+
+    /**
+     * Record how many bytes the link accepted while data was waiting to be written.
+     *
+     * @param bytes The number of bytes written.
+     * @param nanos The time the link took for them.
+     */
+    void recordBacklog(long bytes, long nanos) {
+        if (bytes < MIN_BANDWIDTH_SAMPLE || nanos <= 0) {
+            return;
+        }
+        bytesPerSecond += SMOOTHING * (bytes * 1e9 / nanos - bytesPerSecond);
+        for (CompressionStats s : stats) {
+            s.recordLinkBandwidth(bytesPerSecond);
+        }
+    }
+
+    /**
+     * Check whether compressing a payload is expected to be faster than sending it as it is.
+     */
+    private boolean pays(int length) {
+        double savedNanos = length * (1 - ratio) / bytesPerSecond * 1e9;
+        return savedNanos > length * nanosPerByte;
+    }
+
+    /**
+     * Compress a payload.
+     *
+     * @return The compressed payload or null, if it would not be smaller.
+     */
+    private static byte[] deflate(byte[] payload) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] out = new byte[Integer.BYTES + payload.length / 2 + 64];
+        ByteBuffer.wrap(out).putInt(payload.length);
+        int position = Integer.BYTES;
+        while (!deflater.finished()) {
+            if (position >= payload.length) {
+                return null; // Incompressible -> stop wasting time
+            }
+            if (position == out.length) {
+                out = Arrays.copyOf(out, Math.min(out.length * 2, payload.length + 1));
+            }
+            position += deflater.deflate(out, position, out.length - position);
+        }
+        return position < payload.length ? Arrays.copyOf(out, position) : null;
+    }
+
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        if (compressed.length < Integer.BYTES) {
+            throw new IOException("Malformed compressed payload");
+        }
+        int length = ByteBuffer.wrap(compressed).getInt();
+        if (length < 0 || length > Message.MAX_FRAME_SIZE - Message.HEADER_SIZE) {
+            // Not allocated, since the length is chosen by the sender
+            throw new IOException("Malformed compressed payload of length " + length);
+        }
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed, Integer.BYTES, compressed.length - Integer.BYTES);
+        byte[] payload = new byte[length];
+        try {
+            int offset = 0;
+            while (offset < length) {
+                int n = inflater.inflate(payload, offset, length - offset);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed payload");
+                }
+                offset += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed payload", e);
+        }
+        return payload;
+    }
+}
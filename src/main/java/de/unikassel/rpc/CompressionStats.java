@@ -0,0 +1,131 @@
+package de.unikassel.rpc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about the compression of {@link Message}-payloads, to see whether compression pays off on a link.
+ *
+ * <p>All values are accumulated since the creation of the connection or {@link EventLoop} they belong to.</p>
+ */
+public class CompressionStats {
+
+    private final LongAdder compressedMessages = new LongAdder();
+    private final LongAdder uncompressedMessages = new LongAdder();
+    private final LongAdder bytesBeforeCompression = new LongAdder();
+    private final LongAdder bytesAfterCompression = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LongAdder decompressedMessages = new LongAdder();
+    private final LongAdder bytesBeforeDecompression = new LongAdder();
+    private final LongAdder bytesAfterDecompression = new LongAdder();
+    private final LongAdder decompressionNanos = new LongAdder();
+    private volatile double linkBandwidth = Double.NaN;
+
+    void recordCompressed(int before, int after, long nanos) {
+        compressedMessages.increment();
+        bytesBeforeCompression.add(before);
+        bytesAfterCompression.add(after);
+        compressionNanos.add(nanos);
+    }
+
+    void recordUncompressed() {
+        uncompressedMessages.increment();
+    }
+
+    void recordDecompressed(int before, int after, long nanos) {
+        decompressedMessages.increment();
+        bytesBeforeDecompression.add(before);
+        bytesAfterDecompression.add(after);
+        decompressionNanos.add(nanos);
+    }
+
+    void recordLinkBandwidth(double bytesPerSecond) {
+        linkBandwidth = bytesPerSecond;
+    }
+
+    /**
+     * @return The number of messages sent compressed.
+     */
+    public long getCompressedMessages() {
+        return compressedMessages.sum();
+    }
+
+    /**
+     * @return The number of messages sent without compression.
+     */
+    public long getUncompressedMessages() {
+        return uncompressedMessages.sum();
+    }
+
+    /**
+     * @return The total size of the payloads sent compressed, before compression.
+     */
+    public long getBytesBeforeCompression() {
+        return bytesBeforeCompression.sum();
+    }
+
+    /**
+     * @return The total size of the payloads sent compressed, after compression.
+     */
+    public long getBytesAfterCompression() {
+        return bytesAfterCompression.sum();
+    }
+
+    /**
+     * @return The CPU time spent compressing in nanoseconds.
+     */
+    public long getCompressionNanos() {
+        return compressionNanos.sum();
+    }
+
+    /**
+     * @return The number of compressed messages received.
+     */
+    public long getDecompressedMessages() {
+        return decompressedMessages.sum();
+    }
+
+    /**
+     * @return The total size of the compressed payloads received.
+     */
+    public long getBytesBeforeDecompression() {
+        return bytesBeforeDecompression.sum();
+    }
+
+    /**
+     * @return The total size of the compressed payloads received, after decompression.
+     */
+    public long getBytesAfterDecompression() {
+        return bytesAfterDecompression.sum();
+    }
+
+    /**
+     * @return The CPU time spent decompressing in nanoseconds.
+     */
+    public long getDecompressionNanos() {
+        return decompressionNanos.sum();
+    }
+
+    /**
+     * @return Compressed size divided by original size of all compressed messages sent or NaN, if there were none.
+     */
+    public double getCompressionRatio() {
+        long before = this.getBytesBeforeCompression();
+        return before == 0 ? Double.NaN : (double) this.getBytesAfterCompression() / before;
+    }
+
+    /**
+     * @return The last measured bandwidth of the link in bytes per second or NaN, if it was never measured.
+     */
+    public double getLinkBandwidth() {
+        return linkBandwidth;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompressionStats{sent: %d compressed (ratio %.3f, %.1f ms), %d uncompressed; "
+                        + "received: %d compressed (%.1f ms); link: %.0f B/s}",
+                this.getCompressedMessages(), this.getCompressionRatio(), this.getCompressionNanos() / 1e6,
+                this.getUncompressedMessages(), this.getDecompressedMessages(), this.getDecompressionNanos() / 1e6,
+                this.getLinkBandwidth());
+    }
+}
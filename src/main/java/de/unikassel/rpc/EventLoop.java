@@ -0,0 +1,279 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A selector-based loop handling the network I/O of any number of {@link NioConnection}s on one thread.
+ *
+ * <p>Only reading, writing and framing is done by this loop. Handling the received {@link Message}s is up to the
+ * {@link MessageHandler}, which should hand over any expensive work to another thread.</p>
+ */
+public class EventLoop implements AutoCloseable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final List<ServerSocketChannel> serverChannels = new CopyOnWriteArrayList<>();
+
+    private final CompressionStats compressionStats = new CompressionStats();
+
+    private volatile boolean compressionEnabled = false;
+    private volatile Executor decompressionExecutor = ForkJoinPool.commonPool();
+    private volatile boolean running = true;
+    private volatile Thread thread;
+
+    /**
+     * Create a new event loop.
+     *
+     * @throws IOException If the selector could not be opened.
+     */
+    public EventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Accept connections on the given port.
+     *
+     * @param port    The port to bind to.
+     * @param handler The handler for messages received on accepted connections.
+     * @throws IOException In case the port is already in use.
+     */
+    public void bind(int port, MessageHandler handler) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        serverChannels.add(serverChannel);
+        this.execute(() -> {
+            try {
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT, handler);
+            } catch (ClosedChannelException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Open a new connection to the given address.
+     *
+     * <p>This method does not block. Messages sent before the connection is established are written as soon as
+     * possible.</p>
+     *
+     * @param address The address to connect to.
+     * @param handler The handler for messages received on the new connection.
+     * @return The new connection.
+     * @throws IOException If the connection could not be initiated.
+     */
+    public NioConnection connect(InetSocketAddress address, MessageHandler handler) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        NioConnection connection = new NioConnection(this, channel, handler);
+        boolean connected = channel.connect(address);
+        this.execute(() -> {
+            try {
+                connection.register(channel.register(selector,
+                        connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection));
+                if (connected) {
+                    connection.onConnectable();
+                }
+            } catch (IOException e) {
+                connection.close(e);
+            }
+        });
+        return connection;
+    }
+
+    /**
+     * Enable or disable the compression of messages sent over the connections of this loop.
+     *
+     * <p>Even if enabled, payloads are only compressed if it pays off, depending on their size and the measured
+     * bandwidth of the link. Compressed messages are always accepted.</p>
+     *
+     * @param enabled True, to compress large payloads on slow links.
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        this.compressionEnabled = enabled;
+    }
+
+    /**
+     * Check whether the compression of messages is enabled.
+     *
+     * @return True, if compression is enabled.
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * Set the executor to decompress received payloads with, so large payloads don't delay the I/O of all other
+     * connections. Defaults to the common pool.
+     *
+     * @param executor The executor for short CPU-bound work.
+     */
+    public void setDecompressionExecutor(Executor executor) {
+        this.decompressionExecutor = executor;
+    }
+
+    Executor getDecompressionExecutor() {
+        return decompressionExecutor;
+    }
+
+    /**
+     * Get statistics about the compression of messages on all connections of this loop.
+     *
+     * @return The statistics.
+     */
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * Run a task on the thread of this loop.
+     *
+     * @param task The task to run.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Handle I/O until this loop is closed. This method blocks.
+     *
+     * @throws IOException In case of problems with the selector.
+     */
+    public void run() throws IOException {
+        this.thread = Thread.currentThread();
+        try {
+            while (running) {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow(); // Tasks were added from this thread -> don't wait
+                }
+                for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                    task.run();
+                }
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    this.handle(key);
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Closed while selecting
+        } finally {
+            this.closeAll();
+        }
+    }
+
+    /**
+     * Start this loop on a new daemon-thread.
+     *
+     * @param name The name of the thread.
+     * @return The started thread.
+     */
+    public Thread startThread(String name) {
+        Thread loopThread = new Thread(() -> {
+            try {
+                this.run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, name);
+        loopThread.setDaemon(true);
+        loopThread.start();
+        return loopThread;
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            this.accept((ServerSocketChannel) key.channel(), (MessageHandler) key.attachment());
+            return;
+        }
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                connection.onConnectable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            connection.close(e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel, MessageHandler handler) {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            NioConnection connection = new NioConnection(this, channel, handler);
+            connection.register(channel.register(selector, SelectionKey.OP_READ, connection));
+            handler.onAccepted(connection);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeAll() {
+        for (ServerSocketChannel serverChannel : serverChannels) {
+            try {
+                serverChannel.close();
+            } catch (IOException ignored) {
+                // We are closing anyway
+            }
+        }
+        if (selector.isOpen()) {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof NioConnection) {
+                    ((NioConnection) key.attachment()).close(new IOException("Event loop closed"));
+                }
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+            // We are closing anyway
+        }
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        if (thread == null) {
+            // Never started -> nobody else will clean up
+            this.closeAll();
+        } else {
+            selector.wakeup();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The payload of a {@link MessageType#HEARTBEAT}-message, pushed by a {@link de.unikassel.WorkerNode} to all
+ * connected {@link de.unikassel.LoadBalancer}s at a fixed rate.
+ *
+ * <p>It contains the same free resources as measured for the training of the predictors (free CPU of the process
+ * and free memory of the JVM), the load of the worker in tasks, the number of tasks it can run in parallel and the
+ * number of its execution lanes.</p>
+ */
+public class Heartbeat {
+
+    private static final int SIZE = Double.BYTES + Long.BYTES + 4 * Integer.BYTES;
+
+    /**
+     * The share of the CPU not used by the worker process, between 0 and 1.
+     */
+    public final double freeCpu;
+    /**
+     * The memory in bytes not used by the JVM of the worker.
+     */
+    public final long freeMemory;
+    /**
+     * The number of tasks admitted, but not running yet.
+     */
+    public final int queuedTasks;
+    /**
+     * The number of tasks running at the moment.
+     */
+    public final int runningTasks;
+    /**
+     * The number of cores the worker runs tasks on in parallel, i.e. those of the machine, but at most its number of
+     * threads.
+     */
+    public final int cores;
+    /**
+     * The number of execution lanes of the worker, a task can be sent to, or 0, if it runs tasks on a shared pool.
+     */
+    public final int lanes;
+    /**
+     * The time ({@link System#nanoTime()}) this heartbeat was received. The clocks of different machines are not
+     * comparable, so it is not sent.
+     */
+    public final long received;
+
+    /**
+     * Create a new heartbeat.
+     *
+     * @param freeCpu      The share of the CPU not used by the worker process.
+     * @param freeMemory   The memory in bytes not used by the JVM of the worker.
+     * @param queuedTasks  The number of tasks admitted, but not running yet.
+     * @param runningTasks The number of tasks running at the moment.
+     * @param cores        The number of cores the worker runs tasks on in parallel.
+     * @param lanes        The number of execution lanes of the worker or 0, if it has none.
+     */
+    public Heartbeat(double freeCpu, long freeMemory, int queuedTasks, int runningTasks, int cores, int lanes) {
+        this(freeCpu, freeMemory, queuedTasks, runningTasks, cores, lanes, System.nanoTime());
+    }
+
+    private Heartbeat(double freeCpu, long freeMemory, int queuedTasks, int runningTasks, int cores, int lanes,
+                      long received) {
+        this.freeCpu = freeCpu;
+        this.freeMemory = freeMemory;
+        this.queuedTasks = queuedTasks;
+        this.runningTasks = runningTasks;
+        this.cores = cores;
+        this.lanes = lanes;
+        this.received = received;
+    }
+
+    /**
+     * Encode this heartbeat.
+     *
+     * @return The encoded heartbeat.
+     */
+    public byte[] encode() {
+        return ByteBuffer.allocate(SIZE).putDouble(freeCpu).putLong(freeMemory)
+                .putInt(queuedTasks).putInt(runningTasks).putInt(cores).putInt(lanes).array();
+    }
+
+    /**
+     * Decode a heartbeat written by {@link Heartbeat#encode()}.
+     *
+     * @param payload The encoded heartbeat.
+     * @return The decoded heartbeat, received now.
+     * @throws IOException In case the payload is malformed.
+     */
+    public static Heartbeat decode(byte[] payload) throws IOException {
+        if (payload.length != SIZE) {
+            throw new IOException("Malformed heartbeat");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        return new Heartbeat(buffer.getDouble(), buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                buffer.getInt());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("freeCpu=%.3f, freeMemory=%d, queued=%d, running=%d, cores=%d, lanes=%d",
+                freeCpu, freeMemory, queuedTasks, runningTasks, cores, lanes);
+    }
+}
@@ -0,0 +1,120 @@
+package de.unikassel.rpc;
+
+import de.unikassel.schedule.data.WorkerResources;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latest {@link Heartbeat} received from each {@link de.unikassel.WorkerNode}.
+ *
+ * <p>Reading a snapshot never touches the network or waits, so it can be used by a scheduler on every call, e.g.
+ * {@code new QueueScheduler(heartbeats::freeResources)}. The heartbeats of a worker are removed, once its connection
+ * is lost.</p>
+ */
+public class Heartbeats {
+
+    private final ConcurrentHashMap<InetSocketAddress, Heartbeat> latest = new ConcurrentHashMap<>();
+
+    /**
+     * Store a received heartbeat.
+     *
+     * @param worker    The worker, that sent the heartbeat.
+     * @param heartbeat The heartbeat.
+     */
+    public void update(InetSocketAddress worker, Heartbeat heartbeat) {
+        if (latest.put(worker, heartbeat) == null) {
+            synchronized (this) {
+                this.notifyAll(); // Somebody might wait for the first one
+            }
+        }
+    }
+
+    /**
+     * Get the latest heartbeat of a worker.
+     *
+     * @param worker The worker.
+     * @return The heartbeat or null, if none was received yet.
+     */
+    public Heartbeat get(InetSocketAddress worker) {
+        return latest.get(worker);
+    }
+
+    /**
+     * Get the free resources of a worker from its latest heartbeat. Never waits.
+     *
+     * <p>A worker without heartbeat, i.e. one that was just added or whose connection was lost, is reported to have
+     * no free resources, so no task is scheduled on it until its heartbeats arrive.</p>
+     *
+     * @param worker The worker.
+     * @return The free CPU and memory as resources, at the time the heartbeat was received.
+     */
+    public WorkerResources freeResources(InetSocketAddress worker) {
+        Heartbeat heartbeat = latest.get(worker);
+        if (heartbeat == null) {
+            return new WorkerResources(System.nanoTime(), worker, new double[]{0, 0}, null);
+        }
+        return new WorkerResources(heartbeat.received, worker,
+                new double[]{heartbeat.freeCpu, heartbeat.freeMemory}, null);
+    }
+
+    /**
+     * Get the number of cores a worker runs tasks on in parallel from its latest heartbeat, e.g. as the slots of a
+     * {@link de.unikassel.schedule.SimpleScheduler}. Never waits.
+     *
+     * @param worker The worker.
+     * @return The number of cores or 0, if there was no heartbeat yet.
+     */
+    public int cores(InetSocketAddress worker) {
+        Heartbeat heartbeat = latest.get(worker);
+        return heartbeat == null ? 0 : heartbeat.cores;
+    }
+
+    /**
+     * Get the number of execution lanes of a worker from its latest heartbeat, e.g. to spread the tasks of a
+     * {@link de.unikassel.schedule.SimpleScheduler} across them. Never waits.
+     *
+     * @param worker The worker.
+     * @return The number of lanes or 0, if the worker has none or there was no heartbeat yet.
+     */
+    public int lanes(InetSocketAddress worker) {
+        Heartbeat heartbeat = latest.get(worker);
+        return heartbeat == null ? 0 : heartbeat.lanes;
+    }
+
+    /**
+     * Wait for the first heartbeat of workers, that were just connected.
+     *
+     * @param workers       The workers.
+     * @param timeoutMillis The time to wait for all of them in milliseconds.
+     * @return True, if there is a heartbeat of every worker.
+     * @throws InterruptedException In case the thread was interrupted while waiting.
+     */
+    public boolean awaitFirst(Collection<InetSocketAddress> workers, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            for (InetSocketAddress worker : workers) {
+                while (!latest.containsKey(worker)) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    this.wait(remaining);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the heartbeat of a worker, whose connection was lost, unless a newer one arrived over a new connection
+     * in the meantime.
+     *
+     * @param worker    The worker.
+     * @param heartbeat The latest heartbeat received over the lost connection.
+     */
+    void evict(InetSocketAddress worker, Heartbeat heartbeat) {
+        latest.remove(worker, heartbeat);
+    }
+}
@@ -0,0 +1,191 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One frame sent over a persistent connection.
+ *
+ * <p>Every frame starts with the length of the rest of the frame, followed by the id of the request it belongs to and
+ * its {@link MessageType}. The rest of the frame is the payload. The id allows multiple requests to be in flight on
+ * one connection and responses to arrive in any order.</p>
+ */
+public class Message {
+
+    /**
+     * Size of id and type.
+     */
+    public static final int HEADER_SIZE = Long.BYTES + Byte.BYTES;
+    /**
+     * Maximal size of a frame after the length-field, also after decompressing its payload. Larger frames are
+     * rejected as malformed instead of allocating a buffer for them.
+     */
+    public static final int MAX_FRAME_SIZE = 512 * 1024 * 1024;
+    /**
+     * Bit set in the type of a frame, whose payload is compressed by {@link Compression}.
+     */
+    static final int COMPRESSED = 0x80;
+
+    public final long id;
+    public final MessageType type;
+    public final byte[] payload;
+    /**
+     * True, if the payload still has to be decompressed.
+     */
+    final boolean compressed;
+
+    /**
+     * Create a new message.
+     *
+     * @param id      The id of the request this message belongs to.
+     * @param type    The type of this message.
+     * @param payload The payload of this message.
+     */
+    public Message(long id, MessageType type, byte[] payload) {
+        this(id, type, payload, false);
+    }
+
+    Message(long id, MessageType type, byte[] payload, boolean compressed) {
+        this.id = id;
+        this.type = type;
+        this.payload = payload;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Encode this message as a frame ready to be written to a channel.
+     *
+     * @return A buffer containing the whole frame, flipped for reading.
+     */
+    public ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + HEADER_SIZE + payload.length);
+        buffer.putInt(HEADER_SIZE + payload.length);
+        buffer.putLong(id);
+        buffer.put(type.code());
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encode the start of a frame, whose payload is written separately.
+     *
+     * @param id            The id of the message.
+     * @param type          The type of the message.
+     * @param payloadLength The length of the payload following the header.
+     * @return A buffer containing length, id and type, flipped for reading.
+     */
+    static ByteBuffer encodeHeader(long id, MessageType type, int payloadLength) {
+        return encodeHeader(id, type, false, payloadLength);
+    }
+
+    /**
+     * Encode the start of a frame, whose payload is written separately.
+     *
+     * @param id            The id of the message.
+     * @param type          The type of the message.
+     * @param compressed    True, if the payload is compressed.
+     * @param payloadLength The length of the payload following the header.
+     * @return A buffer containing length, id and type, flipped for reading.
+     */
+    static ByteBuffer encodeHeader(long id, MessageType type, boolean compressed, int payloadLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + HEADER_SIZE);
+        buffer.putInt(HEADER_SIZE + payloadLength);
+        buffer.putLong(id);
+        buffer.put((byte) (compressed ? type.code() | COMPRESSED : type.code()));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode the next message from a buffer, if it is already complete.
+     *
+     * <p>If the buffer does not contain a complete frame yet, its position is left unchanged.</p>
+     *
+     * @param buffer The buffer to read from, flipped for reading.
+     * @return The message or null, if the frame is not complete yet.
+     * @throws IOException If the frame is malformed.
+     */
+    public static Message decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) {
+            return null;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length < HEADER_SIZE || length > MAX_FRAME_SIZE) {
+            throw new IOException("Malformed frame of length " + length);
+        }
+        if (buffer.remaining() < Integer.BYTES + length) {
+            return null;
+        }
+        buffer.getInt();
+        long id = buffer.getLong();
+        byte code = buffer.get();
+        MessageType type;
+        try {
+            type = MessageType.ofCode((byte) (code & ~COMPRESSED));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed frame", e);
+        }
+        byte[] payload = new byte[length - HEADER_SIZE];
+        buffer.get(payload);
+        return new Message(id, type, payload, (code & COMPRESSED) != 0);
+    }
+
+    /**
+     * Get the size of the frame starting at the position of the buffer.
+     *
+     * @param buffer The buffer containing at least the length-field of the frame.
+     * @return The size of the whole frame including the length-field or -1, if the length is not known yet.
+     */
+    public static int frameSize(ByteBuffer buffer) {
+        if (buffer.remaining() < Integer.BYTES) {
+            return -1;
+        }
+        return Integer.BYTES + buffer.getInt(buffer.position());
+    }
+
+    /**
+     * Pack multiple messages into one {@link MessageType#BATCH}-message.
+     *
+     * @param id       The id of the batch itself.
+     * @param messages The messages to pack. Each one keeps its own id.
+     * @return The batch.
+     */
+    public static Message batch(long id, List<Message> messages) {
+        int size = Integer.BYTES;
+        for (Message message : messages) {
+            size += Integer.BYTES + HEADER_SIZE + message.payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(messages.size());
+        for (Message message : messages) {
+            buffer.put(message.encode());
+        }
+        return new Message(id, MessageType.BATCH, buffer.array());
+    }
+
+    /**
+     * Unpack the messages of a {@link MessageType#BATCH}-message.
+     *
+     * @return The messages packed in this batch.
+     * @throws IOException If this is no well-formed batch.
+     */
+    public List<Message> unbatch() throws IOException {
+        if (type != MessageType.BATCH) {
+            throw new IOException("Not a batch: " + type);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int count = buffer.getInt();
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            Message message = decode(buffer);
+            if (message == null) {
+                throw new IOException("Truncated batch");
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,36 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+
+/**
+ * Callback for {@link Message}s received by an {@link EventLoop}.
+ *
+ * <p>All methods are called on the thread of the {@link EventLoop} and must therefore never block.</p>
+ */
+public interface MessageHandler {
+
+    /**
+     * Handle a received message.
+     *
+     * @param connection The connection the message was received on.
+     * @param message    The message.
+     */
+    void onMessage(NioConnection connection, Message message);
+
+    /**
+     * Called once after a connection to a bound port was accepted.
+     *
+     * @param connection The accepted connection.
+     */
+    default void onAccepted(NioConnection connection) {
+    }
+
+    /**
+     * Called once after a connection was closed.
+     *
+     * @param connection The closed connection.
+     * @param cause      The reason for closing the connection.
+     */
+    default void onClosed(NioConnection connection, IOException cause) {
+    }
+}
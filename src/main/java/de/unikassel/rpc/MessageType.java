@@ -0,0 +1,98 @@
+package de.unikassel.rpc;
+
+/**
+ * Types of {@link Message}s exchanged between {@link de.unikassel.LoadBalancer} and {@link de.unikassel.WorkerNode}.
+ */
+public enum MessageType {
+    /**
+     * A serialized {@link de.unikassel.util.serialization.RemoteCallable} to execute.
+     */
+    TASK,
+    /**
+     * Multiple {@link MessageType#TASK}-messages packed into one frame.
+     */
+    BATCH,
+    /**
+     * The serialized result of a task.
+     */
+    RESULT,
+    /**
+     * The message of an exception thrown while executing a task.
+     */
+    ERROR,
+    /**
+     * A {@link de.unikassel.util.classloading.CodeRequest} for classes of a task not available on the worker.
+     */
+    CODE_REQUEST,
+    /**
+     * A {@link de.unikassel.util.classloading.CodeBundle} answering a {@link MessageType#CODE_REQUEST}.
+     */
+    CODE,
+    /**
+     * The hashes of blobs referenced by a task, that are not cached on the worker.
+     */
+    BLOB_REQUEST,
+    /**
+     * Blobs of large captured arguments by their hash, either sent ahead of the first task referencing them or
+     * answering a {@link MessageType#BLOB_REQUEST}.
+     */
+    BLOB,
+    /**
+     * Start of a {@link StreamedResult}, containing its size. The data follows in {@link MessageType#CHUNK}s.
+     */
+    RESULT_STREAM,
+    /**
+     * A part of a {@link StreamedResult}. An empty chunk marks its end.
+     */
+    CHUNK,
+    /**
+     * Number of bytes of a {@link StreamedResult} the receiver is ready to accept or -1 to cancel the stream.
+     */
+    STREAM_CREDIT,
+    /**
+     * Rejection of a task, because the admission queue of the worker is full. Contains the current queue depth.
+     */
+    BUSY,
+    /**
+     * Request for the cached result of a task. Contains the key of the task and is answered with a {@link #RESULT}
+     * or a {@link #CACHE_MISS}.
+     */
+    CACHE_LOOKUP,
+    /**
+     * Answer to a {@link #CACHE_LOOKUP}, if the result is not cached (anymore).
+     */
+    CACHE_MISS,
+    /**
+     * Request to stop the task with the id of this message. The task is still answered, usually with an
+     * {@link #ERROR}, if it was interrupted.
+     */
+    CANCEL,
+    /**
+     * A {@link Heartbeat} with the free resources and the load of a worker, pushed at a fixed rate.
+     */
+    HEARTBEAT;
+
+    private static final MessageType[] VALUES = values();
+
+    /**
+     * Get the type belonging to the given code.
+     *
+     * @param code The code as returned by {@link MessageType#code()}.
+     * @return The type.
+     */
+    public static MessageType ofCode(byte code) {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IllegalArgumentException("Unknown message type " + code);
+        }
+        return VALUES[code];
+    }
+
+    /**
+     * Get the code used to transmit this type.
+     *
+     * @return The code.
+     */
+    public byte code() {
+        return (byte) this.ordinal();
+    }
+}
@@ -0,0 +1,367 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A non-blocking connection managed by an {@link EventLoop}.
+ *
+ * <p>Incoming bytes are split into {@link Message}s and passed to the {@link MessageHandler}. Outgoing messages can be
+ * sent from any thread; they are queued and written by the {@link EventLoop} as soon as the channel is writable.</p>
+ *
+ * <p>Compressed payloads are decompressed by the executor of the {@link EventLoop}. Messages received meanwhile are
+ * held back, so the handler still gets all messages in the order they were sent.</p>
+ */
+public class NioConnection {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final EventLoop eventLoop;
+    private final SocketChannel channel;
+    private final MessageHandler handler;
+
+    private final Queue<Outbound> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final CompressionStats compressionStats = new CompressionStats();
+    private final Compression compression;
+
+    private SelectionKey key;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    /**
+     * Messages received while a payload is decompressed, in order. Only used by the event loop.
+     */
+    private final ArrayDeque<Message> received = new ArrayDeque<>();
+    private boolean decompressing = false;
+    /**
+     * Time since the socket buffer is full or -1, if it is not.
+     */
+    private long backloggedSince = -1;
+
+    NioConnection(EventLoop eventLoop, SocketChannel channel, MessageHandler handler) {
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.handler = handler;
+        this.compression = new Compression(compressionStats, eventLoop.getCompressionStats());
+    }
+
+    void register(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Send a message over this connection.
+     *
+     * <p>This method never blocks. The message is written by the {@link EventLoop}.</p>
+     *
+     * @param message The message to send.
+     * @throws IOException If the connection is already closed.
+     */
+    public void send(Message message) throws IOException {
+        this.enqueue(new Buffers(eventLoop.isCompressionEnabled()
+                ? compression.encode(message)
+                : new ByteBuffer[]{message.encode()}));
+    }
+
+    /**
+     * Send a message with the given payload without copying it.
+     *
+     * @param id      The id of the message.
+     * @param type    The type of the message.
+     * @param payload The payload. Its content must not change until it is written.
+     * @throws IOException If the connection is already closed.
+     */
+    void send(long id, MessageType type, ByteBuffer payload) throws IOException {
+        this.enqueue(new Buffers(Message.encodeHeader(id, type, payload.remaining()), payload));
+    }
+
+    /**
+     * Send a message with a region of a file as payload, transferred by {@link FileChannel#transferTo}.
+     *
+     * @param id       The id of the message.
+     * @param type     The type of the message.
+     * @param file     The file. It has to stay open until the region is written.
+     * @param position The start of the region.
+     * @param count    The size of the region.
+     * @throws IOException If the connection is already closed.
+     */
+    void send(long id, MessageType type, FileChannel file, long position, int count) throws IOException {
+        this.enqueue(new FileRegion(Message.encodeHeader(id, type, count), file, position, count));
+    }
+
+    /**
+     * Run an action on the {@link EventLoop} as soon as everything sent before is written.
+     *
+     * @param action The action to run.
+     * @throws IOException If the connection is already closed.
+     */
+    void afterWritten(Runnable action) throws IOException {
+        this.enqueue(new Outbound() {
+            @Override
+            public long writeTo(SocketChannel channel) {
+                action.run();
+                return 0;
+            }
+
+            @Override
+            public boolean isDone() {
+                return true;
+            }
+        });
+    }
+
+    private void enqueue(Outbound outbound) throws IOException {
+        if (closed.get()) {
+            throw new IOException("Connection to " + this.getRemoteAddress() + " is closed");
+        }
+        writeQueue.add(outbound);
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::requestWrite);
+        }
+    }
+
+    /**
+     * Check whether this connection is still open.
+     *
+     * @return True, if the connection has not been closed yet.
+     */
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * Get the address of the other side of this connection.
+     *
+     * @return The address or null, if it is unknown.
+     */
+    public SocketAddress getRemoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get statistics about the compression of messages sent and received on this connection.
+     *
+     * @return The statistics.
+     */
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * Close this connection.
+     */
+    public void close() {
+        this.close(new IOException("Connection closed"));
+    }
+
+    void close(IOException cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // We are closing anyway
+        }
+        writeQueue.clear();
+        handler.onClosed(this, cause);
+    }
+
+    void onConnectable() throws IOException {
+        channel.finishConnect();
+        key.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    void onReadable() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            throw new IOException("Connection closed by " + this.getRemoteAddress());
+        }
+        readBuffer.flip();
+        for (Message message = Message.decode(readBuffer); message != null; message = Message.decode(readBuffer)) {
+            if (decompressing || message.compressed || !received.isEmpty()) {
+                received.add(message);
+            } else {
+                handler.onMessage(this, message);
+            }
+        }
+        if (!decompressing) {
+            this.dispatchReceived();
+        }
+        int frameSize = Message.frameSize(readBuffer);
+        if (frameSize > readBuffer.capacity()) {
+            // The next frame does not fit -> grow the buffer
+            ByteBuffer larger = ByteBuffer.allocate(frameSize);
+            larger.put(readBuffer);
+            readBuffer = larger;
+        } else {
+            readBuffer.compact();
+        }
+    }
+
+    /**
+     * Pass the held back messages to the handler until the next compressed one, which is decompressed first.
+     */
+    private void dispatchReceived() {
+        for (Message message = received.poll(); message != null && !closed.get(); message = received.poll()) {
+            if (!message.compressed) {
+                handler.onMessage(this, message);
+                continue;
+            }
+            decompressing = true;
+            Message compressed = message;
+            try {
+                eventLoop.getDecompressionExecutor().execute(() -> {
+                    try {
+                        Message decoded = compression.decode(compressed);
+                        eventLoop.execute(() -> {
+                            decompressing = false;
+                            if (!closed.get()) {
+                                handler.onMessage(this, decoded);
+                                this.dispatchReceived();
+                            }
+                        });
+                    } catch (IOException e) {
+                        eventLoop.execute(() -> this.close(e));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.close(new IOException("Could not decompress payload", e));
+            }
+            return;
+        }
+    }
+
+    void onWritable() throws IOException {
+        flushScheduled.set(false);
+        long written = 0;
+        for (Outbound outbound = writeQueue.peek(); outbound != null; outbound = writeQueue.peek()) {
+            written += outbound.writeTo(channel);
+            if (!outbound.isDone()) {
+                // The socket buffer is full -> continue when writable again
+                long now = System.nanoTime();
+                if (backloggedSince >= 0) {
+                    // Everything written since the buffer was full, has been sent over the link in the meantime
+                    compression.recordBacklog(written, now - backloggedSince);
+                }
+                backloggedSince = now;
+                return;
+            }
+            writeQueue.poll();
+        }
+        backloggedSince = -1;
+        key.interestOps(SelectionKey.OP_READ);
+        if (!writeQueue.isEmpty() && flushScheduled.compareAndSet(false, true)) {
+            // Another thread added a message after we checked
+            requestWrite();
+        }
+    }
+
+    private void requestWrite() {
+        if (key != null && key.isValid() && channel.isConnected()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        } else {
+            // Will be written after connecting
+            flushScheduled.set(false);
+        }
+    }
+
+    /**
+     * Something queued for writing.
+     */
+    private interface Outbound {
+
+        /**
+         * Write as much as possible without blocking.
+         *
+         * @param channel The channel to write to.
+         * @return The number of bytes written.
+         * @throws IOException In case of problems while writing.
+         */
+        long writeTo(SocketChannel channel) throws IOException;
+
+        /**
+         * @return True, if everything has been written.
+         */
+        boolean isDone();
+    }
+
+    private static class Buffers implements Outbound {
+
+        private final ByteBuffer[] buffers;
+
+        private Buffers(ByteBuffer... buffers) {
+            this.buffers = buffers;
+        }
+
+        @Override
+        public long writeTo(SocketChannel channel) throws IOException {
+            return channel.write(buffers);
+        }
+
+        @Override
+        public boolean isDone() {
+            return !buffers[buffers.length - 1].hasRemaining();
+        }
+    }
+
+    private static class FileRegion implements Outbound {
+
+        private final ByteBuffer header;
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+
+        private FileRegion(ByteBuffer header, FileChannel file, long position, long count) {
+            this.header = header;
+            this.file = file;
+            this.position = position;
+            this.remaining = count;
+        }
+
+        @Override
+        public long writeTo(SocketChannel channel) throws IOException {
+            long written = 0;
+            if (header.hasRemaining()) {
+                written += channel.write(header);
+                if (header.hasRemaining()) {
+                    return written;
+                }
+            }
+            while (remaining > 0) {
+                long transferred = file.transferTo(position, remaining, channel);
+                if (transferred == 0) {
+                    if (position >= file.size()) {
+                        // The frame can not be completed anymore
+                        throw new IOException("File truncated while sending");
+                    }
+                    return written;
+                }
+                position += transferred;
+                remaining -= transferred;
+                written += transferred;
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isDone() {
+            return !header.hasRemaining() && remaining == 0;
+        }
+    }
+}
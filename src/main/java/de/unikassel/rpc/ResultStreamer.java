@@ -0,0 +1,122 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends {@link StreamedResult}s of a {@link de.unikassel.WorkerNode} in chunks, as far as the receiver grants credit.
+ *
+ * <p>All streams are driven by the {@link EventLoop}, so no thread is occupied while waiting for credit.</p>
+ */
+public class ResultStreamer {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final EventLoop eventLoop;
+    /**
+     * Streams in progress by connection and id. Only used by the event loop.
+     */
+    private final Map<NioConnection, Map<Long, StreamedResult>> streams = new HashMap<>();
+
+    /**
+     * Create a new streamer.
+     *
+     * @param eventLoop The loop handling the connections to stream on.
+     */
+    public ResultStreamer(EventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Start streaming a result. Can be called from any thread.
+     *
+     * @param connection The connection to stream on.
+     * @param id         The id of the task, that returned the result.
+     * @param result     The result.
+     */
+    public void stream(NioConnection connection, long id, StreamedResult result) {
+        eventLoop.execute(() -> {
+            try {
+                connection.send(new Message(id, MessageType.RESULT_STREAM,
+                        ByteBuffer.allocate(Long.BYTES).putLong(result.size()).array()));
+            } catch (IOException e) {
+                result.close();
+                return;
+            }
+            streams.computeIfAbsent(connection, c -> new HashMap<>()).put(id, result);
+            // The first window is granted implicitly, so sending starts without waiting for the receiver
+            result.grant(StreamedResult.WINDOW);
+            this.sendChunks(connection, id, result);
+        });
+    }
+
+    /**
+     * Handle a {@link MessageType#STREAM_CREDIT}-message. Must be called by the event loop.
+     *
+     * @param connection The connection the message was received on.
+     * @param message    The message.
+     */
+    public void onCredit(NioConnection connection, Message message) {
+        Map<Long, StreamedResult> connectionStreams = streams.get(connection);
+        StreamedResult result = connectionStreams == null ? null : connectionStreams.get(message.id);
+        if (result == null) {
+            return; // Already finished
+        }
+        int credit = ByteBuffer.wrap(message.payload).getInt();
+        if (credit < 0) {
+            // Cancelled -> stop sending, but chunks already queued still need the file
+            this.remove(connection, message.id);
+            try {
+                connection.afterWritten(result::close);
+            } catch (IOException e) {
+                result.close();
+            }
+            return;
+        }
+        result.grant(credit);
+        this.sendChunks(connection, message.id, result);
+    }
+
+    /**
+     * Release all streams of a closed connection. Must be called by the event loop.
+     *
+     * @param connection The closed connection.
+     */
+    public void onClosed(NioConnection connection) {
+        Map<Long, StreamedResult> connectionStreams = streams.remove(connection);
+        if (connectionStreams != null) {
+            connectionStreams.values().forEach(StreamedResult::close);
+        }
+    }
+
+    private void sendChunks(NioConnection connection, long id, StreamedResult result) {
+        try {
+            if (result.sendChunks(connection, id)) {
+                connection.send(id, MessageType.CHUNK, EMPTY.duplicate());
+                // A file has to stay open until its last region is written
+                connection.afterWritten(() -> {
+                    this.remove(connection, id);
+                    result.close();
+                });
+            }
+        } catch (IOException e) {
+            // The connection is closed -> nobody is waiting for the rest
+            this.remove(connection, id);
+            result.close();
+        }
+    }
+
+    private StreamedResult remove(NioConnection connection, long id) {
+        Map<Long, StreamedResult> connectionStreams = streams.get(connection);
+        if (connectionStreams == null) {
+            return null;
+        }
+        StreamedResult result = connectionStreams.remove(id);
+        if (connectionStreams.isEmpty()) {
+            streams.remove(connection);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package de.unikassel.rpc;
+
+import de.unikassel.schedule.data.PhaseTimes;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The {@link PhaseTimes} of a task, sent behind the serialized result of every {@link MessageType#RESULT}.
+ *
+ * <p>The serialized result ignores trailing bytes, so the result can be deserialized from the payload as it is. A
+ * result, that was not computed, e.g. because it was cached, is sent with unknown times, all written as -1.</p>
+ */
+public final class ResultTrailer {
+
+    /**
+     * Size of the trailer in bytes.
+     */
+    public static final int SIZE = 5 * Long.BYTES;
+
+    private static final long UNKNOWN = -1;
+
+    private ResultTrailer() {
+    }
+
+    /**
+     * Copy a serialized result with the times of its task appended.
+     *
+     * @param result The serialized result.
+     * @param times  The times or null, if they are not known.
+     * @return The payload of the {@link MessageType#RESULT}.
+     */
+    public static byte[] append(byte[] result, PhaseTimes times) {
+        byte[] payload = Arrays.copyOf(result, result.length + SIZE);
+        ByteBuffer buffer = ByteBuffer.wrap(payload, result.length, SIZE);
+        if (times == null) {
+            for (int i = 0; i < SIZE / Long.BYTES; ++i) {
+                buffer.putLong(UNKNOWN);
+            }
+        } else {
+            buffer.putLong(times.queued).putLong(times.deserialization).putLong(times.cgroupSetup)
+                    .putLong(times.call).putLong(times.serialization);
+        }
+        return payload;
+    }
+
+    /**
+     * Read the times appended to the payload of a {@link MessageType#RESULT} by
+     * {@link ResultTrailer#append(byte[], PhaseTimes)}.
+     *
+     * @param payload The payload.
+     * @return The times or null, if the payload is too short or the times are not known.
+     */
+    public static PhaseTimes read(byte[] payload) {
+        if (payload.length < SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload, payload.length - SIZE, SIZE);
+        PhaseTimes times = new PhaseTimes(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                buffer.getLong());
+        return times.call == UNKNOWN ? null : times;
+    }
+}
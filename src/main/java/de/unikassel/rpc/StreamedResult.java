@@ -0,0 +1,244 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.IntConsumer;
+
+/**
+ * A large result, that is sent in flow-controlled chunks instead of as one serialized object.
+ *
+ * <p>A task returns a {@link StreamedResult} created by {@link StreamedResult#of(ByteBuffer)} or
+ * {@link StreamedResult#of(Path)}. Its future is completed as soon as the first bytes are on their way and the result
+ * can be consumed incrementally with {@link StreamedResult#nextChunk()} or {@link StreamedResult#inputStream()}.</p>
+ *
+ * <p>The {@link de.unikassel.WorkerNode} never sends more than {@link StreamedResult#WINDOW} bytes, that have not
+ * been consumed yet, so neither side has to buffer the whole result. Files are sent using
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.</p>
+ */
+public class StreamedResult implements AutoCloseable {
+
+    /**
+     * Maximal size of one chunk.
+     */
+    public static final int CHUNK_SIZE = 256 * 1024;
+    /**
+     * Maximal number of bytes sent, but not consumed yet.
+     */
+    public static final int WINDOW = 4 * CHUNK_SIZE;
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final long size;
+
+    // ----- Sending side, only used by the event loop -----
+
+    private final ByteBuffer buffer;
+    private final FileChannel file;
+    private long position;
+    private long credit;
+    private boolean complete;
+
+    // ----- Receiving side -----
+
+    private final IntConsumer creditSink;
+    private final BlockingQueue<ByteBuffer> chunks = new LinkedBlockingQueue<>();
+    private volatile IOException failure;
+    private boolean finished;
+    private int consumed;
+
+    private StreamedResult(long size, ByteBuffer buffer, FileChannel file, IntConsumer creditSink) {
+        this.size = size;
+        this.buffer = buffer;
+        this.file = file;
+        this.creditSink = creditSink;
+    }
+
+    /**
+     * Stream the remaining content of a buffer. A direct buffer is written to the socket without copying.
+     *
+     * @param buffer The buffer. Its content must not change until it is sent.
+     * @return The result to return from a task.
+     */
+    public static StreamedResult of(ByteBuffer buffer) {
+        ByteBuffer content = buffer.slice();
+        return new StreamedResult(content.remaining(), content, null, null);
+    }
+
+    /**
+     * Stream the content of a file.
+     *
+     * @param path The path of the file.
+     * @return The result to return from a task.
+     * @throws IOException In case the file could not be opened.
+     */
+    public static StreamedResult of(Path path) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        return new StreamedResult(file.size(), null, file, null);
+    }
+
+    /**
+     * Create the receiving side of a stream.
+     *
+     * @param size       The size announced by the sender.
+     * @param creditSink Receives the number of consumed bytes to grant to the sender or -1 to cancel.
+     */
+    static StreamedResult receiving(long size, IntConsumer creditSink) {
+        return new StreamedResult(size, null, null, creditSink);
+    }
+
+    /**
+     * Get the total size of this result.
+     *
+     * @return The size in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Get the next chunk of this result, waiting until it arrives.
+     *
+     * <p>Must not be called by multiple threads at the same time.</p>
+     *
+     * @return The next chunk or null, if all chunks have been consumed.
+     * @throws IOException In case the connection was lost while receiving.
+     */
+    public ByteBuffer nextChunk() throws IOException {
+        if (finished) {
+            return null;
+        }
+        ByteBuffer chunk;
+        try {
+            chunk = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next chunk");
+        }
+        if (chunk == END) {
+            finished = true;
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+        consumed += chunk.remaining();
+        if (consumed >= CHUNK_SIZE) {
+            creditSink.accept(consumed);
+            consumed = 0;
+        }
+        return chunk;
+    }
+
+    /**
+     * Read this result as a stream.
+     *
+     * @return A stream reading the chunks of this result as they arrive.
+     */
+    public InputStream inputStream() {
+        return new InputStream() {
+            private ByteBuffer current = END;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                while (!current.hasRemaining()) {
+                    current = nextChunk();
+                    if (current == null) {
+                        current = END;
+                        return -1;
+                    }
+                }
+                int read = Math.min(length, current.remaining());
+                current.get(bytes, offset, read);
+                return read;
+            }
+
+            @Override
+            public int available() {
+                return current.remaining();
+            }
+
+            @Override
+            public void close() {
+                StreamedResult.this.close();
+            }
+        };
+    }
+
+    /**
+     * Release this result. On the receiving side, a stream not consumed completely is cancelled.
+     */
+    @Override
+    public void close() {
+        if (creditSink != null) {
+            if (!finished) {
+                finished = true;
+                chunks.clear();
+                creditSink.accept(-1);
+            }
+        } else if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+                // Only read from
+            }
+        }
+    }
+
+    // ----- Sending side -----
+
+    void grant(long bytes) {
+        credit += bytes;
+    }
+
+    /**
+     * Send as many chunks as the credit allows.
+     *
+     * @return True, if the last chunk has just been sent.
+     */
+    boolean sendChunks(NioConnection connection, long id) throws IOException {
+        while (credit > 0 && position < size) {
+            int length = (int) Math.min(CHUNK_SIZE, Math.min(credit, size - position));
+            if (file != null) {
+                connection.send(id, MessageType.CHUNK, file, position, length);
+            } else {
+                ByteBuffer chunk = buffer.duplicate();
+                chunk.position((int) position).limit((int) position + length);
+                connection.send(id, MessageType.CHUNK, chunk.slice());
+            }
+            position += length;
+            credit -= length;
+        }
+        if (position >= size && !complete) {
+            complete = true;
+            return true;
+        }
+        return false;
+    }
+
+    // ----- Receiving side, called by the event loop -----
+
+    void offer(byte[] chunk) {
+        chunks.add(chunk.length == 0 ? END : ByteBuffer.wrap(chunk));
+    }
+
+    void fail(IOException cause) {
+        failure = cause;
+        chunks.add(END);
+    }
+}
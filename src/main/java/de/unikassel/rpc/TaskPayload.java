@@ -0,0 +1,170 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The payload of a {@link MessageType#TASK}-message.
+ *
+ * <p>The serialized task is preceded by the hash of the {@link de.unikassel.util.classloading.CodeBundle} required
+ * to deserialize it, the key to cache its result by and the hashes of the blobs it references, so a
+ * {@link de.unikassel.WorkerNode} can answer from its cache or request missing classes and blobs before running the
+ * task. The execution lane and whether the task is I/O-bound are sent in front of all of them, so the worker can pick
+ * the executor without deserializing the task.</p>
+ */
+public class TaskPayload {
+
+    private static final String[] NO_BLOBS = new String[0];
+
+    /**
+     * Value of {@link TaskPayload#lane}, if the task may run on any lane.
+     */
+    public static final int ANY_LANE = -1;
+
+    /**
+     * The hash of the required bundle or an empty string, if the task only uses classes of the worker.
+     */
+    public final String bundleHash;
+    /**
+     * The hashes of the blobs of large captured arguments referenced by the task.
+     */
+    public final String[] blobHashes;
+    /**
+     * The execution lane of the worker to run the task on or {@link TaskPayload#ANY_LANE}.
+     */
+    public final int lane;
+    /**
+     * Whether the task mostly waits for I/O.
+     *
+     * @see de.unikassel.util.serialization.IoBoundCallable
+     */
+    public final boolean ioBound;
+    /**
+     * The key to cache the result of the task by or an empty string, if it must not be cached.
+     *
+     * @see de.unikassel.util.serialization.DeterministicCallable
+     */
+    public final String memoKey;
+    /**
+     * The serialized task.
+     */
+    public final byte[] task;
+
+    /**
+     * Create a new payload.
+     *
+     * @param bundleHash The hash of the required bundle or null, if there is none.
+     * @param blobHashes The hashes of the referenced blobs or null, if there are none.
+     * @param task       The serialized task.
+     */
+    public TaskPayload(String bundleHash, String[] blobHashes, byte[] task) {
+        this(bundleHash, blobHashes, ANY_LANE, task);
+    }
+
+    /**
+     * Create a new payload for a task to run on a specific lane.
+     *
+     * @param bundleHash The hash of the required bundle or null, if there is none.
+     * @param blobHashes The hashes of the referenced blobs or null, if there are none.
+     * @param lane       The execution lane to run the task on or {@link TaskPayload#ANY_LANE}.
+     * @param task       The serialized task.
+     */
+    public TaskPayload(String bundleHash, String[] blobHashes, int lane, byte[] task) {
+        this(bundleHash, blobHashes, lane, null, task);
+    }
+
+    /**
+     * Create a new payload for a task to run on a specific lane, whose result may be cached.
+     *
+     * @param bundleHash The hash of the required bundle or null, if there is none.
+     * @param blobHashes The hashes of the referenced blobs or null, if there are none.
+     * @param lane       The execution lane to run the task on or {@link TaskPayload#ANY_LANE}.
+     * @param memoKey    The key to cache the result by or null, if it must not be cached.
+     * @param task       The serialized task.
+     */
+    public TaskPayload(String bundleHash, String[] blobHashes, int lane, String memoKey, byte[] task) {
+        this(bundleHash, blobHashes, lane, false, memoKey, task);
+    }
+
+    /**
+     * Create a new payload for a task to run on a specific lane or as I/O-bound task, whose result may be cached.
+     *
+     * @param bundleHash The hash of the required bundle or null, if there is none.
+     * @param blobHashes The hashes of the referenced blobs or null, if there are none.
+     * @param lane       The execution lane to run the task on or {@link TaskPayload#ANY_LANE}.
+     * @param ioBound    Whether the task mostly waits for I/O.
+     * @param memoKey    The key to cache the result by or null, if it must not be cached.
+     * @param task       The serialized task.
+     */
+    public TaskPayload(String bundleHash, String[] blobHashes, int lane, boolean ioBound, String memoKey,
+                       byte[] task) {
+        this.bundleHash = bundleHash == null ? "" : bundleHash;
+        this.blobHashes = blobHashes == null ? NO_BLOBS : blobHashes;
+        this.lane = lane;
+        this.ioBound = ioBound;
+        this.memoKey = memoKey == null ? "" : memoKey;
+        this.task = task;
+    }
+
+    /**
+     * Encode this payload.
+     *
+     * @return The encoded payload.
+     */
+    public byte[] encode() {
+        byte[][] hashes = new byte[blobHashes.length + 2][];
+        int size = Integer.BYTES * (hashes.length + 2) + 1 + task.length;
+        hashes[0] = bundleHash.getBytes(StandardCharsets.UTF_8);
+        hashes[1] = memoKey.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < blobHashes.length; ++i) {
+            hashes[i + 2] = blobHashes[i].getBytes(StandardCharsets.UTF_8);
+        }
+        for (byte[] hash : hashes) {
+            size += hash.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(lane).put((byte) (ioBound ? 1 : 0)).putInt(blobHashes.length);
+        for (byte[] hash : hashes) {
+            buffer.putInt(hash.length).put(hash);
+        }
+        return buffer.put(task).array();
+    }
+
+    /**
+     * Decode a payload written by {@link TaskPayload#encode()}.
+     *
+     * @param payload The encoded payload.
+     * @return The decoded payload.
+     * @throws IOException In case the payload is malformed.
+     */
+    public static TaskPayload decode(byte[] payload) throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            int lane = buffer.getInt();
+            boolean ioBound = buffer.get() != 0;
+            int blobCount = buffer.getInt();
+            if (blobCount < 0 || blobCount > buffer.remaining() / Integer.BYTES) {
+                throw new IOException("Malformed task payload");
+            }
+            String bundleHash = readString(buffer);
+            String memoKey = readString(buffer);
+            String[] blobHashes = new String[blobCount];
+            for (int i = 0; i < blobCount; ++i) {
+                blobHashes[i] = readString(buffer);
+            }
+            byte[] task = new byte[buffer.remaining()];
+            buffer.get(task);
+            return new TaskPayload(bundleHash, blobHashes, lane, ioBound, memoKey, task);
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("Malformed task payload", e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,35 @@
+package de.unikassel.rpc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Thrown, if a {@link de.unikassel.WorkerNode} rejected a task, because its admission queue was full.
+ */
+public class WorkerBusyException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final InetSocketAddress worker;
+    private final int queueDepth;
+
+    /**
+     * Create a new exception.
+     *
+     * @param worker     The address of the busy worker.
+     * @param queueDepth The number of tasks admitted by the worker at the time of rejection.
+     */
+    public WorkerBusyException(InetSocketAddress worker, int queueDepth) {
+        super(String.format("Worker %s is busy with %d tasks", worker, queueDepth));
+        this.worker = worker;
+        this.queueDepth = queueDepth;
+    }
+
+    public InetSocketAddress getWorker() {
+        return worker;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+}
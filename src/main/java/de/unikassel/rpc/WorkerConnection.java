@@ -0,0 +1,448 @@
+package de.unikassel.rpc;
+
+import de.unikassel.schedule.data.PhaseTimes;
+import de.unikassel.util.classloading.CodeBundle;
+import de.unikassel.util.classloading.CodeRepository;
+import de.unikassel.util.classloading.CodeRequest;
+import de.unikassel.util.serialization.BlobCache;
+import de.unikassel.util.serialization.RemoteCallable;
+import de.unikassel.util.serialization.SerializedCallable;
+import de.unikassel.util.serialization.Serializer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent connection from the {@link de.unikassel.LoadBalancer} to one {@link de.unikassel.WorkerNode}.
+ *
+ * <p>Any number of tasks can be in flight at the same time. Each task is sent with a unique id and its result is
+ * matched back to the right request by this id, no matter in which order the results arrive.</p>
+ *
+ * <p>The connection is driven by an {@link EventLoop}, so tasks in flight do not occupy any thread while waiting for
+ * their results.</p>
+ *
+ * <p>Tasks only carry the hash of the {@link CodeBundle} they need. The {@link de.unikassel.WorkerNode} requests the
+ * bundle from the {@link CodeRepository} of this connection the first time it sees the hash.</p>
+ *
+ * <p>Large captured arguments are sent as blobs ahead of the first task referencing them. Later tasks only carry
+ * their hashes. Blobs evicted from the cache of the {@link de.unikassel.WorkerNode} are requested again.</p>
+ *
+ * <p>Results of tasks sent with a key are cached by the {@link de.unikassel.WorkerNode} and can be fetched with
+ * {@link WorkerConnection#lookup(String)} later.</p>
+ *
+ * <p>The futures of the tasks are {@link Response}s, which also carry the {@link PhaseTimes} of the task on the
+ * worker.</p>
+ *
+ * <p>Cancelling the future of a task sends a {@link MessageType#CANCEL} to the {@link de.unikassel.WorkerNode}, so
+ * it stops running the task.</p>
+ *
+ * <p>A task returning a {@link StreamedResult} completes its future as soon as the stream starts. The chunks are
+ * handed to the {@link StreamedResult} in the order they arrive.</p>
+ */
+public class WorkerConnection implements MessageHandler, AutoCloseable {
+
+    private final InetSocketAddress address;
+    private final Executor executor;
+    private final CodeRepository codeRepository;
+    private final BlobCache blobCache;
+    private final Heartbeats heartbeats;
+    private final NioConnection connection;
+    /**
+     * Hashes of the blobs already sent over this connection.
+     */
+    private final Set<String> sentBlobs = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final ConcurrentHashMap<Long, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, StreamedResult> streams = new ConcurrentHashMap<>();
+    /**
+     * The latest heartbeat received over this connection or null, if none was received yet.
+     */
+    private volatile Heartbeat heartbeat;
+
+    /**
+     * Open a new connection to a {@link de.unikassel.WorkerNode}.
+     *
+     * <p>This constructor does not block. If the connection can not be established, all tasks sent over it fail.</p>
+     *
+     * @param eventLoop      The {@link EventLoop} to handle the I/O of this connection.
+     * @param address        The address of the {@link de.unikassel.WorkerNode}.
+     * @param executor       The executor to deserialize results with, so the {@link EventLoop} is never blocked.
+     * @param codeRepository The repository to answer {@link MessageType#CODE_REQUEST}s with.
+     * @param blobCache      The cache to keep blobs in, so {@link MessageType#BLOB_REQUEST}s can be answered.
+     * @param heartbeats     The snapshots to store the {@link Heartbeat}s of the worker in.
+     * @throws IOException In case the connection could not be initiated.
+     */
+    public WorkerConnection(EventLoop eventLoop, InetSocketAddress address, Executor executor,
+                            CodeRepository codeRepository, BlobCache blobCache, Heartbeats heartbeats)
+            throws IOException {
+        this.address = address;
+        this.executor = executor;
+        this.codeRepository = codeRepository;
+        this.blobCache = blobCache;
+        this.heartbeats = heartbeats;
+        this.connection = eventLoop.connect(address, this);
+    }
+
+    /**
+     * Send a task to the {@link de.unikassel.WorkerNode}.
+     *
+     * @param callable The task to execute remotely.
+     * @param code     The bundle of classes required by the task or null, if the worker has all of them.
+     * @return A future, that will be completed with the result of the task.
+     * @throws IOException In case the task could not be sent.
+     */
+    public CompletableFuture<Object> send(RemoteCallable<?> callable, CodeBundle code) throws IOException {
+        return this.send(callable, code, TaskPayload.ANY_LANE, null);
+    }
+
+    /**
+     * Send a task to be run on a specific execution lane of the {@link de.unikassel.WorkerNode}, which may cache its
+     * result.
+     *
+     * @param callable The task to execute remotely.
+     * @param code     The bundle of classes required by the task or null, if the worker has all of them.
+     * @param lane     The lane to run the task on or {@link TaskPayload#ANY_LANE}.
+     * @param memoKey  The key to cache the result by on the worker or null, if it must not be cached.
+     * @return A future, that will be completed with the result of the task.
+     * @throws IOException In case the task could not be sent.
+     */
+    public CompletableFuture<Object> send(RemoteCallable<?> callable, CodeBundle code, int lane, String memoKey)
+            throws IOException {
+        return this.send(new SerializedCallable(callable), code, lane, memoKey);
+    }
+
+    /**
+     * Send a task, that was serialized already, e.g. to compute the key to cache its result by.
+     *
+     * @param task    The serialized task.
+     * @param code    The bundle of classes required by the task or null, if the worker has all of them.
+     * @param lane    The lane to run the task on or {@link TaskPayload#ANY_LANE}.
+     * @param memoKey The key to cache the result by on the worker or null, if it must not be cached.
+     * @return A future, that will be completed with the result of the task.
+     * @throws IOException In case the task could not be sent.
+     */
+    public CompletableFuture<Object> send(SerializedCallable task, CodeBundle code, int lane, String memoKey)
+            throws IOException {
+        List<Message> messages = new ArrayList<>(2);
+        long id = nextId.incrementAndGet();
+        messages.add(this.task(id, task, code, lane, memoKey, messages));
+        Message message = messages.size() == 1 ? messages.get(0) : Message.batch(nextId.incrementAndGet(), messages);
+        return this.request(id, message);
+    }
+
+    /**
+     * Get the cached result of a task from the {@link de.unikassel.WorkerNode}, without running it.
+     *
+     * @param memoKey The key of the task.
+     * @return A future, that will be completed with the result or with a {@link CacheMissException}, if the result
+     * is not cached on the worker.
+     * @throws IOException In case the request could not be sent.
+     */
+    public CompletableFuture<Object> lookup(String memoKey) throws IOException {
+        long id = nextId.incrementAndGet();
+        return this.request(id, new Message(id, MessageType.CACHE_LOOKUP, memoKey.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private CompletableFuture<Object> request(long id, Message message) throws IOException {
+        CompletableFuture<Object> response = new Response(id);
+        pending.put(id, response);
+        try {
+            connection.send(message);
+        } catch (IOException e) {
+            pending.remove(id);
+            throw e;
+        }
+        if (!connection.isOpen()) {
+            // The connection broke while sending -> make sure, nobody waits forever
+            failPending(new IOException("Connection to " + address + " closed"));
+        }
+        return response;
+    }
+
+    /**
+     * Send multiple tasks to the {@link de.unikassel.WorkerNode} in one frame.
+     *
+     * @param callables The tasks to execute remotely.
+     * @param code      The bundles of classes required by the tasks, in the same order as the tasks.
+     * @return Futures, that will be completed with the results of the tasks, in the same order as the tasks.
+     * @throws IOException In case the tasks could not be sent.
+     */
+    public List<CompletableFuture<Object>> sendAll(List<? extends RemoteCallable<?>> callables, List<CodeBundle> code)
+            throws IOException {
+        List<SerializedCallable> tasks = new ArrayList<>(callables.size());
+        for (RemoteCallable<?> callable : callables) {
+            tasks.add(new SerializedCallable(callable));
+        }
+        return this.sendAll(tasks, code, Collections.nCopies(callables.size(), TaskPayload.ANY_LANE),
+                Collections.nCopies(callables.size(), null));
+    }
+
+    /**
+     * Send multiple serialized tasks to be run on specific execution lanes of the {@link de.unikassel.WorkerNode} in
+     * one frame, which may cache their results.
+     *
+     * @param callables The serialized tasks to execute remotely.
+     * @param code      The bundles of classes required by the tasks, in the same order as the tasks.
+     * @param lanes     The lanes to run the tasks on, in the same order as the tasks.
+     * @param memoKeys  The keys to cache the results by or null entries, in the same order as the tasks.
+     * @return Futures, that will be completed with the results of the tasks, in the same order as the tasks.
+     * @throws IOException In case the tasks could not be sent.
+     */
+    public List<CompletableFuture<Object>> sendAll(List<SerializedCallable> callables, List<CodeBundle> code,
+                                                   List<Integer> lanes, List<String> memoKeys) throws IOException {
+        List<Message> tasks = new ArrayList<>(callables.size());
+        List<CompletableFuture<Object>> responses = new ArrayList<>(callables.size());
+        for (int i = 0; i < callables.size(); ++i) {
+            long id = nextId.incrementAndGet();
+            tasks.add(this.task(id, callables.get(i), code.get(i), lanes.get(i), memoKeys.get(i), tasks));
+            CompletableFuture<Object> response = new Response(id);
+            responses.add(response);
+            pending.put(id, response);
+        }
+        try {
+            connection.send(Message.batch(nextId.incrementAndGet(), tasks));
+        } catch (IOException e) {
+            tasks.forEach(task -> pending.remove(task.id));
+            throw e;
+        }
+        if (!connection.isOpen()) {
+            failPending(new IOException("Connection to " + address + " closed"));
+        }
+        return responses;
+    }
+
+    /**
+     * Get statistics about the compression of messages on this connection.
+     *
+     * @return The statistics.
+     */
+    public CompressionStats getCompressionStats() {
+        return connection.getCompressionStats();
+    }
+
+    /**
+     * Check whether this connection can still be used.
+     *
+     * @return True, if the connection is still open.
+     */
+    public boolean isOpen() {
+        return connection.isOpen();
+    }
+
+    /**
+     * Create the message for a task and add messages for blobs not sent yet.
+     */
+    private Message task(long id, SerializedCallable task, CodeBundle code, int lane, String memoKey,
+                         List<Message> blobMessages) {
+        HashMap<String, byte[]> unsent = new HashMap<>();
+        task.blobs.forEach((hash, blob) -> {
+            blobCache.put(hash, blob);
+            if (sentBlobs.add(hash)) {
+                unsent.put(hash, blob);
+            }
+        });
+        if (!unsent.isEmpty()) {
+            blobMessages.add(new Message(0, MessageType.BLOB, Serializer.serialize(unsent)));
+        }
+        String[] blobHashes = task.blobs.keySet().toArray(new String[0]);
+        // A task limited by a cgroup has to run on a platform thread, like a CPU-bound task
+        boolean ioBound = task.callable.isIoBound() && task.callable.getCGroup() == null;
+        return new Message(id, MessageType.TASK,
+                new TaskPayload(code == null ? null : code.hash, blobHashes, lane, ioBound, memoKey, task.bytes)
+                        .encode());
+    }
+
+    @Override
+    public void onMessage(NioConnection connection, Message message) {
+        if (message.type == MessageType.CODE_REQUEST) {
+            this.complete(() -> this.answerCode(message));
+            return;
+        }
+        if (message.type == MessageType.BLOB_REQUEST) {
+            this.complete(() -> this.answerBlobs(message));
+            return;
+        }
+        if (message.type == MessageType.HEARTBEAT) {
+            try {
+                this.heartbeat = Heartbeat.decode(message.payload);
+                heartbeats.update(address, this.heartbeat);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (message.type == MessageType.CHUNK) {
+            // Offered directly, so the chunks stay in order
+            StreamedResult stream = message.payload.length == 0
+                    ? streams.remove(message.id)
+                    : streams.get(message.id);
+            if (stream != null) {
+                stream.offer(message.payload);
+            }
+            return;
+        }
+        CompletableFuture<Object> response = pending.remove(message.id);
+        if (response == null) {
+            System.err.printf("Received response for unknown request %d from %s%n", message.id, address);
+            return;
+        }
+        if (message.type == MessageType.RESULT_STREAM) {
+            StreamedResult stream = this.receiveStream(message);
+            this.complete(() -> response.complete(stream));
+            return;
+        }
+        // Complete on the executor, so neither deserialization nor continuations run on the event loop
+        this.complete(() -> {
+            switch (message.type) {
+                case RESULT:
+                    try {
+                        if (response instanceof Response) {
+                            ((Response) response).phaseTimes = ResultTrailer.read(message.payload);
+                        }
+                        response.complete(Serializer.deserialize(message.payload)); // Ignores the times
+                    } catch (RuntimeException e) {
+                        response.completeExceptionally(new IOException("Could not read result", e));
+                    }
+                    break;
+                case ERROR:
+                    response.completeExceptionally(new IOException("Exception while executing on worker: "
+                            + new String(message.payload, StandardCharsets.UTF_8)));
+                    break;
+                case BUSY:
+                    response.completeExceptionally(
+                            new WorkerBusyException(address, ByteBuffer.wrap(message.payload).getInt()));
+                    break;
+                case CACHE_MISS:
+                    response.completeExceptionally(new CacheMissException(address));
+                    break;
+                default:
+                    response.completeExceptionally(new IOException("Unexpected message of type " + message.type));
+            }
+        });
+    }
+
+    private void answerCode(Message message) {
+        try {
+            CodeRequest request = (CodeRequest) Serializer.deserialize(message.payload);
+            CodeBundle bundle = codeRepository.answer(request);
+            if (bundle == null) {
+                // Unknown bundle -> let the tasks fail on the worker instead of waiting forever
+                bundle = new CodeBundle(request.bundleHash, Collections.emptyMap(), Collections.emptyMap());
+            }
+            connection.send(new Message(message.id, MessageType.CODE, Serializer.serialize(bundle)));
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void answerBlobs(Message message) {
+        try {
+            HashMap<String, byte[]> blobs = new HashMap<>();
+            for (String hash : (String[]) Serializer.deserialize(message.payload)) {
+                blobs.put(hash, blobCache.get(hash)); // Null, if evicted -> the tasks fail on the worker
+            }
+            connection.send(new Message(message.id, MessageType.BLOB, Serializer.serialize(blobs)));
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private StreamedResult receiveStream(Message message) {
+        long size = ByteBuffer.wrap(message.payload).getLong();
+        StreamedResult stream = StreamedResult.receiving(size, credit -> {
+            if (credit < 0) {
+                streams.remove(message.id);
+            }
+            try {
+                connection.send(new Message(message.id, MessageType.STREAM_CREDIT,
+                        ByteBuffer.allocate(Integer.BYTES).putInt(credit).array()));
+            } catch (IOException ignored) {
+                // Connection lost -> the stream fails anyway
+            }
+        });
+        streams.put(message.id, stream);
+        return stream;
+    }
+
+    @Override
+    public void onClosed(NioConnection connection, IOException cause) {
+        Heartbeat last = this.heartbeat;
+        if (last != null) {
+            // Outdated, the worker may be gone
+            heartbeats.evict(address, last);
+        }
+        for (Long id : streams.keySet()) {
+            StreamedResult stream = streams.remove(id);
+            if (stream != null) {
+                stream.fail(new IOException("Connection to " + address + " lost while streaming", cause));
+            }
+        }
+        this.complete(() -> failPending(cause));
+    }
+
+    private void complete(Runnable completion) {
+        try {
+            executor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run(); // Already shut down -> complete anyway
+        }
+    }
+
+    private void failPending(IOException cause) {
+        for (Map.Entry<Long, CompletableFuture<Object>> entry : pending.entrySet()) {
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().completeExceptionally(
+                        new IOException("Connection to " + address + " lost", cause));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+
+    /**
+     * The future of a request, that stops the task on the worker, when it is cancelled.
+     */
+    public class Response extends CompletableFuture<Object> {
+        private final long id;
+        private volatile PhaseTimes phaseTimes;
+
+        private Response(long id) {
+            this.id = id;
+        }
+
+        /**
+         * Get the durations of the phases of the task on the worker.
+         *
+         * @return The times or null, if there was no result (yet) or it was not computed, e.g. because it was cached.
+         */
+        public PhaseTimes getPhaseTimes() {
+            return phaseTimes;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            // Stays pending until the worker answers, so the late answer is not reported as unknown
+            try {
+                connection.send(new Message(id, MessageType.CANCEL, new byte[0]));
+            } catch (IOException ignored) {
+                // Connection lost -> the worker stops the task anyway
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package de.unikassel.schedule;
+
+import de.unikassel.schedule.data.TaskPrediction;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Policy to start a duplicate of a task on another worker, if it runs much longer than predicted.
+ *
+ * <p>A task is hedged, when it exceeds its predicted duration by a number of root mean squared errors of the
+ * prediction of its time. The result arriving first completes the task and the other execution is cancelled.</p>
+ *
+ * <p>Each policy collects {@link Stats} of the tasks run with it, so the latencies of different policies (including
+ * {@link HedgingPolicy#never()}) can be compared.</p>
+ */
+public class HedgingPolicy {
+
+    private final double rootMeanSquaredError;
+    private final double rmseFactor;
+    private final Stats stats = new Stats();
+
+    /**
+     * Create a new policy.
+     *
+     * @param rootMeanSquaredError The RMSE of the time prediction in nanoseconds, e.g. taken from the
+     *                             {@link de.unikassel.prediction.Trainer.TrainingResult} of the time.
+     * @param rmseFactor           The number of RMSEs a task has to exceed its predicted duration by to be hedged.
+     */
+    public HedgingPolicy(double rootMeanSquaredError, double rmseFactor) {
+        this.rootMeanSquaredError = rootMeanSquaredError;
+        this.rmseFactor = rmseFactor;
+    }
+
+    /**
+     * Create a policy, that never hedges, but still collects the latencies of the tasks.
+     *
+     * @return The policy.
+     */
+    public static HedgingPolicy never() {
+        return new HedgingPolicy(0, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Get the time after the start of a task, when a duplicate should be started.
+     *
+     * @param taskPrediction The prediction of the task.
+     * @return The time in nanoseconds or -1, if the task should not be hedged.
+     */
+    public long hedgeAfter(TaskPrediction<?> taskPrediction) {
+        double after = taskPrediction.duration + rmseFactor * rootMeanSquaredError;
+        if (taskPrediction.duration < 0 || Double.isNaN(after) || after >= Long.MAX_VALUE) {
+            return -1; // Unknown duration or never
+        }
+        return (long) Math.max(0, after);
+    }
+
+    /**
+     * Get the statistics of the tasks run with this policy.
+     *
+     * @return The statistics.
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Statistics of the tasks run with one {@link HedgingPolicy}.
+     */
+    public static class Stats {
+        /**
+         * Number of recent latencies kept to compute percentiles.
+         */
+        private static final int LATENCY_WINDOW = 4096;
+
+        private final AtomicLong tasks = new AtomicLong();
+        private final AtomicLong hedged = new AtomicLong();
+        private final AtomicLong hedgesWon = new AtomicLong();
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int latencyCount = 0;
+
+        /**
+         * Record a task, that finished.
+         *
+         * @param latency The time from entering the load balancer until the result arrived in nanoseconds.
+         */
+        public void completed(long latency) {
+            long index = tasks.getAndIncrement();
+            synchronized (latencies) {
+                latencies[(int) (index % LATENCY_WINDOW)] = latency;
+                latencyCount = (int) Math.min(LATENCY_WINDOW, latencyCount + 1L);
+            }
+        }
+
+        /**
+         * Record a duplicate started for a straggling task.
+         */
+        public void hedged() {
+            hedged.incrementAndGet();
+        }
+
+        /**
+         * Record a duplicate, that finished before the original execution.
+         */
+        public void hedgeWon() {
+            hedgesWon.incrementAndGet();
+        }
+
+        /**
+         * Get the number of tasks finished.
+         *
+         * @return The number of tasks.
+         */
+        public long getTasks() {
+            return tasks.get();
+        }
+
+        /**
+         * Get the number of duplicates started.
+         *
+         * @return The number of duplicates.
+         */
+        public long getHedged() {
+            return hedged.get();
+        }
+
+        /**
+         * Get the number of duplicates, that finished first. Each of them saved at least the time between its own
+         * result and the result the original execution would have had.
+         *
+         * @return The number of duplicates, that won.
+         */
+        public long getHedgesWon() {
+            return hedgesWon.get();
+        }
+
+        /**
+         * Get a percentile of the latencies of the recently finished tasks.
+         *
+         * @param percentile The percentile between 0 and 100, e.g. 99 for the tail latency.
+         * @return The latency in nanoseconds or -1, if no task finished yet.
+         */
+        public long getLatencyPercentile(double percentile) {
+            long[] sorted;
+            synchronized (latencies) {
+                sorted = Arrays.copyOf(latencies, latencyCount);
+            }
+            if (sorted.length == 0) {
+                return -1;
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("tasks=%d, hedged=%d, won=%d, p50=%dns, p99=%dns", getTasks(), getHedged(),
+                    getHedgesWon(), getLatencyPercentile(50), getLatencyPercentile(99));
+        }
+    }
+}
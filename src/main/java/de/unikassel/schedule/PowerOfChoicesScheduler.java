@@ -0,0 +1,290 @@
+package de.unikassel.schedule;
+
+import de.unikassel.schedule.data.TaskPrediction;
+import de.unikassel.util.serialization.RemoteCallable;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A scheduler, that only compares a few randomly sampled workers instead of all of them, so the time to schedule a
+ * task does not grow with the number of workers.
+ *
+ * <p>Out of the sampled workers, the one predicted to complete the task first is chosen. Tasks run in parallel on a
+ * worker, as long as their predicted shares of its CPU ({@code resourcePrediction[0]}) add up to at most the whole
+ * CPU. Tasks without a resource prediction take the whole CPU. Workers are sampled proportionally to their capacity,
+ * e.g. their number of cores, using an alias table, that is only rebuilt once the set of workers changes or about
+ * every {@code n} tasks for {@code n} workers.</p>
+ */
+public class PowerOfChoicesScheduler implements Scheduler {
+
+    /**
+     * The default number of workers to compare per task.
+     */
+    public static final int DEFAULT_CHOICES = 2;
+
+    private final int choices;
+    private final ToDoubleFunction<InetSocketAddress> capacity;
+    private final Random random = new Random();
+
+    /**
+     * Tolerance for the sum of the CPU shares of the tasks on a worker.
+     */
+    private static final double EPSILON = 1e-9;
+
+    private final HashMap<InetSocketAddress, List<TaskPrediction<?>>> unfinishedPerWorker = new HashMap<>();
+
+    /**
+     * The workers to sample from and the alias table of their capacities.
+     */
+    private InetSocketAddress[] candidates;
+    private AliasTable aliasTable;
+    private int scheduledSinceRebuild;
+
+    /**
+     * Create a new scheduler, that compares two workers of equal capacity.
+     */
+    public PowerOfChoicesScheduler() {
+        this(DEFAULT_CHOICES);
+    }
+
+    /**
+     * Create a new scheduler for workers of equal capacity.
+     *
+     * @param choices The number of workers to compare per task.
+     */
+    public PowerOfChoicesScheduler(int choices) {
+        this(choices, worker -> 1);
+    }
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param choices  The number of workers to compare per task.
+     * @param capacity Function to get the capacity of a worker, relative to the others. Called for all workers
+     *                 whenever the alias table is rebuilt, i.e. when the set of workers changed and about every
+     *                 {@code n} tasks for {@code n} workers.
+     */
+    public PowerOfChoicesScheduler(int choices, ToDoubleFunction<InetSocketAddress> capacity) {
+        if (choices < 1) {
+            throw new IllegalArgumentException("Need at least one choice");
+        }
+        this.choices = choices;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized <T> TaskPrediction<T> schedule(RemoteCallable<T> task, double timePrediction,
+                                                       double[] resourcePrediction, Set<InetSocketAddress> workers) {
+        if (workers.isEmpty()) {
+            return null;
+        }
+        double now = System.nanoTime();
+
+        InetSocketAddress[] sampled = this.sample(workers);
+
+        // Choose the sampled worker, that has enough of its CPU free first, since the task takes the same time on
+        // all of them
+        double share = cpuShare(resourcePrediction);
+        InetSocketAddress worker = null;
+        double time = Double.MAX_VALUE;
+        TaskPrediction<?> startAfter = null;
+        for (InetSocketAddress currentWorker : sampled) {
+            if (currentWorker == null) {
+                break;
+            }
+            TaskPrediction<?> waitFor = waitFor(
+                    unfinishedPerWorker.getOrDefault(currentWorker, Collections.emptyList()), share);
+            double freeAt = waitFor == null ? now : Math.max(now, end(waitFor));
+            if (freeAt < time) {
+                time = freeAt;
+                worker = currentWorker;
+                startAfter = waitFor;
+            }
+        }
+
+        TaskPrediction<T> taskPrediction = new TaskPrediction<>(
+                task, time, timePrediction, worker, resourcePrediction, startAfter
+        );
+        unfinishedPerWorker.computeIfAbsent(worker, w -> new ArrayList<>()).add(taskPrediction);
+        return taskPrediction;
+    }
+
+    @Override
+    public synchronized void finished(TaskPrediction<?> taskPrediction) {
+        List<TaskPrediction<?>> unfinished = unfinishedPerWorker.get(taskPrediction.worker);
+        if (unfinished != null && unfinished.remove(taskPrediction) && unfinished.isEmpty()) {
+            unfinishedPerWorker.remove(taskPrediction.worker); // Do not keep workers, that were removed
+        }
+    }
+
+    /**
+     * Find the task to wait for, until a worker has enough of its CPU free for a new task. All unfinished tasks are
+     * assumed to take their share from now until their predicted end, even if they were not started yet.
+     *
+     * @param unfinished The unfinished tasks of the worker.
+     * @param share      The share of the CPU the new task takes.
+     * @return The task, whose end leaves enough of the CPU free, or null, if there is enough free already.
+     */
+    private static TaskPrediction<?> waitFor(List<TaskPrediction<?>> unfinished, double share) {
+        double used = 0;
+        for (TaskPrediction<?> task : unfinished) {
+            used += cpuShare(task.resources);
+        }
+        if (used + share <= 1 + EPSILON) {
+            return null;
+        }
+        List<TaskPrediction<?>> byEnd = new ArrayList<>(unfinished);
+        byEnd.sort(Comparator.comparingDouble(PowerOfChoicesScheduler::end));
+        for (TaskPrediction<?> task : byEnd) {
+            used -= cpuShare(task.resources);
+            if (used + share <= 1 + EPSILON) {
+                return task;
+            }
+        }
+        return byEnd.get(byEnd.size() - 1); // Only due to rounding errors
+    }
+
+    private static double end(TaskPrediction<?> task) {
+        return task.time + Math.max(0, task.duration);
+    }
+
+    /**
+     * Get the share of the CPU of a worker a task takes.
+     *
+     * @param resources The predicted resources of the task.
+     * @return The share or 1, if the task was not predicted to take less than the whole CPU.
+     */
+    private static double cpuShare(double[] resources) {
+        if (resources == null || resources.length == 0 || !(resources[0] >= 0)) {
+            return 1;
+        }
+        return Math.min(1, resources[0]);
+    }
+
+    /**
+     * Sample up to {@link PowerOfChoicesScheduler#choices} different workers.
+     *
+     * @return The workers, followed by nulls, if fewer were found.
+     */
+    private InetSocketAddress[] sample(Set<InetSocketAddress> workers) {
+        InetSocketAddress[] sampled = new InetSocketAddress[Math.min(this.choices, workers.size())];
+        if (sampled.length == workers.size()) {
+            return workers.toArray(sampled); // Compare all of them anyway
+        }
+        if (this.candidates == null || this.candidates.length != workers.size()
+                || this.scheduledSinceRebuild >= this.candidates.length) {
+            this.rebuild(workers);
+        }
+        ++this.scheduledSinceRebuild;
+
+        int found = 0;
+        for (int attempt = 0; found < sampled.length && attempt < 2 * sampled.length; ++attempt) {
+            InetSocketAddress worker = this.candidates[this.aliasTable.next(this.random)];
+            if (!workers.contains(worker)) {
+                // The workers changed since the table was built
+                this.rebuild(workers);
+                found = 0;
+                continue;
+            }
+            if (!contains(sampled, found, worker)) {
+                sampled[found++] = worker; // Workers with a high capacity may be drawn more than once
+            }
+        }
+        if (found == 0) {
+            sampled[0] = workers.iterator().next(); // Only rebuilt the table
+        }
+        return sampled;
+    }
+
+    private static boolean contains(InetSocketAddress[] sampled, int length, InetSocketAddress worker) {
+        for (int i = 0; i < length; ++i) {
+            if (sampled[i].equals(worker)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build the alias table of the capacities of the workers.
+     */
+    private void rebuild(Set<InetSocketAddress> workers) {
+        this.candidates = workers.toArray(new InetSocketAddress[0]);
+        double[] weights = new double[this.candidates.length];
+        for (int i = 0; i < weights.length; ++i) {
+            weights[i] = this.capacity.applyAsDouble(this.candidates[i]);
+        }
+        this.aliasTable = new AliasTable(weights);
+        this.scheduledSinceRebuild = 0;
+    }
+
+    /**
+     * Alias table to draw indices proportionally to their weights in constant time (Vose's method).
+     */
+    static class AliasTable {
+        final double[] probability;
+        final int[] alias;
+
+        /**
+         * Build the table.
+         *
+         * @param weights The weights of the indices. Negative weights count as 0. If all of them are 0, the indices
+         *                are drawn uniformly.
+         */
+        AliasTable(double[] weights) {
+            int n = weights.length;
+            this.probability = new double[n];
+            this.alias = new int[n];
+
+            double[] scaled = new double[n];
+            double total = 0;
+            for (int i = 0; i < n; ++i) {
+                scaled[i] = Math.max(0, weights[i]);
+                total += scaled[i];
+            }
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int i = 0; i < n; ++i) {
+                scaled[i] = total > 0 ? scaled[i] * n / total : 1; // Sample uniformly, if no capacity is known
+                if (scaled[i] < 1) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+                this.probability[less] = scaled[less];
+                this.alias[less] = more;
+                scaled[more] += scaled[less] - 1;
+                if (scaled[more] < 1) {
+                    small[smallCount++] = more;
+                } else {
+                    large[largeCount++] = more;
+                }
+            }
+            while (largeCount > 0) {
+                this.probability[large[--largeCount]] = 1;
+            }
+            while (smallCount > 0) {
+                this.probability[small[--smallCount]] = 1; // Only left due to rounding errors
+            }
+        }
+
+        /**
+         * Draw an index.
+         *
+         * @param random The source of randomness.
+         * @return The index.
+         */
+        int next(Random random) {
+            int index = random.nextInt(this.probability.length);
+            return random.nextDouble() < this.probability[index] ? index : this.alias[index];
+        }
+    }
+}
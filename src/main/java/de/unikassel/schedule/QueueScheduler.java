@@ -6,17 +6,42 @@ import de.unikassel.util.serialization.RemoteCallable;
 
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.function.IntConsumer;
 
 public class QueueScheduler implements Scheduler {
 
     private final Function<InetSocketAddress, WorkerResources> getCurrentFreeResources;
+    /**
+     * The view to report started and finished tasks to or null, if the resources are requested directly.
+     */
+    private final ResourceView resourceView;
 
     private final LinkedHashSet<TaskPrediction<?>> waiting = new LinkedHashSet<>();
     private final LinkedHashSet<TaskPrediction<?>> processed = new LinkedHashSet<>();
 
+    /**
+     * The predicted changes of the free resources per worker, updated whenever a task is scheduled, started or
+     * finished, instead of being recomputed from all tasks on every call.
+     */
+    private final HashMap<InetSocketAddress, ResourceTimeline> timelines = new HashMap<>();
+
+    /**
+     * Timeline of the workers without any tasks, only read.
+     */
+    private static final ResourceTimeline EMPTY_TIMELINE = new ResourceTimeline();
+
+    /**
+     * The default work of a search, i.e. the number of workers times the depth of their timelines, from which on
+     * the workers are searched in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_SEARCH_THRESHOLD = 256;
+
+    private ForkJoinPool parallelSearchPool = ForkJoinPool.commonPool();
+    private int parallelSearchThreshold = DEFAULT_PARALLEL_SEARCH_THRESHOLD;
+
     /**
      * Create a new queue-based scheduler.
      *
@@ -24,8 +49,35 @@ public class QueueScheduler implements Scheduler {
      */
     public QueueScheduler(Function<InetSocketAddress, WorkerResources> getCurrentFreeResources) {
         this.getCurrentFreeResources = getCurrentFreeResources;
+        this.resourceView = null;
     }
 
+    /**
+     * Create a new queue-based scheduler, that reads the resources from snapshots and adjusts them by the tasks it
+     * started or finished since.
+     *
+     * @param resourceView The snapshots of the resources of the worker-nodes.
+     */
+    public QueueScheduler(ResourceView resourceView) {
+        this.getCurrentFreeResources = resourceView;
+        this.resourceView = resourceView;
+    }
+
+    /**
+     * Set how to search the workers for the earliest slot in parallel. Small clusters with short queues are searched
+     * by the scheduling thread only, since splitting the search costs more than it saves.
+     *
+     * <p>Only the timelines are searched in parallel. The resources of the workers are requested by the scheduling
+     * thread beforehand, so a blocking function does not occupy the threads of the pool.</p>
+     *
+     * @param pool      The pool to search in or null, to always search sequentially.
+     * @param threshold The number of workers times the depth of their timelines, from which on to search in
+     *                  parallel.
+     */
+    public synchronized void setParallelSearch(ForkJoinPool pool, int threshold) {
+        this.parallelSearchPool = pool;
+        this.parallelSearchThreshold = threshold;
+    }
 
     @Override
     public synchronized <T> TaskPrediction<T> schedule(RemoteCallable<T> task,
@@ -34,125 +86,152 @@ public class QueueScheduler implements Scheduler {
 
         long currentTime = System.nanoTime();
 
-        // Create a map, accessed by the worker, that holds all changes of this worker with accumulated values
-        Map<InetSocketAddress, TreeMap<Double, WorkerResources>> totalWorkerResources
-                = workers.stream().collect(Collectors
-                .toMap(
-                        w -> w,
-                        w -> new TreeMap<>(Double::compareTo)
-                ));
-
-        // Get the currently free resources per worker
-        for (InetSocketAddress worker : workers) {
-            WorkerResources res = getCurrentFreeResources.apply(worker);
-            currentTime = Math.max(currentTime, (long) res.timestamp);
-
-            totalWorkerResources.get(worker).put(res.timestamp, res);
-        }
-
-        // A change happens, whenever a task starts or ends
-        TreeMap<Double, WorkerResources> allChanges = new TreeMap<>(Double::compare);
-        for (TaskPrediction<?> taskWaiting : this.waiting) {
-            allChanges.putAll(predictions(taskWaiting, false, currentTime)); // Waiting will start and end
+        InetSocketAddress[] candidates = workers.toArray(new InetSocketAddress[0]);
+        ResourceTimeline[] candidateTimelines = new ResourceTimeline[candidates.length];
+        for (int i = 0; i < candidates.length; ++i) {
+            candidateTimelines[i] = this.timelines.getOrDefault(candidates[i], EMPTY_TIMELINE);
         }
-        for (TaskPrediction<?> processedTask : this.processed) {
-            allChanges.putAll(predictions(processedTask, true, currentTime)); // Processed tasks already started and will end
+        boolean parallel = this.isWorthParallelizing(candidates.length);
+
+        // Get the currently free resources per worker. Not in parallel, since the function may block, which would
+        // starve the pool
+        WorkerResources[] currentResources = new WorkerResources[candidates.length];
+        for (int i = 0; i < candidates.length; ++i) {
+            currentResources[i] = getCurrentFreeResources.apply(candidates[i]);
+            currentTime = Math.max(currentTime, (long) currentResources[i].timestamp);
         }
 
-        // Add all scheduled changes to the worker, on which each task will be executed
-        for (Map.Entry<Double, WorkerResources> change : allChanges.entrySet()) {
-
-            // Get values of the change
-            Double time = change.getKey();
-            InetSocketAddress worker = change.getValue().workerAddress;
-            double[] res = change.getValue().resources;
-            TaskPrediction<?> prediction = change.getValue().taskPrediction;
-
-            // Access the previously inserted value
-            double[] previousResources = totalWorkerResources.get(worker).lastEntry().getValue().resources;
-
-            // Apply the change
-            double[] simulatedResources = add(previousResources, res);
-
-            // Remember the value
-            totalWorkerResources.get(worker).put(time, new WorkerResources(time, worker,
-                    simulatedResources, prediction));
+        // Find the earliest slot with enough resources on the timeline of each worker
+        double now = currentTime;
+        ResourceTimeline.Slot[] slots = new ResourceTimeline.Slot[candidates.length];
+        this.forEach(candidates.length, parallel, i -> slots[i] = candidateTimelines[i].earliestFit(now,
+                currentResources[i].resources, resourcePrediction, timePrediction));
+
+        InetSocketAddress bestWorker = null;
+        ResourceTimeline.Slot best = null;
+        for (int i = 0; i < candidates.length; ++i) {
+            if (slots[i] != null && (best == null || slots[i].time < best.time)) {
+                bestWorker = candidates[i];
+                best = slots[i];
+            }
+        }
+        if (best == null) {
+            // No match was found. This may only occur, if no worker has enough resources, even if this is the only
+            // task -> the task was not scheduled
+            return null;
         }
 
-        // Flatten all collected information in a list of WorkerResources
-        WorkerResources[] resources = totalWorkerResources.entrySet().stream()
-                .flatMap(eOuter -> eOuter.getValue().values().stream()
-                ).toArray(WorkerResources[]::new);
-
-        // Sort by timestamp
-        Arrays.sort(resources, Comparator.comparingDouble(a -> a.timestamp));
-
-        for (int i = 0; i < resources.length; ++i) {
-            // A time and worker, this task might be scheduled at
-            WorkerResources current = resources[i];
-            for (int j = i; j < resources.length; ++j) {
-                // All changes following current, starting with current itself
-                WorkerResources next = resources[j];
-
-                if (next.workerAddress.equals(current.workerAddress) // Is this our worker?
-                        && !lessEqual(resourcePrediction, next.resources)) {
-                    break; // Some other task will take the required resources -> no match
-                }
-                if (timePrediction > next.timestamp - current.timestamp && j + 1 < resources.length) {
-                    continue; // Resources are still available, but this might change later -> proceed to check
-                }
-
-                // We found a match -> schedule task here!
-                TaskPrediction<T> scheduled =
-                        new TaskPrediction<T>(task, Math.max(current.timestamp, currentTime) + 1L,
-                        timePrediction, current.workerAddress, resourcePrediction, current.taskPrediction);
+        // We found a match -> schedule task here!
+        TaskPrediction<T> scheduled = new TaskPrediction<T>(task, Math.max(best.time, currentTime),
+                timePrediction, bestWorker, resourcePrediction, best.after);
 
-                waiting.add(scheduled); // Remember
-                return scheduled;
-            }
-        }
-        // No match was found. This may only occur, if no worker has enough resources, even if this is the only task
-        // -> the task was not scheduled
-        return null;
+        waiting.add(scheduled); // Remember
+        this.timeline(bestWorker).reserve(scheduled);
+        return scheduled;
     }
 
     @Override
     public synchronized void started(TaskPrediction<?> taskPrediction) {
-        this.waiting.remove(taskPrediction);
-        this.processed.add(taskPrediction);
+        if (this.waiting.remove(taskPrediction)) {
+            this.processed.add(taskPrediction);
+            this.timeline(taskPrediction.worker).started(taskPrediction);
+            if (this.resourceView != null) {
+                this.resourceView.started(taskPrediction);
+            }
+        }
 //        System.out.println("\t\t started: " + taskPrediction.hashCode());
     }
 
     @Override
     public synchronized void finished(TaskPrediction<?> taskPrediction) {
-        this.processed.remove(taskPrediction);
+        this.forget(taskPrediction);
 //        System.out.println("\t\t finished: " + taskPrediction.hashCode());
     }
 
-    private Map<Double, WorkerResources> predictions(TaskPrediction<?> task, boolean started, long currentTime) {
-        HashMap<Double, WorkerResources> map = new HashMap<>();
-        // If task started already, skip this step
-        double timeStart = task.time;
-        if (!started) {
-            timeStart = Math.max(timeStart, currentTime + 1L);
-            // When the task starts, it takes the required resources
-            map.put(timeStart, new WorkerResources(timeStart, task.worker, negative(task.resources), task));
+    @Override
+    public synchronized void cancelled(TaskPrediction<?> taskPrediction) {
+        this.forget(taskPrediction);
+    }
+
+    @Override
+    public synchronized void removed(InetSocketAddress worker) {
+        if (this.resourceView != null) {
+            this.resourceView.forget(worker);
+        }
+    }
+
+    private void forget(TaskPrediction<?> taskPrediction) {
+        boolean started;
+        if (this.waiting.remove(taskPrediction)) {
+            started = false;
+        } else if (this.processed.remove(taskPrediction)) {
+            started = true;
+        } else {
+            return; // Not scheduled by this scheduler or already forgotten
         }
-        double timeEnd = Math.max(timeStart + task.duration, currentTime + 1L);
-        // When it finishes, the resources become available again
-        map.put(timeEnd, new WorkerResources(timeEnd, task.worker, task.resources, task));
-        return map;
+        ResourceTimeline timeline = this.timelines.get(taskPrediction.worker);
+        timeline.release(taskPrediction, started);
+        if (started && this.resourceView != null) {
+            this.resourceView.finished(taskPrediction);
+        }
+        if (timeline.isEmpty()) {
+            this.timelines.remove(taskPrediction.worker); // Do not keep workers, that were removed
+        }
+    }
+
+    /**
+     * Estimate the work of a search by the number of workers times the depth of their timelines.
+     */
+    private boolean isWorthParallelizing(int workerCount) {
+        if (this.parallelSearchPool == null || this.parallelSearchPool.getParallelism() < 2 || workerCount < 2) {
+            return false;
+        }
+        int tasksPerWorker = (this.waiting.size() + this.processed.size()) / workerCount;
+        int depth = 33 - Integer.numberOfLeadingZeros(tasksPerWorker + 1); // About log2 of the changes per worker
+        return (long) workerCount * depth >= this.parallelSearchThreshold;
     }
 
-    private double[] negative(double[] positive) {
-        return Arrays.stream(positive).map(d -> -d).toArray();
+    private void forEach(int count, boolean parallel, IntConsumer action) {
+        if (parallel) {
+            this.parallelSearchPool.invoke(new ForEach(action, 0, count));
+        } else {
+            for (int i = 0; i < count; ++i) {
+                action.accept(i);
+            }
+        }
     }
 
-    private double[] add(double[] a, double[] b) {
-        return IntStream.range(0, a.length).mapToDouble(i -> a[i] + b[i]).toArray();
+    /**
+     * Runs an action for a range of indices, splitting it into halves until they are small enough.
+     */
+    private static class ForEach extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int GRANULARITY = 8;
+
+        private final IntConsumer action;
+        private final int from;
+        private final int to;
+
+        ForEach(IntConsumer action, int from, int to) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRANULARITY) {
+                for (int i = from; i < to; ++i) {
+                    action.accept(i);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ForEach(action, from, middle), new ForEach(action, middle, to));
+            }
+        }
     }
 
-    private boolean lessEqual(double[] a, double[] b) {
-        return IntStream.range(0, a.length).allMatch(i -> a[i] <= b[i]);
+    private ResourceTimeline timeline(InetSocketAddress worker) {
+        return this.timelines.computeIfAbsent(worker, w -> new ResourceTimeline());
     }
 }
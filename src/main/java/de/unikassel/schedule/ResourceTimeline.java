@@ -0,0 +1,456 @@
+package de.unikassel.schedule;
+
+import de.unikassel.schedule.data.TaskPrediction;
+
+import java.util.*;
+
+/**
+ * The predicted changes of the free resources of a single worker, i.e. the starts and ends of the tasks scheduled on
+ * it, kept in a treap ordered by time.
+ *
+ * <p>Every node stores the sum and the minimal and maximal prefix sums of the changes in its subtree per resource, so
+ * adding or removing a task, finding the first moment the free resources fall below a requirement and finding the
+ * first moment a resource suffices again all take logarithmic time. The currently free resources are only known
+ * when scheduling, so they are passed as a baseline to the queries and all changes are stored relative to it.</p>
+ *
+ * <p>Queries only change the timeline they are run on, so the timelines of different workers can be searched in
+ * parallel.</p>
+ */
+class ResourceTimeline {
+
+    /**
+     * Stands for all resources instead of a single one.
+     */
+    private static final int ANY = -1;
+
+    private final Random priorities = new Random();
+
+    private Node root;
+
+    /**
+     * The interval each task is stored with, which is later than predicted for tasks, that did not start in time.
+     */
+    private final HashMap<TaskPrediction<?>, Interval> intervals = new HashMap<>();
+    /**
+     * The tasks, that were not started yet, by the time they are stored to start at.
+     */
+    private final TreeSet<Interval> unstarted = new TreeSet<>(Comparator.<Interval>comparingDouble(i -> i.start)
+            .thenComparingLong(i -> i.order));
+    private long stored;
+
+    /**
+     * The point in time a task can start at.
+     */
+    static class Slot {
+        /**
+         * The time the task can start at.
+         */
+        final double time;
+        /**
+         * The task, whose start or end allows the task to start or null, if it can start right away.
+         */
+        final TaskPrediction<?> after;
+
+        private Slot(double time, TaskPrediction<?> after) {
+            this.time = time;
+            this.after = after;
+        }
+    }
+
+    /**
+     * Add a task, that was scheduled, but not started yet. It takes its resources at its start and returns them at
+     * its end.
+     *
+     * @param task The scheduled task.
+     */
+    void reserve(TaskPrediction<?> task) {
+        this.store(task, task.time, task.time + task.duration);
+    }
+
+    /**
+     * Remove the start of a task, since the measured free resources include it once it runs.
+     *
+     * @param task The started task.
+     */
+    void started(TaskPrediction<?> task) {
+        Interval interval = this.intervals.get(task);
+        if (interval != null && this.unstarted.remove(interval)) {
+            this.root = this.delete(this.root, interval.start, task.resources, -1, task);
+        }
+    }
+
+    /**
+     * Remove all remaining changes of a task, that finished or was cancelled.
+     *
+     * @param task    The task.
+     * @param started Whether the start was removed already.
+     */
+    void release(TaskPrediction<?> task, boolean started) {
+        Interval interval = this.intervals.remove(task);
+        if (interval == null) {
+            return;
+        }
+        if (!started && this.unstarted.remove(interval)) {
+            this.root = this.delete(this.root, interval.start, task.resources, -1, task);
+        }
+        this.root = this.delete(this.root, interval.end, task.resources, 1, task);
+    }
+
+    private void store(TaskPrediction<?> task, double start, double end) {
+        Interval interval = new Interval(task, start, end, this.stored++);
+        this.intervals.put(task, interval);
+        this.unstarted.add(interval);
+        this.root = this.insert(this.root, start, task.resources, -1, task);
+        this.root = this.insert(this.root, end, task.resources, 1, task);
+    }
+
+    /**
+     * Move the tasks, that should have started before a time, but did not, to start at this time, since they still
+     * take their resources for their whole duration once they start.
+     */
+    private void postponeOverdue(double now) {
+        while (!this.unstarted.isEmpty() && this.unstarted.first().start < now) {
+            Interval overdue = this.unstarted.pollFirst();
+            TaskPrediction<?> task = overdue.task;
+            this.root = this.delete(this.root, overdue.start, task.resources, -1, task);
+            this.root = this.delete(this.root, overdue.end, task.resources, 1, task);
+            // Ends after the time, even without a duration, so it does not look finished
+            this.store(task, now, Math.max(now + task.duration, Math.nextUp(now)));
+        }
+    }
+
+    boolean isEmpty() {
+        return this.root == null;
+    }
+
+    /**
+     * Find the earliest time a task can start at, so that it has the required resources during its whole duration.
+     * Tasks, that should have started before the current time, but did not, are moved to start at the current time
+     * first. All other changes predicted for the past are treated as if they already happened.
+     *
+     * @param now       The current time.
+     * @param baseline  The resources free at the moment.
+     * @param required  The resources the task requires.
+     * @param duration  The predicted duration of the task.
+     * @return The slot or null, if the resources will never suffice.
+     */
+    Slot earliestFit(double now, double[] baseline, double[] required, double duration) {
+        // Compare the changes against the part of the requirement, that is not covered by the baseline
+        double[] needed = new double[required.length];
+        for (int i = 0; i < needed.length; ++i) {
+            needed[i] = required[i] - baseline[i];
+        }
+
+        this.postponeOverdue(now);
+
+        double time = now;
+        TaskPrediction<?> after = null;
+        double[] free = this.prefix(now, needed.length);
+        while (true) {
+            int lacking = lacking(free, needed);
+            if (lacking != ANY) {
+                // This resource is taken at this point -> jump to the first change returning enough of it
+                Node next = this.first(this.root, new double[needed.length], time, lacking, needed, free);
+                if (next == null) {
+                    return null;
+                }
+                time = next.time;
+                after = endingAt(next);
+                continue;
+            }
+            Node conflict = this.first(this.root, new double[needed.length], time, ANY, needed, free);
+            if (conflict == null || conflict.time >= time + duration) {
+                return new Slot(time, after);
+            }
+            time = conflict.time; // free holds the resources at the conflict
+        }
+    }
+
+    /**
+     * Get a task ending at a node, since only ends return resources. Tasks starting at the same time are merged into
+     * the node as well.
+     */
+    private TaskPrediction<?> endingAt(Node node) {
+        for (int i = node.tasks.size() - 1; i >= 0; --i) {
+            Interval interval = this.intervals.get(node.tasks.get(i));
+            if (interval.end == node.time && interval.start != node.time) {
+                return interval.task;
+            }
+        }
+        return node.tasks.get(node.tasks.size() - 1);
+    }
+
+    /**
+     * Get a resource, that is not sufficient.
+     *
+     * @return Its index or {@link ResourceTimeline#ANY}, if all are sufficient.
+     */
+    private static int lacking(double[] free, double[] needed) {
+        for (int i = 0; i < needed.length; ++i) {
+            if (free[i] < needed[i]) {
+                return i;
+            }
+        }
+        return ANY;
+    }
+
+    /**
+     * Sum up all changes up to and including a time.
+     */
+    private double[] prefix(double time, int dimensions) {
+        double[] sum = new double[dimensions];
+        Node node = this.root;
+        while (node != null) {
+            if (node.time <= time) {
+                add(sum, node.left == null ? null : node.left.sum);
+                add(sum, node.delta);
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Find the first change after a time, that leaves less than the needed resources of any kind, if the resource is
+     * {@link ResourceTimeline#ANY}, or enough of the given resource otherwise.
+     *
+     * @param offset The sum of all changes before the subtree.
+     * @param free   Is set to the changes up to the returned node.
+     */
+    private Node first(Node node, double[] offset, double time, int resource, double[] needed, double[] free) {
+        while (node != null && node.time <= time) {
+            add(offset, node.left == null ? null : node.left.sum);
+            add(offset, node.delta);
+            node = node.right;
+        }
+        if (node == null) {
+            return null;
+        }
+        // The node and its right subtree are after the time, the left subtree only partially
+        double[] beforeNode = offset.clone();
+        add(beforeNode, node.left == null ? null : node.left.sum);
+        Node found = this.first(node.left, offset, time, resource, needed, free);
+        if (found != null) {
+            return found;
+        }
+        add(beforeNode, node.delta);
+        if (matches(beforeNode, resource, needed)) {
+            System.arraycopy(beforeNode, 0, free, 0, free.length);
+            return node;
+        }
+        return this.firstWithin(node.right, beforeNode, resource, needed, free);
+    }
+
+    /**
+     * Like {@link ResourceTimeline#first}, but for a subtree completely after the time.
+     */
+    private Node firstWithin(Node node, double[] offset, int resource, double[] needed, double[] free) {
+        if (node == null || !contains(node, offset, resource, needed)) {
+            return null;
+        }
+        while (true) {
+            if (node.left != null && contains(node.left, offset, resource, needed)) {
+                node = node.left;
+                continue;
+            }
+            add(offset, node.left == null ? null : node.left.sum);
+            add(offset, node.delta);
+            if (matches(offset, resource, needed)) {
+                System.arraycopy(offset, 0, free, 0, free.length);
+                return node;
+            }
+            node = node.right; // It must be here
+        }
+    }
+
+    private static boolean matches(double[] free, int resource, double[] needed) {
+        return resource == ANY ? lacking(free, needed) != ANY : free[resource] >= needed[resource];
+    }
+
+    /**
+     * Check whether any node of a subtree matches, using the minimal or maximal prefix sums of the subtree.
+     */
+    private static boolean contains(Node node, double[] offset, int resource, double[] needed) {
+        if (resource != ANY) {
+            return offset[resource] + node.maxPrefix[resource] >= needed[resource];
+        }
+        for (int i = 0; i < needed.length; ++i) {
+            if (offset[i] + node.minPrefix[i] < needed[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void add(double[] sum, double[] values) {
+        if (values != null) {
+            for (int i = 0; i < sum.length; ++i) {
+                sum[i] += values[i];
+            }
+        }
+    }
+
+    private Node insert(Node node, double time, double[] resources, int sign, TaskPrediction<?> task) {
+        if (node == null) {
+            node = new Node(time, resources.length, this.priorities.nextInt());
+            node.change(resources, sign, task);
+            return node;
+        }
+        if (time == node.time) {
+            node.change(resources, sign, task);
+        } else if (time < node.time) {
+            node.left = this.insert(node.left, time, resources, sign, task);
+            if (node.left.priority > node.priority) {
+                return rotateRight(node);
+            }
+        } else {
+            node.right = this.insert(node.right, time, resources, sign, task);
+            if (node.right.priority > node.priority) {
+                return rotateLeft(node);
+            }
+        }
+        node.update();
+        return node;
+    }
+
+    private Node delete(Node node, double time, double[] resources, int sign, TaskPrediction<?> task) {
+        if (node == null) {
+            return null;
+        }
+        if (time < node.time) {
+            node.left = this.delete(node.left, time, resources, sign, task);
+        } else if (time > node.time) {
+            node.right = this.delete(node.right, time, resources, sign, task);
+        } else if (node.unchange(resources, sign, task) && node.tasks.isEmpty()) {
+            return merge(node.left, node.right);
+        }
+        node.update();
+        return node;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        node.update();
+        left.right = node;
+        left.update();
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        node.update();
+        right.left = node;
+        right.update();
+        return right;
+    }
+
+    private static class Interval {
+        final TaskPrediction<?> task;
+        final double start;
+        final double end;
+        /**
+         * Orders intervals starting at the same time.
+         */
+        final long order;
+
+        Interval(TaskPrediction<?> task, double start, double end, long order) {
+            this.task = task;
+            this.start = start;
+            this.end = end;
+            this.order = order;
+        }
+    }
+
+    private static class Node {
+        final double time;
+        final int priority;
+        /**
+         * The change of the free resources at this time.
+         */
+        final double[] delta;
+        /**
+         * The tasks starting or ending at this time.
+         */
+        final List<TaskPrediction<?>> tasks = new ArrayList<>(1);
+        /**
+         * The sum of all changes in the subtree.
+         */
+        final double[] sum;
+        /**
+         * The minimal sum of the changes in the subtree up to any of its nodes.
+         */
+        final double[] minPrefix;
+        /**
+         * The maximal sum of the changes in the subtree up to any of its nodes.
+         */
+        final double[] maxPrefix;
+
+        Node left;
+        Node right;
+
+        Node(double time, int dimensions, int priority) {
+            this.time = time;
+            this.priority = priority;
+            this.delta = new double[dimensions];
+            this.sum = new double[dimensions];
+            this.minPrefix = new double[dimensions];
+            this.maxPrefix = new double[dimensions];
+        }
+
+        void change(double[] resources, int sign, TaskPrediction<?> task) {
+            for (int i = 0; i < delta.length; ++i) {
+                delta[i] += sign * resources[i];
+            }
+            tasks.add(task);
+            this.update();
+        }
+
+        boolean unchange(double[] resources, int sign, TaskPrediction<?> task) {
+            if (!tasks.remove(task)) {
+                return false;
+            }
+            for (int i = 0; i < delta.length; ++i) {
+                delta[i] -= sign * resources[i];
+            }
+            return true;
+        }
+
+        void update() {
+            for (int i = 0; i < delta.length; ++i) {
+                double leftSum = left == null ? 0 : left.sum[i];
+                double atNode = leftSum + delta[i];
+                double min = left == null ? atNode : Math.min(left.minPrefix[i], atNode);
+                double max = left == null ? atNode : Math.max(left.maxPrefix[i], atNode);
+                if (right != null) {
+                    min = Math.min(min, atNode + right.minPrefix[i]);
+                    max = Math.max(max, atNode + right.maxPrefix[i]);
+                }
+                minPrefix[i] = min;
+                maxPrefix[i] = max;
+                sum[i] = atNode + (right == null ? 0 : right.sum[i]);
+            }
+        }
+    }
+}
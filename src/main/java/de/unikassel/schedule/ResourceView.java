@@ -0,0 +1,327 @@
+package de.unikassel.schedule;
+
+import de.unikassel.schedule.data.TaskPrediction;
+import de.unikassel.schedule.data.WorkerResources;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Snapshots of the free resources of the workers, refreshed in the background, so a scheduler does not have to wait
+ * for a slow source, like scraping the metrics of a worker, on every call, e.g.
+ * {@code new QueueScheduler(new ResourceView(worker -> scrape(worker)))}.
+ *
+ * <p>Between two refreshes, the snapshots are adjusted by the resources of the tasks started or finished since, as
+ * reported by the scheduler. Reading never waits for the source, except for the first snapshot of a worker. If the
+ * latest snapshot is older than the staleness bound, e.g. because the source failed, it is still used, but fetched
+ * again right away.</p>
+ */
+public class ResourceView implements Function<InetSocketAddress, WorkerResources>, AutoCloseable {
+
+    /**
+     * The default time between two refreshes of a worker.
+     */
+    public static final long DEFAULT_REFRESH_MILLIS = 250;
+    /**
+     * The default age of a snapshot, after which it is fetched again on the next read, and time to wait for the first
+     * snapshot of a worker.
+     */
+    public static final long DEFAULT_MAX_STALENESS_MILLIS = 2000;
+
+    private final Function<InetSocketAddress, WorkerResources> source;
+    private final long maxStalenessNanos;
+
+    private final ConcurrentHashMap<InetSocketAddress, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService refreshTimer;
+    /**
+     * Fetches the snapshots, so a slow worker does not delay the refreshes of the others.
+     */
+    private final ExecutorService fetchers;
+
+    /**
+     * Create a new view with the default refresh interval and staleness bound.
+     *
+     * @param source Function to request the free resources of a worker, that may block.
+     */
+    public ResourceView(Function<InetSocketAddress, WorkerResources> source) {
+        this(source, DEFAULT_REFRESH_MILLIS, DEFAULT_MAX_STALENESS_MILLIS);
+    }
+
+    /**
+     * Create a new view.
+     *
+     * @param source             Function to request the free resources of a worker, that may block.
+     * @param refreshMillis      The time between two refreshes of a worker.
+     * @param maxStalenessMillis The age of a snapshot, after which it is fetched again on the next read, and the
+     *                           time to wait for the first snapshot of a worker.
+     */
+    public ResourceView(Function<InetSocketAddress, WorkerResources> source, long refreshMillis,
+                        long maxStalenessMillis) {
+        if (refreshMillis <= 0 || maxStalenessMillis < refreshMillis) {
+            throw new IllegalArgumentException("Need 0 < refreshMillis <= maxStalenessMillis");
+        }
+        this.source = source;
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+        this.refreshTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ResourceView-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger fetcherCount = new AtomicInteger();
+        this.fetchers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ResourceView-fetch-" + fetcherCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.refreshTimer.scheduleWithFixedDelay(this::refreshAll, refreshMillis, refreshMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the free resources of a worker. Only waits for the source, if there is no snapshot of this worker yet.
+     *
+     * @param worker The worker.
+     * @return The free resources at the time of the snapshot, adjusted by the tasks started or finished since.
+     * @throws UncheckedIOException In case the first snapshot could not be fetched in time.
+     */
+    @Override
+    public WorkerResources apply(InetSocketAddress worker) {
+        Entry entry = this.entries.computeIfAbsent(worker, Entry::new);
+        Snapshot snapshot = entry.snapshot;
+        if (snapshot == null) {
+            snapshot = entry.awaitFirst();
+        } else if (System.nanoTime() - snapshot.taken > this.maxStalenessNanos) {
+            entry.refresh(); // The timer did not manage to -> use the old one meanwhile
+        }
+        return entry.adjust(snapshot);
+    }
+
+    /**
+     * Reserve the resources of a task, that started running, until the next snapshot includes them.
+     *
+     * @param taskPrediction The started task.
+     */
+    public void started(TaskPrediction<?> taskPrediction) {
+        this.adjust(taskPrediction, -1);
+    }
+
+    /**
+     * Return the resources of a task, that stopped running, until the next snapshot includes them.
+     *
+     * @param taskPrediction The task, that was started before.
+     */
+    public void finished(TaskPrediction<?> taskPrediction) {
+        this.adjust(taskPrediction, 1);
+    }
+
+    /**
+     * Stop refreshing the snapshots of a worker, e.g. because it was removed.
+     *
+     * @param worker The worker.
+     */
+    public void forget(InetSocketAddress worker) {
+        this.entries.remove(worker);
+    }
+
+    @Override
+    public void close() {
+        this.refreshTimer.shutdownNow();
+        this.fetchers.shutdownNow();
+    }
+
+    private void adjust(TaskPrediction<?> taskPrediction, int sign) {
+        Entry entry = this.entries.get(taskPrediction.worker);
+        if (entry != null && taskPrediction.resources != null) {
+            entry.adjustments.add(taskPrediction.resources, sign);
+        }
+    }
+
+    private void refreshAll() {
+        for (Entry entry : this.entries.values()) {
+            entry.refresh();
+        }
+    }
+
+    /**
+     * The free resources of a worker, as returned by the source.
+     */
+    private static class Snapshot {
+        /**
+         * The time ({@link System#nanoTime()}) the snapshot was requested.
+         */
+        final long taken;
+        final WorkerResources resources;
+
+        Snapshot(long taken, WorkerResources resources) {
+            this.taken = taken;
+            this.resources = resources;
+        }
+    }
+
+    private class Entry {
+        final InetSocketAddress worker;
+        final Adjustments adjustments = new Adjustments();
+        /**
+         * The fetch in progress or the last one, that completed.
+         */
+        final AtomicReference<CompletableFuture<Snapshot>> fetch = new AtomicReference<>();
+
+        volatile Snapshot snapshot;
+
+        Entry(InetSocketAddress worker) {
+            this.worker = worker;
+        }
+
+        /**
+         * Fetch a new snapshot in the background, unless a fetch is in progress already.
+         *
+         * @return The fetch.
+         */
+        CompletableFuture<Snapshot> refresh() {
+            CompletableFuture<Snapshot> current = this.fetch.get();
+            if (current != null && !current.isDone()) {
+                return current;
+            }
+            CompletableFuture<Snapshot> next = new CompletableFuture<>();
+            if (!this.fetch.compareAndSet(current, next)) {
+                return this.fetch.get(); // Started by another thread
+            }
+            try {
+                fetchers.execute(() -> {
+                    long now = System.nanoTime();
+                    this.adjustments.fetchStarted(now);
+                    try {
+                        Snapshot fetched = new Snapshot(now, source.apply(this.worker));
+                        this.snapshot = fetched;
+                        this.adjustments.dropBefore(now); // Included in the snapshot
+                        next.complete(fetched);
+                    } catch (RuntimeException e) {
+                        next.completeExceptionally(e); // Keep the old snapshot
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                next.completeExceptionally(e); // Closed
+            }
+            return next;
+        }
+
+        /**
+         * Wait for the first snapshot, up to the staleness bound.
+         */
+        Snapshot awaitFirst() {
+            try {
+                return this.refresh().get(maxStalenessNanos, TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new UncheckedIOException(new IOException("Could not fetch the resources of " + worker, e));
+            } catch (TimeoutException e) {
+                throw new UncheckedIOException(new IOException("No resources of " + worker + " in time", e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new IOException("Interrupted waiting for " + worker, e));
+            }
+        }
+
+        WorkerResources adjust(Snapshot snapshot) {
+            double[] free = snapshot.resources.resources.clone();
+            this.adjustments.applyAfter(snapshot.taken, free);
+            return new WorkerResources(snapshot.resources.timestamp, this.worker, free,
+                    snapshot.resources.taskPrediction);
+        }
+    }
+
+    /**
+     * The changes since the latest snapshot. Only the changes before and after the start of the latest fetch have to
+     * be told apart, so there are at most two of them, however long the source fails.
+     */
+    private static class Adjustments {
+        private final ArrayDeque<Adjustment> adjustments = new ArrayDeque<>();
+        private long fetchStarted = Long.MIN_VALUE;
+
+        synchronized void add(double[] resources, int sign) {
+            long now = System.nanoTime();
+            double[] delta = new double[resources.length];
+            for (int i = 0; i < delta.length; ++i) {
+                delta[i] = sign * resources[i];
+            }
+            Adjustment last = adjustments.peekLast();
+            if (last != null && last.time >= fetchStarted) {
+                adjustments.removeLast();
+                delta = sum(last.delta, delta);
+            }
+            adjustments.addLast(new Adjustment(now, delta));
+        }
+
+        /**
+         * Merge all changes before the start of a fetch into one, since every later snapshot includes either all or
+         * none of them.
+         */
+        synchronized void fetchStarted(long time) {
+            fetchStarted = time;
+            Adjustment merged = null;
+            while (!adjustments.isEmpty() && adjustments.peekFirst().time < time) {
+                Adjustment next = adjustments.removeFirst();
+                merged = new Adjustment(next.time, merged == null ? next.delta : sum(merged.delta, next.delta));
+            }
+            if (merged != null) {
+                adjustments.addFirst(merged);
+            }
+        }
+
+        private static double[] sum(double[] a, double[] b) {
+            double[] sum = Arrays.copyOf(a, Math.max(a.length, b.length));
+            for (int i = 0; i < b.length; ++i) {
+                sum[i] += b[i];
+            }
+            return sum;
+        }
+
+        synchronized void dropBefore(long time) {
+            while (!adjustments.isEmpty() && adjustments.peekFirst().time < time) {
+                adjustments.removeFirst();
+            }
+        }
+
+        synchronized void applyAfter(long time, double[] free) {
+            Iterator<Adjustment> newestFirst = adjustments.descendingIterator();
+            while (newestFirst.hasNext()) {
+                Adjustment adjustment = newestFirst.next();
+                if (adjustment.time < time) {
+                    break;
+                }
+                for (int i = 0; i < Math.min(adjustment.delta.length, free.length); ++i) {
+                    free[i] += adjustment.delta[i];
+                }
+            }
+        }
+    }
+
+    private static class Adjustment {
+        final long time;
+        final double[] delta;
+
+        Adjustment(long time, double[] delta) {
+            this.time = time;
+            this.delta = delta;
+        }
+    }
+}
@@ -16,4 +16,22 @@ public interface Scheduler {
 
     default void finished(TaskPrediction<?> taskPrediction) {
     }
+
+    /**
+     * Forget a task, that was cancelled before it finished, whether it was started or not.
+     *
+     * @param taskPrediction The prediction of the cancelled task.
+     */
+    default void cancelled(TaskPrediction<?> taskPrediction) {
+        this.finished(taskPrediction);
+    }
+
+    /**
+     * Forget everything kept about a worker, that was removed. Tasks already scheduled on it are still reported as
+     * started and finished.
+     *
+     * @param worker The removed worker.
+     */
+    default void removed(InetSocketAddress worker) {
+    }
 }
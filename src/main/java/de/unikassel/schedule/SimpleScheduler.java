@@ -5,61 +5,167 @@ import de.unikassel.util.serialization.RemoteCallable;
 
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.function.ToIntFunction;
 
 public class SimpleScheduler implements Scheduler {
 
-    private final HashMap<InetSocketAddress, TaskPrediction<?>> lastTaskPerWorker;
+    /**
+     * The number of tasks to run in parallel per worker.
+     */
+    private final ToIntFunction<InetSocketAddress> slotCount;
 
+    /**
+     * The number of execution lanes per worker, the slots are spread across.
+     */
+    private final ToIntFunction<InetSocketAddress> laneCount;
+
+    /**
+     * The unfinished tasks of each slot of a worker, in the order they were placed there. The last one is the task
+     * new tasks are queued behind, so cancelling it falls back to the one before.
+     */
+    private final HashMap<InetSocketAddress, List<ArrayDeque<TaskPrediction<?>>>> tasksPerSlot;
+
+    /**
+     * Create a new scheduler, that runs one task at a time per worker.
+     */
     public SimpleScheduler() {
-        lastTaskPerWorker = new HashMap<>();
+        this(1);
+    }
+
+    /**
+     * Create a new scheduler, that runs the same number of tasks in parallel on every worker.
+     *
+     * @param slots The number of tasks to run in parallel per worker.
+     */
+    public SimpleScheduler(int slots) {
+        this(worker -> slots);
+    }
+
+    /**
+     * Create a new scheduler, that runs a number of tasks in parallel per worker, e.g. one per core as announced in
+     * its heartbeats ({@code new SimpleScheduler(heartbeats::cores)}).
+     *
+     * @param slotCount Function to get the number of tasks to run in parallel on a worker or 0, if it is not known
+     *                  yet. Called whenever a task is scheduled, so it must not block. A worker has a single slot,
+     *                  while its number is not known.
+     */
+    public SimpleScheduler(ToIntFunction<InetSocketAddress> slotCount) {
+        this(slotCount, worker -> 0);
+    }
+
+    /**
+     * Create a new scheduler, that runs a number of tasks in parallel per worker and sends the tasks of each slot to
+     * the same execution lane of the worker, e.g. {@code new SimpleScheduler(heartbeats::cores, heartbeats::lanes)}.
+     * Tasks of consecutive slots are sent to consecutive lanes, so a lane has as many slots as it has cores, if there
+     * is one slot per core.
+     *
+     * @param slotCount Function to get the number of tasks to run in parallel on a worker or 0, if it is not known
+     *                  yet. Called whenever a task is scheduled, so it must not block. A worker has a single slot,
+     *                  while its number is not known.
+     * @param laneCount Function to get the number of execution lanes of a worker or 0, if it has none. Called
+     *                  whenever a task is scheduled on the worker.
+     */
+    public SimpleScheduler(ToIntFunction<InetSocketAddress> slotCount, ToIntFunction<InetSocketAddress> laneCount) {
+        this.slotCount = slotCount;
+        this.laneCount = laneCount;
+        this.tasksPerSlot = new HashMap<>();
     }
 
     @Override
     public synchronized <T> TaskPrediction<T> schedule(RemoteCallable<T> task, double timePrediction,
                                                        double[] resourcePrediction, Set<InetSocketAddress> workers) {
         InetSocketAddress worker = null;
+        int slot = -1;
         double time = Double.MAX_VALUE;
         TaskPrediction<?> startAfter = null;
 
         if (timePrediction == -1) {
-            if (workers.size() != 1) {
-                throw new IllegalStateException("Cannot run without time prediction for more than one worker");
+            // Use a free slot of any worker or queue behind the task, that was started first, in the shortest queue
+            int queued = Integer.MAX_VALUE;
+            search:
+            for (InetSocketAddress currentWorker : workers) {
+                List<ArrayDeque<TaskPrediction<?>>> slots = this.slots(currentWorker);
+                for (int i = 0; i < slots.size(); ++i) {
+                    ArrayDeque<TaskPrediction<?>> currentSlot = slots.get(i);
+                    TaskPrediction<?> slotLastTask = currentSlot.peekLast();
+                    if (slotLastTask == null) {
+                        worker = currentWorker;
+                        slot = i;
+                        startAfter = null;
+                        break search;
+                    }
+                    if (currentSlot.size() < queued
+                            || currentSlot.size() == queued && slotLastTask.time < startAfter.time) {
+                        queued = currentSlot.size();
+                        worker = currentWorker;
+                        slot = i;
+                        startAfter = slotLastTask;
+                    }
+                }
             }
-            worker = workers.iterator().next();
             time = System.nanoTime();
-            startAfter = lastTaskPerWorker.get(worker);
         } else {
-
+            // Use a free slot of any worker or the slot of all workers, that is predicted to be free first
+            search:
             for (InetSocketAddress currentWorker : workers) {
-                if (!lastTaskPerWorker.containsKey(currentWorker)) {
-                    worker = currentWorker;
-                    time = System.nanoTime();
-                    break;
-                }
-            }
-
-            if (worker == null) {
-                for (InetSocketAddress currentWorker : workers) {
-                    TaskPrediction<?> workerLastTask = lastTaskPerWorker.get(currentWorker);
-                    double freeAt = workerLastTask.time + workerLastTask.duration;
+                List<ArrayDeque<TaskPrediction<?>>> slots = this.slots(currentWorker);
+                for (int i = 0; i < slots.size(); ++i) {
+                    TaskPrediction<?> slotLastTask = slots.get(i).peekLast();
+                    if (slotLastTask == null) {
+                        worker = currentWorker;
+                        slot = i;
+                        time = System.nanoTime();
+                        startAfter = null;
+                        break search;
+                    }
+                    double freeAt = slotLastTask.time + slotLastTask.duration;
 
                     if (freeAt < time) {
                         time = freeAt;
                         worker = currentWorker;
-                        startAfter = workerLastTask;
+                        slot = i;
+                        startAfter = slotLastTask;
                     }
                 }
             }
         }
+        if (worker == null) {
+            return null; // No workers
+        }
+        int lanes = this.laneCount.applyAsInt(worker);
         TaskPrediction<T> taskPrediction = new TaskPrediction<>(
-                task, time, timePrediction, worker, resourcePrediction, startAfter
+                task, time, timePrediction, worker, resourcePrediction, startAfter,
+                lanes > 0 ? slot % lanes : TaskPrediction.ANY_LANE
         );
-        lastTaskPerWorker.put(worker, taskPrediction);
+        this.tasksPerSlot.get(worker).get(slot).addLast(taskPrediction);
         return taskPrediction;
     }
 
     @Override
     public synchronized void finished(TaskPrediction<?> taskPrediction) {
-        lastTaskPerWorker.remove(taskPrediction.worker, taskPrediction);
+        List<ArrayDeque<TaskPrediction<?>>> slots = tasksPerSlot.get(taskPrediction.worker);
+        if (slots != null) {
+            for (ArrayDeque<TaskPrediction<?>> slot : slots) {
+                if (slot.removeFirstOccurrence(taskPrediction)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the slots of a worker to place a new task in, after adapting them to its current number of slots. Slots
+     * beyond it are only kept until their tasks finished.
+     */
+    private List<ArrayDeque<TaskPrediction<?>>> slots(InetSocketAddress worker) {
+        int count = Math.max(1, slotCount.applyAsInt(worker)); // One, until the number is known
+        List<ArrayDeque<TaskPrediction<?>>> slots = tasksPerSlot.computeIfAbsent(worker, w -> new ArrayList<>(count));
+        while (slots.size() < count) {
+            slots.add(new ArrayDeque<>());
+        }
+        while (slots.size() > count && slots.get(slots.size() - 1).isEmpty()) {
+            slots.remove(slots.size() - 1);
+        }
+        return slots.subList(0, count);
     }
 }
@@ -4,6 +4,14 @@ public class ExecutionTimes {
     private long entered;
     private long started;
     private long finished;
+    /**
+     * The phases of the task on the worker or null, if they are not known.
+     */
+    private volatile PhaseTimes phaseTimes;
+    /**
+     * Whether the result was taken from the cache of a worker instead of running the task.
+     */
+    private volatile boolean cacheHit;
 
     public void entered() {
         this.entered = System.nanoTime();
@@ -17,6 +25,41 @@ public class ExecutionTimes {
         this.finished = System.nanoTime();
     }
 
+    /**
+     * Set the durations of the phases of the task on the worker, that sent the result.
+     *
+     * @param phaseTimes The times or null, if not known.
+     */
+    public void phases(PhaseTimes phaseTimes) {
+        this.phaseTimes = phaseTimes;
+    }
+
+    /**
+     * Take the phases of another execution of the same task, e.g. of a duplicate, whose result arrived first.
+     *
+     * @param other The times of the other execution.
+     */
+    public void phasesOf(ExecutionTimes other) {
+        this.phaseTimes = other.phaseTimes;
+    }
+
+    /**
+     * Mark the result as taken from the cache of a worker, so the times are not mistaken for a run of the task.
+     */
+    public void cacheHit() {
+        this.cacheHit = true;
+    }
+
+    /**
+     * Check, whether the result was taken from the cache of a worker instead of running the task. In this case,
+     * {@link ExecutionTimes#processed()} is the time of the lookup and the phases on the worker are not known.
+     *
+     * @return True, if it was a cache hit.
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
     public long waited() {
         return started - entered;
     }
@@ -28,4 +71,76 @@ public class ExecutionTimes {
     public long retention() {
         return finished - entered;
     }
+
+    /**
+     * Get the time the task was queued on the worker until a thread started running it.
+     *
+     * @return The time in nanoseconds or -1, if not known.
+     */
+    public long queuedOnWorker() {
+        PhaseTimes times = this.phaseTimes;
+        return times == null ? -1 : times.queued;
+    }
+
+    /**
+     * Get the time the worker needed to deserialize the task.
+     *
+     * @return The time in nanoseconds or -1, if not known.
+     */
+    public long deserialization() {
+        PhaseTimes times = this.phaseTimes;
+        return times == null ? -1 : times.deserialization;
+    }
+
+    /**
+     * Get the time the worker needed to lease the cgroup of the task and to return it.
+     *
+     * @return The time in nanoseconds or -1, if not known.
+     */
+    public long cgroupSetup() {
+        PhaseTimes times = this.phaseTimes;
+        return times == null ? -1 : times.cgroupSetup;
+    }
+
+    /**
+     * Get the time of the call of the task itself.
+     *
+     * @return The time in nanoseconds or -1, if not known.
+     */
+    public long computed() {
+        PhaseTimes times = this.phaseTimes;
+        return times == null ? -1 : times.call;
+    }
+
+    /**
+     * Get the time the worker needed to serialize the result.
+     *
+     * @return The time in nanoseconds or -1, if not known.
+     */
+    public long serialization() {
+        PhaseTimes times = this.phaseTimes;
+        return times == null ? -1 : times.serialization;
+    }
+
+    /**
+     * Get the time the task occupied a thread of the worker, from deserializing the task until the result was
+     * serialized.
+     *
+     * @return The time in nanoseconds or -1, if not known.
+     */
+    public long occupied() {
+        PhaseTimes times = this.phaseTimes;
+        return times == null ? -1 : times.occupied();
+    }
+
+    /**
+     * Get the part of {@link ExecutionTimes#processed()} not spent on the worker, i.e. transfer and handling of the
+     * messages.
+     *
+     * @return The time in nanoseconds or -1, if not known.
+     */
+    public long network() {
+        PhaseTimes times = this.phaseTimes;
+        return times == null ? -1 : Math.max(0, this.processed() - times.queued - times.occupied());
+    }
 }
@@ -0,0 +1,56 @@
+package de.unikassel.schedule.data;
+
+/**
+ * Durations of the phases of a task on a {@link de.unikassel.WorkerNode}.
+ *
+ * <p>Only durations are measured, since the clocks of different machines are not comparable.</p>
+ */
+public class PhaseTimes {
+
+    /**
+     * Nanoseconds from admitting the task until a thread started running it.
+     */
+    public final long queued;
+    /**
+     * Nanoseconds to deserialize the task.
+     */
+    public final long deserialization;
+    /**
+     * Nanoseconds to lease its cgroup and to return it afterwards.
+     */
+    public final long cgroupSetup;
+    /**
+     * Nanoseconds from the start until the end of the call.
+     */
+    public final long call;
+    /**
+     * Nanoseconds to serialize the result.
+     */
+    public final long serialization;
+
+    /**
+     * Create new phase times.
+     *
+     * @param queued          Nanoseconds from admitting the task until a thread started running it.
+     * @param deserialization Nanoseconds to deserialize the task.
+     * @param cgroupSetup     Nanoseconds to lease its cgroup and to return it afterwards.
+     * @param call            Nanoseconds from the start until the end of the call.
+     * @param serialization   Nanoseconds to serialize the result.
+     */
+    public PhaseTimes(long queued, long deserialization, long cgroupSetup, long call, long serialization) {
+        this.queued = queued;
+        this.deserialization = deserialization;
+        this.cgroupSetup = cgroupSetup;
+        this.call = call;
+        this.serialization = serialization;
+    }
+
+    /**
+     * Get the time the task occupied a thread of the worker, i.e. all phases but {@link PhaseTimes#queued}.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long occupied() {
+        return deserialization + cgroupSetup + call + serialization;
+    }
+}
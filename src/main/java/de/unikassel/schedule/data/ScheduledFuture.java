@@ -1,21 +1,67 @@
 package de.unikassel.schedule.data;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import de.unikassel.util.serialization.SerializedCallable;
 
-public class ScheduledFuture <T> implements Future<T> {
+import java.util.concurrent.CompletableFuture;
 
-    private final Future<T> innerFuture;
-    private final TaskPrediction<T> taskPrediction;
+/**
+ * The result of a task scheduled on a {@link de.unikassel.WorkerNode}.
+ *
+ * <p>The future is completed as soon as the result arrives, without any thread waiting for it. Continuations can be
+ * chained using the methods of {@link java.util.concurrent.CompletionStage}.</p>
+ *
+ * <p>Cancelling the future also cancels the request to the worker running the task, so the worker stops it.</p>
+ *
+ * @param <T> The type of the result.
+ */
+public class ScheduledFuture<T> extends CompletableFuture<T> {
+
+    private volatile TaskPrediction<T> taskPrediction;
 
     private final ExecutionTimes executionTimes;
 
-    public ScheduledFuture(Future<T> innerFuture, TaskPrediction<T> taskPrediction, ExecutionTimes executionTimes) {
-        this.innerFuture = innerFuture;
+    private final String memoKey;
+
+    /**
+     * The task serialized to compute its {@link ScheduledFuture#memoKey} or null, if it was not serialized yet.
+     */
+    private final SerializedCallable serialized;
+
+    /**
+     * The response of the worker currently running the task or null, if it was not sent yet.
+     */
+    private volatile CompletableFuture<?> response;
+
+    public ScheduledFuture(TaskPrediction<T> taskPrediction, ExecutionTimes executionTimes) {
+        this(taskPrediction, executionTimes, null);
+    }
+
+    /**
+     * Create a future for a task, whose result may be cached by the worker.
+     *
+     * @param taskPrediction The scheduled task.
+     * @param executionTimes The times of the execution.
+     * @param memoKey        The key to cache the result by or null, if it must not be cached.
+     */
+    public ScheduledFuture(TaskPrediction<T> taskPrediction, ExecutionTimes executionTimes, String memoKey) {
+        this(taskPrediction, executionTimes, memoKey, null);
+    }
+
+    /**
+     * Create a future for a task, whose result may be cached by the worker and that was serialized to compute the key
+     * to cache it by, so it is not serialized again to send it.
+     *
+     * @param taskPrediction The scheduled task.
+     * @param executionTimes The times of the execution.
+     * @param memoKey        The key to cache the result by or null, if it must not be cached.
+     * @param serialized     The serialized task or null, if it was not serialized yet.
+     */
+    public ScheduledFuture(TaskPrediction<T> taskPrediction, ExecutionTimes executionTimes, String memoKey,
+                           SerializedCallable serialized) {
         this.taskPrediction = taskPrediction;
         this.executionTimes = executionTimes;
+        this.memoKey = memoKey;
+        this.serialized = serialized;
     }
 
     public TaskPrediction<T> getTaskPrediction() {
@@ -26,29 +72,54 @@ public class ScheduledFuture <T> implements Future<T> {
         return executionTimes;
     }
 
-    @Override
-    public boolean cancel(boolean mayInterruptIfRunning) {
-        return innerFuture.cancel(mayInterruptIfRunning);
+    public String getMemoKey() {
+        return memoKey;
     }
 
-    @Override
-    public boolean isCancelled() {
-        return innerFuture.isCancelled();
+    public SerializedCallable getSerialized() {
+        return serialized;
     }
 
-    @Override
-    public boolean isDone() {
-        return innerFuture.isDone();
+    /**
+     * Replace the prediction of the task, once it was scheduled again, e.g. because the worker it was scheduled on
+     * rejected it.
+     *
+     * @param taskPrediction The new prediction.
+     */
+    public void rescheduledAs(TaskPrediction<T> taskPrediction) {
+        this.taskPrediction = taskPrediction;
     }
 
-    @Override
-    public T get() throws InterruptedException, ExecutionException {
-        return innerFuture.get();
+    /**
+     * Remember the response of the worker the task was sent to, so it can be cancelled.
+     *
+     * @param response The response of the worker.
+     */
+    public void runningAs(CompletableFuture<?> response) {
+        this.response = response;
+        if (this.isDone()) {
+            response.cancel(true); // Cancelled or completed by a duplicate while sending
+        }
+    }
+
+    /**
+     * Cancel the request to the worker running the task, e.g. because a duplicate of the task finished first.
+     */
+    public void cancelRunning() {
+        CompletableFuture<?> running = this.response;
+        if (running != null) {
+            running.cancel(true);
+        }
     }
 
     @Override
-    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        return innerFuture.get(timeout, unit);
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        CompletableFuture<?> running = this.response;
+        if (cancelled && running != null) {
+            running.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
     }
 
 }
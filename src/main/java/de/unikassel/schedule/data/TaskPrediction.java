@@ -5,20 +5,35 @@ import de.unikassel.util.serialization.RemoteCallable;
 import java.net.InetSocketAddress;
 
 public class TaskPrediction<T> {
+    /**
+     * Lane of a task, that can run on any execution lane of its worker.
+     */
+    public static final int ANY_LANE = -1;
+
     public final RemoteCallable<T> task;
     public final double time;
     public final double duration;
     public final InetSocketAddress worker;
     public final double[] resources;
     public final TaskPrediction<?> startAfter;
+    /**
+     * The execution lane of the worker to run the task on or {@link TaskPrediction#ANY_LANE}.
+     */
+    public final int lane;
 
     public TaskPrediction(RemoteCallable<T> task, double time, double duration,
                           InetSocketAddress worker, double[] resources, TaskPrediction<?> startAfter) {
+        this(task, time, duration, worker, resources, startAfter, ANY_LANE);
+    }
+
+    public TaskPrediction(RemoteCallable<T> task, double time, double duration,
+                          InetSocketAddress worker, double[] resources, TaskPrediction<?> startAfter, int lane) {
         this.task = task;
         this.time = time;
         this.duration = duration;
         this.worker = worker;
         this.resources = resources;
         this.startAfter = startAfter;
+        this.lane = lane;
     }
 }
\ No newline at end of file
@@ -0,0 +1,34 @@
+package de.unikassel.util.classloading;
+
+import java.util.Map;
+
+/**
+ * {@link ClassLoader} for the classes of one {@link CodeBundle}.
+ *
+ * <p>Classes available to the parent are always loaded by the parent, so shipped code never replaces classes of the
+ * {@link de.unikassel.WorkerNode} itself.</p>
+ */
+public class BundleClassLoader extends ClassLoader {
+
+    private final Map<String, byte[]> definitions;
+
+    /**
+     * Create a new class loader.
+     *
+     * @param parent      The parent class loader.
+     * @param definitions Binary class names mapped to their bytecode.
+     */
+    public BundleClassLoader(ClassLoader parent, Map<String, byte[]> definitions) {
+        super(parent);
+        this.definitions = definitions;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = definitions.get(name);
+        if (bytes == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
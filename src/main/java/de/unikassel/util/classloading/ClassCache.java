@@ -0,0 +1,107 @@
+package de.unikassel.util.classloading;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.util.Pool;
+import de.unikassel.util.serialization.Serializer;
+
+import java.util.*;
+
+/**
+ * Bounded cache of shipped bytecode and of the class loaders created from it, both keyed by content hash.
+ *
+ * <p>Least recently used entries are evicted first. Since every task of a bundle references the same class loader,
+ * classes are only defined once per bundle, no matter how many of its tasks are executed.</p>
+ */
+public class ClassCache {
+
+    private final ClassLoader parent;
+    private final LinkedHashMap<String, Pool<Kryo>> kryoPools;
+    private final LinkedHashMap<String, byte[]> bytecode;
+
+    /**
+     * Create a new cache.
+     *
+     * @param parent     The class loader providing the classes available without shipping.
+     * @param maxBundles The maximal number of bundles to keep class loaders for.
+     * @param maxClasses The maximal number of class files to keep.
+     */
+    public ClassCache(ClassLoader parent, int maxBundles, int maxClasses) {
+        this.parent = parent;
+        this.kryoPools = lru(maxBundles);
+        this.bytecode = lru(maxClasses);
+    }
+
+    /**
+     * Get the pool of {@link Kryo}-instances using the class loader of a bundle.
+     *
+     * @param bundleHash The hash of the {@link CodeBundle}.
+     * @return The pool or null, if the bundle is not cached.
+     */
+    public synchronized Pool<Kryo> kryoPoolFor(String bundleHash) {
+        return kryoPools.get(bundleHash);
+    }
+
+    /**
+     * Get the hashes of the classes of a bundle, that are neither cached nor available without shipping.
+     *
+     * @param bundle The bundle.
+     * @return The hashes of the missing classes.
+     */
+    public synchronized String[] missing(CodeBundle bundle) {
+        return bundle.classHashes.entrySet().stream()
+                .filter(e -> !bytecode.containsKey(e.getValue()))
+                .filter(e -> parent.getResource(ClassFiles.resourceName(e.getKey())) == null)
+                .map(Map.Entry::getValue)
+                .distinct()
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Add shipped class files to this cache.
+     *
+     * @param definitions Class hashes mapped to bytecode. Entries not matching their hash are ignored.
+     */
+    public synchronized void addDefinitions(Map<String, byte[]> definitions) {
+        for (Map.Entry<String, byte[]> definition : definitions.entrySet()) {
+            if (ClassFiles.hash(definition.getValue()).equals(definition.getKey())) {
+                bytecode.put(definition.getKey(), definition.getValue());
+            } else {
+                System.err.println("Ignoring class file not matching its hash " + definition.getKey());
+            }
+        }
+    }
+
+    /**
+     * Create and cache the class loader of a bundle.
+     *
+     * <p>Classes still {@link ClassCache#missing(CodeBundle)} will fail to load, once they are used.</p>
+     *
+     * @param bundle The bundle.
+     * @return The pool of {@link Kryo}-instances using the class loader of the bundle.
+     */
+    public synchronized Pool<Kryo> define(CodeBundle bundle) {
+        Pool<Kryo> kryoPool = kryoPools.get(bundle.hash);
+        if (kryoPool != null) {
+            return kryoPool;
+        }
+        Map<String, byte[]> definitions = new HashMap<>();
+        bundle.classHashes.forEach((name, hash) -> {
+            byte[] bytes = bytecode.get(hash);
+            if (bytes != null) {
+                definitions.put(name, bytes);
+            }
+        });
+        kryoPool = Serializer.createKryoPool(new BundleClassLoader(parent, definitions));
+        kryoPools.put(bundle.hash, kryoPool);
+        return kryoPool;
+    }
+
+    private static <V> LinkedHashMap<String, V> lru(int maxSize) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return this.size() > maxSize;
+            }
+        };
+    }
+}
@@ -0,0 +1,177 @@
+package de.unikassel.util.classloading;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Helper for reading, hashing and analysing class files.
+ */
+public class ClassFiles {
+
+    private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([\\w/$]+);");
+
+    private ClassFiles() {
+    }
+
+    /**
+     * Read the bytecode of a class from its {@link ClassLoader}.
+     *
+     * @param clazz The class.
+     * @return The bytecode or null, if it is not available (e.g. for generated classes).
+     */
+    public static byte[] bytecode(Class<?> clazz) {
+        ClassLoader classLoader = clazz.getClassLoader();
+        if (classLoader == null) {
+            return null;
+        }
+        try (InputStream in = classLoader.getResourceAsStream(resourceName(clazz.getName()))) {
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the name of the resource containing a class.
+     *
+     * @param className The binary name of the class.
+     * @return The name of the resource.
+     */
+    public static String resourceName(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    /**
+     * Calculate the content hash of some bytes.
+     *
+     * @param bytes The bytes to hash.
+     * @return The SHA-256 hash as hex-string.
+     */
+    public static String hash(byte[] bytes) {
+        return toHex(digest().digest(bytes));
+    }
+
+    /**
+     * Calculate the content hash of multiple strings.
+     *
+     * @param parts The strings to hash.
+     * @return The SHA-256 hash as hex-string.
+     */
+    public static String hash(Iterable<String> parts) {
+        MessageDigest digest = digest();
+        for (String part : parts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Get the names of all classes referenced in the constant pool of a class file.
+     *
+     * @param bytecode The class file.
+     * @return The binary names of the referenced classes.
+     */
+    public static Set<String> referencedClassNames(byte[] bytecode) {
+        Set<String> names = new LinkedHashSet<>();
+        ByteBuffer buffer = ByteBuffer.wrap(bytecode);
+        buffer.position(8); // Skip magic and version
+        int count = buffer.getShort() & 0xFFFF;
+        String[] utf8 = new String[count];
+        int[] classNameIndices = new int[count];
+        int classes = 0;
+        for (int i = 1; i < count; ++i) {
+            int tag = buffer.get();
+            switch (tag) {
+                case 1: // Utf8
+                    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(bytes);
+                    utf8[i] = new String(bytes, StandardCharsets.UTF_8);
+                    break;
+                case 7: // Class
+                    classNameIndices[classes++] = buffer.getShort() & 0xFFFF;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    buffer.position(buffer.position() + 8);
+                    ++i; // Takes two entries
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    buffer.position(buffer.position() + 4);
+                    break;
+                case 15: // MethodHandle
+                    buffer.position(buffer.position() + 3);
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    buffer.position(buffer.position() + 2);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+            }
+        }
+        for (int i = 0; i < classes; ++i) {
+            String name = utf8[classNameIndices[i]];
+            if (name.startsWith("[")) {
+                addDescriptorClasses(name, names);
+            } else {
+                names.add(name.replace('/', '.'));
+            }
+        }
+        for (String entry : utf8) {
+            if (entry != null && (entry.startsWith("(") || entry.startsWith("L") || entry.startsWith("["))) {
+                addDescriptorClasses(entry, names); // Types only used in field- and method-descriptors
+            }
+        }
+        return names;
+    }
+
+    private static void addDescriptorClasses(String descriptor, Set<String> names) {
+        Matcher matcher = DESCRIPTOR_CLASS.matcher(descriptor);
+        while (matcher.find()) {
+            names.add(matcher.group(1).replace('/', '.'));
+        }
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM has to support SHA-256
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package de.unikassel.util.classloading;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The classes required to run a task, identified by the hash of their content.
+ *
+ * <p>A bundle is sent without definitions to tell a {@link de.unikassel.WorkerNode} which classes are required and
+ * with the definitions the {@link de.unikassel.WorkerNode} requested.</p>
+ */
+public class CodeBundle {
+    /**
+     * Hash over all class names and class hashes.
+     */
+    public final String hash;
+    /**
+     * Binary class names mapped to the hashes of their bytecode.
+     */
+    public final Map<String, String> classHashes;
+    /**
+     * Class hashes mapped to bytecode. Only contains the classes requested.
+     */
+    public final Map<String, byte[]> definitions;
+
+    public CodeBundle(String hash, Map<String, String> classHashes, Map<String, byte[]> definitions) {
+        this.hash = hash;
+        this.classHashes = classHashes;
+        this.definitions = definitions;
+    }
+
+    /**
+     * Create a copy of this bundle without definitions.
+     *
+     * @return The bundle only listing its classes.
+     */
+    public CodeBundle withoutDefinitions() {
+        return new CodeBundle(hash, classHashes, Collections.emptyMap());
+    }
+}
@@ -0,0 +1,126 @@
+package de.unikassel.util.classloading;
+
+import de.unikassel.util.serialization.RemoteCallable;
+
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides the bytecode of tasks, so {@link de.unikassel.WorkerNode}s can run tasks whose classes are not on their
+ * classpath.
+ *
+ * <p>The classes of a task are its capturing class (or the class of the task itself) and all classes referenced by
+ * it, that were loaded from the same location. Classes of the JDK and of libraries are expected to be available on
+ * the {@link de.unikassel.WorkerNode}.</p>
+ */
+public class CodeRepository {
+
+    private static final int MAX_CLASSES_PER_BUNDLE = 512;
+
+    private final ConcurrentHashMap<Class<?>, Optional<CodeBundle>> bundlesByTaskClass = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CodeBundle> bundles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, byte[]> bytecode = new ConcurrentHashMap<>();
+
+    /**
+     * Get the bundle of classes required to run a task.
+     *
+     * @param callable The task.
+     * @return The bundle (without definitions) or null, if the classes of the task could not be determined.
+     */
+    public CodeBundle bundleFor(RemoteCallable<?> callable) {
+        return bundlesByTaskClass.computeIfAbsent(callable.getClass(), c -> Optional.ofNullable(this.collect(callable)))
+                .orElse(null);
+    }
+
+    /**
+     * Answer a {@link CodeRequest} of a {@link de.unikassel.WorkerNode}.
+     *
+     * @param request The request.
+     * @return The bundle with the requested definitions or null, if the bundle is unknown.
+     */
+    public CodeBundle answer(CodeRequest request) {
+        CodeBundle bundle = bundles.get(request.bundleHash);
+        if (bundle == null || request.classHashes.length == 0) {
+            return bundle;
+        }
+        Map<String, byte[]> definitions = new HashMap<>();
+        for (String classHash : request.classHashes) {
+            byte[] bytes = bytecode.get(classHash);
+            if (bytes != null) {
+                definitions.put(classHash, bytes);
+            }
+        }
+        return new CodeBundle(bundle.hash, bundle.classHashes, definitions);
+    }
+
+    private CodeBundle collect(RemoteCallable<?> callable) {
+        Class<?> root = rootClass(callable);
+        if (root == null || root.getClassLoader() == null) {
+            return null;
+        }
+        URL location = location(root);
+
+        // Breadth-first search through all referenced classes from the same location
+        TreeMap<String, String> classHashes = new TreeMap<>();
+        Deque<Class<?>> queue = new ArrayDeque<>(Collections.singleton(root));
+        Set<String> seen = new HashSet<>(Collections.singleton(root.getName()));
+        while (!queue.isEmpty() && classHashes.size() < MAX_CLASSES_PER_BUNDLE) {
+            Class<?> clazz = queue.poll();
+            byte[] bytes = ClassFiles.bytecode(clazz);
+            if (bytes == null) {
+                continue;
+            }
+            String classHash = ClassFiles.hash(bytes);
+            bytecode.putIfAbsent(classHash, bytes);
+            classHashes.put(clazz.getName(), classHash);
+
+            for (String name : ClassFiles.referencedClassNames(bytes)) {
+                if (!seen.add(name)) {
+                    continue;
+                }
+                try {
+                    Class<?> referenced = Class.forName(name, false, clazz.getClassLoader());
+                    if (referenced.getClassLoader() != null && Objects.equals(location, location(referenced))) {
+                        queue.add(referenced);
+                    }
+                } catch (ClassNotFoundException | LinkageError ignored) {
+                    // Not required to run this task
+                }
+            }
+        }
+
+        List<String> parts = new ArrayList<>(classHashes.size() * 2);
+        classHashes.forEach((name, hash) -> {
+            parts.add(name);
+            parts.add(hash);
+        });
+        CodeBundle bundle = new CodeBundle(ClassFiles.hash(parts), classHashes, Collections.emptyMap());
+        bundles.putIfAbsent(bundle.hash, bundle);
+        return bundle;
+    }
+
+    private static Class<?> rootClass(RemoteCallable<?> callable) {
+        Class<?> clazz = callable.getClass();
+        if (!clazz.isSynthetic()) {
+            return clazz;
+        }
+        try {
+            // Lambdas are generated at runtime -> use the class containing its code instead
+            Method writeReplace = clazz.getDeclaredMethod("writeReplace");
+            writeReplace.setAccessible(true);
+            SerializedLambda lambda = (SerializedLambda) writeReplace.invoke(callable);
+            return Class.forName(lambda.getCapturingClass().replace('/', '.'), false, clazz.getClassLoader());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static URL location(Class<?> clazz) {
+        CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+        return codeSource == null ? null : codeSource.getLocation();
+    }
+}
@@ -0,0 +1,20 @@
+package de.unikassel.util.classloading;
+
+/**
+ * A request of a {@link de.unikassel.WorkerNode} for the contents of a {@link CodeBundle}.
+ */
+public class CodeRequest {
+    /**
+     * The hash of the requested {@link CodeBundle}.
+     */
+    public final String bundleHash;
+    /**
+     * The hashes of the classes to send. If empty, only the list of classes is requested.
+     */
+    public final String[] classHashes;
+
+    public CodeRequest(String bundleHash, String... classHashes) {
+        this.bundleHash = bundleHash;
+        this.classHashes = classHashes;
+    }
+}
@@ -0,0 +1,78 @@
+package de.unikassel.util.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Access to virtual threads, if the JVM supports them (Java 21 and newer), without requiring it at compile time.
+ *
+ * <p>On older JVMs, executors fall back to a cached pool of platform threads, so blocking tasks still do not occupy
+ * the threads of CPU-bound tasks.</p>
+ */
+public final class VirtualThreads {
+
+    private static final Method NEW_EXECUTOR = method(Executors.class, "newVirtualThreadPerTaskExecutor");
+    private static final Method IS_VIRTUAL = method(Thread.class, "isVirtual");
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Check whether this JVM supports virtual threads.
+     *
+     * @return True, if virtual threads are available.
+     */
+    public static boolean isSupported() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * Create an executor starting a new virtual thread for each task or a cached pool of daemon threads, if virtual
+     * threads are not supported.
+     *
+     * @param name The prefix of the names of the platform threads of the fallback.
+     * @return The executor.
+     */
+    public static ExecutorService newExecutor(String name) {
+        if (NEW_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace(); // Fall back to platform threads
+            }
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Check whether a thread is virtual.
+     *
+     * @param thread The thread.
+     * @return True, if the thread is virtual.
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static Method method(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null; // Older JVM
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package de.unikassel.util.serialization;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of serialized captured arguments, keyed by their hash.
+ *
+ * <p>Least recently used blobs are evicted first, as soon as the total size of all blobs exceeds the limit.</p>
+ */
+public class BlobCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxBytes The maximal total size of all blobs in bytes.
+     */
+    public BlobCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get a blob.
+     *
+     * @param hash The hash of the blob.
+     * @return The blob or null, if it is not cached.
+     */
+    public synchronized byte[] get(String hash) {
+        return blobs.get(hash);
+    }
+
+    /**
+     * Add a blob to this cache.
+     *
+     * <p>Blobs larger than the whole cache are not added.</p>
+     *
+     * @param hash The hash of the blob.
+     * @param blob The blob.
+     */
+    public synchronized void put(String hash, byte[] blob) {
+        if (blob.length > maxBytes) {
+            return;
+        }
+        byte[] previous = blobs.put(hash, blob);
+        bytes += blob.length - (previous == null ? 0 : previous.length);
+        for (Iterator<Map.Entry<String, byte[]>> it = blobs.entrySet().iterator();
+             bytes > maxBytes && it.hasNext(); ) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            if (!eldest.getKey().equals(hash)) {
+                bytes -= eldest.getValue().length;
+                it.remove();
+            }
+        }
+    }
+}
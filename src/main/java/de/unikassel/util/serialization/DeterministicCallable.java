@@ -0,0 +1,16 @@
+package de.unikassel.util.serialization;
+
+/**
+ * A {@link RemoteCallable}, whose result only depends on its code and its captured arguments.
+ *
+ * <p>The results of such tasks are cached by the {@link de.unikassel.WorkerNode} running them, keyed by the
+ * serialized task. The {@link de.unikassel.LoadBalancer} sends later tasks with the same serialized form to this
+ * worker and gets the cached result without running the task again.</p>
+ *
+ * <p>Lambdas can be made deterministic with a cast, e.g. {@code (DeterministicCallable<Integer>) () -> x * x}.</p>
+ *
+ * @param <T> Return type.
+ */
+@FunctionalInterface
+public interface DeterministicCallable<T> extends RemoteCallable<T> {
+}
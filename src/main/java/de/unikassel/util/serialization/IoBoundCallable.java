@@ -0,0 +1,22 @@
+package de.unikassel.util.serialization;
+
+/**
+ * A {@link RemoteCallable}, that mostly waits for I/O, e.g. for local sensors or files, instead of using the CPU.
+ *
+ * <p>A {@link de.unikassel.WorkerNode} with virtual threads enabled runs such tasks on virtual threads and admits
+ * them independently of its CPU-bound tasks, so waiting tasks do not make the node look saturated. The cgroup of a
+ * virtual thread would apply to its carrier thread, which changes whenever it blocks, so a task with a cgroup is sent
+ * and run like a CPU-bound task.</p>
+ *
+ * <p>Lambdas can be marked with a cast, e.g. {@code (IoBoundCallable<String>) () -> readSensor()}.</p>
+ *
+ * @param <T> Return type.
+ */
+@FunctionalInterface
+public interface IoBoundCallable<T> extends RemoteCallable<T> {
+
+    @Override
+    default boolean isIoBound() {
+        return true;
+    }
+}
@@ -2,29 +2,51 @@ package de.unikassel.util.serialization;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.ClosureSerializer;
+import de.unikassel.util.classloading.ClassFiles;
 
 import java.lang.invoke.SerializedLambda;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Map;
 
 /**
- * Fixed version of {@link ClosureSerializer}.
+ * Fixed version of {@link ClosureSerializer}, extending the generic {@link com.esotericsoftware.kryo.Serializer}
+ * instead of the raw one and only borrowing the conversion of a lambda into a {@link SerializedLambda}.
+ *
+ * <p>If a map of blobs is put into the context of the {@link Kryo} under {@link ModifiedClosureSerializer#BLOBS},
+ * captured arguments of at least {@link ModifiedClosureSerializer#BLOB_THRESHOLD} bytes are put into this map by their
+ * hash and only the hash is written. When reading, these hashes are resolved using the same map.</p>
  */
-public class ModifiedClosureSerializer extends ClosureSerializer {
+public class ModifiedClosureSerializer extends com.esotericsoftware.kryo.Serializer<Object> {
 
+    /**
+     * Key of the blob-map in the context of a {@link Kryo}.
+     */
+    static final String BLOBS = "blobs";
+    /**
+     * Minimal serialized size of a captured argument to be written as blob.
+     */
+    public static final int BLOB_THRESHOLD = 64 * 1024;
 
+    private static final byte INLINE = 0;
+    private static final byte BLOB = 1;
+
+    private final ClosureSerializer closureSerializer = new ClosureSerializer();
     private final Method toSerializedLambda;
+    private final Method readResolve;
 
     /**
      * Create a new {@link ModifiedClosureSerializer}.
      */
     public ModifiedClosureSerializer() {
         try {
-            toSerializedLambda = this.getClass().getSuperclass()
-                    .getDeclaredMethod("toSerializedLambda", Object.class);
+            toSerializedLambda = ClosureSerializer.class.getDeclaredMethod("toSerializedLambda", Object.class);
             toSerializedLambda.setAccessible(true);
+            readResolve = SerializedLambda.class.getDeclaredMethod("readResolve");
+            readResolve.setAccessible(true);
         } catch (NoSuchMethodException e) {
             throw new KryoException(e);
         }
@@ -35,21 +57,40 @@ public class ModifiedClosureSerializer extends ClosureSerializer {
         SerializedLambda serializedLambda;
         try {
 
-            // Serialization needs to be done in the Java-way using parent-classes private method
+            // Serialization needs to be done in the Java-way using the private method of the original serializer
 
-            serializedLambda = (SerializedLambda) toSerializedLambda.invoke(this, object);
+            serializedLambda = (SerializedLambda) toSerializedLambda.invoke(closureSerializer, object);
         } catch (IllegalAccessException | InvocationTargetException e) {
             throw new KryoException(e);
         }
+        @SuppressWarnings("unchecked")
+        Map<String, byte[]> blobs = (Map<String, byte[]>) kryo.getContext().get(BLOBS);
         int count = serializedLambda.getCapturedArgCount();
         output.writeVarInt(count, true);
         for (int i = 0; i < count; i++) {
 
-            // --------------------- This one line is changed ! ---------------------
+            // --------------------- This part is changed ! ---------------------
 
-            kryo.writeClassAndObject(output, serializedLambda.getCapturedArg(i));
+            Object capturedArg = serializedLambda.getCapturedArg(i);
+            if (blobs == null) {
+                output.writeByte(INLINE);
+                kryo.writeClassAndObject(output, capturedArg);
+                continue;
+            }
+            Output argOutput = new Output(4096, -1);
+            kryo.writeClassAndObject(argOutput, capturedArg);
+            if (argOutput.position() < BLOB_THRESHOLD) {
+                output.writeByte(INLINE);
+                output.writeBytes(argOutput.getBuffer(), 0, argOutput.position());
+            } else {
+                byte[] blob = argOutput.toBytes();
+                String hash = ClassFiles.hash(blob);
+                blobs.put(hash, blob);
+                output.writeByte(BLOB);
+                output.writeString(hash);
+            }
 
-            // ----------------------------------------------------------------------
+            // ------------------------------------------------------------------
 
         }
         try {
@@ -66,4 +107,32 @@ public class ModifiedClosureSerializer extends ClosureSerializer {
         output.writeString(serializedLambda.getImplMethodSignature());
         output.writeString(serializedLambda.getInstantiatedMethodType());
     }
-}
\ No newline at end of file
+
+    @Override
+    public Object read(Kryo kryo, Input input, Class<?> type) {
+        @SuppressWarnings("unchecked")
+        Map<String, byte[]> blobs = (Map<String, byte[]>) kryo.getContext().get(BLOBS);
+        int count = input.readVarInt(true);
+        Object[] capturedArgs = new Object[count];
+        for (int i = 0; i < count; i++) {
+            if (input.readByte() == INLINE) {
+                capturedArgs[i] = kryo.readClassAndObject(input);
+                continue;
+            }
+            String hash = input.readString();
+            byte[] blob = blobs == null ? null : blobs.get(hash);
+            if (blob == null) {
+                throw new KryoException("Blob " + hash + " of captured argument not available");
+            }
+            capturedArgs[i] = kryo.readClassAndObject(new Input(blob));
+        }
+        SerializedLambda serializedLambda = new SerializedLambda(kryo.readClass(input).getType(), input.readString(),
+                input.readString(), input.readString(), input.readVarInt(true), input.readString(),
+                input.readString(), input.readString(), input.readString(), capturedArgs);
+        try {
+            return readResolve.invoke(serializedLambda);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new KryoException("Error reading closure.", e);
+        }
+    }
+}
@@ -28,4 +28,14 @@ public interface RemoteCallable<T> extends Callable<T>, Serializable {
         return "";
     }
 
+    /**
+     * Check whether this task mostly waits for I/O instead of using the CPU.
+     *
+     * @return True, if the task is I/O-bound.
+     * @see IoBoundCallable
+     */
+    default boolean isIoBound() {
+        return false;
+    }
+
 }
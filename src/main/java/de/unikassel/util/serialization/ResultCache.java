@@ -0,0 +1,96 @@
+package de.unikassel.util.serialization;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of serialized results by the key of the task, that computed them.
+ *
+ * <p>The least recently used results are evicted once the total size of all results exceeds the limit. Results
+ * older than the time to live are never returned and dropped, when they are requested.</p>
+ */
+public class ResultCache {
+
+    private final long maxBytes;
+    private final long timeToLiveNanos;
+    private final LinkedHashMap<String, Entry> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxBytes         The maximal total size of all cached results.
+     * @param timeToLiveMillis The time a result may be returned after it was put into the cache.
+     */
+    public ResultCache(long maxBytes, long timeToLiveMillis) {
+        this.maxBytes = maxBytes;
+        this.timeToLiveNanos = timeToLiveMillis * 1_000_000;
+    }
+
+    /**
+     * Get a cached result.
+     *
+     * @param key The key of the task.
+     * @return The serialized result or null, if it is not cached or expired.
+     */
+    public synchronized byte[] get(String key) {
+        Entry entry = results.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.created > timeToLiveNanos) {
+            this.remove(key);
+            return null;
+        }
+        return entry.result;
+    }
+
+    /**
+     * Cache a result. Results larger than the whole cache are not cached.
+     *
+     * @param key    The key of the task.
+     * @param result The serialized result.
+     */
+    public synchronized void put(String key, byte[] result) {
+        if (result.length > maxBytes) {
+            return;
+        }
+        this.remove(key);
+        results.put(key, new Entry(result));
+        size += result.length;
+        for (Iterator<Map.Entry<String, Entry>> it = results.entrySet().iterator();
+             size > maxBytes && it.hasNext(); ) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (!eldest.getKey().equals(key)) {
+                size -= eldest.getValue().result.length;
+                it.remove();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = results.remove(key);
+        if (removed != null) {
+            size -= removed.result.length;
+        }
+    }
+
+    /**
+     * Get the total size of all cached results.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    private static class Entry {
+        private final long created = System.nanoTime();
+        private final byte[] result;
+
+        private Entry(byte[] result) {
+            this.result = result;
+        }
+    }
+}
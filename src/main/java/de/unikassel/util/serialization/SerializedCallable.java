@@ -0,0 +1,35 @@
+package de.unikassel.util.serialization;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link RemoteCallable} serialized with {@link Serializer#serialize(Object, Map)}, so it can be hashed and sent
+ * without serializing it again.
+ */
+public class SerializedCallable {
+
+    /**
+     * The serialized task.
+     */
+    public final RemoteCallable<?> callable;
+    /**
+     * The task without its large captured arguments.
+     */
+    public final byte[] bytes;
+    /**
+     * The large captured arguments of the task by their hash.
+     */
+    public final Map<String, byte[]> blobs;
+
+    /**
+     * Serialize a task.
+     *
+     * @param callable The task.
+     */
+    public SerializedCallable(RemoteCallable<?> callable) {
+        this.callable = callable;
+        this.blobs = new LinkedHashMap<>();
+        this.bytes = Serializer.serialize(callable, this.blobs);
+    }
+}
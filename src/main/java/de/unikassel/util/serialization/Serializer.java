@@ -2,14 +2,57 @@ package de.unikassel.util.serialization;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.SerializerFactory;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.ClosureSerializer;
+import com.esotericsoftware.kryo.util.Pool;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Class for setting up a new {@link Kryo}-instance.
+ *
+ * <p>Setting up a {@link Kryo}-instance is expensive, so {@link Serializer#serialize(Object)} and
+ * {@link Serializer#deserialize(byte[])} use pooled instances together with pooled buffers.</p>
  */
 public class Serializer {
 
+    private static final int POOL_SIZE = 64;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+    /**
+     * Key of the configuration a {@link Kryo} was set up with in its context.
+     */
+    private static final String CONFIGURATION = "configuration";
+
+    private static final List<Class<?>> registeredClasses = new ArrayList<>();
+    private static volatile boolean registrationRequired = false;
+    /**
+     * Counts the changes of the registrations, so instances set up before a change are not handed out anymore.
+     */
+    private static volatile int configuration = 0;
+
+    private static final Pool<Kryo> kryoPool = createKryoPool(null);
+
+    private static final Pool<Output> outputPool = new Pool<Output>(true, false, POOL_SIZE) {
+        @Override
+        protected Output create() {
+            return new Output(INITIAL_BUFFER_SIZE, -1);
+        }
+    };
+
+    private static final Pool<Input> inputPool = new Pool<Input>(true, false, POOL_SIZE) {
+        @Override
+        protected Input create() {
+            return new Input();
+        }
+    };
+
     private Serializer() {
     }
 
@@ -18,9 +61,9 @@ public class Serializer {
      *
      * @return The new {@link Kryo}.
      */
+    @SuppressWarnings("unchecked")
     public static Kryo setupKryoInstance() {
         Kryo kryo = new Kryo();
-        kryo.setRegistrationRequired(false);
         SerializerFactory.FieldSerializerFactory fieldSerializerFactory
                 = new SerializerFactory.FieldSerializerFactory();
         fieldSerializerFactory.getConfig().setIgnoreSyntheticFields(false);
@@ -28,7 +71,222 @@ public class Serializer {
         kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
         kryo.register(java.lang.invoke.SerializedLambda.class);
         kryo.register(ClosureSerializer.Closure.class, new ModifiedClosureSerializer());
+        synchronized (registeredClasses) {
+            kryo.getContext().put(CONFIGURATION, configuration);
+            kryo.setRegistrationRequired(registrationRequired);
+            registeredClasses.forEach(kryo::register);
+        }
         return kryo;
     }
 
+    /**
+     * Create a new pool of configured {@link Kryo}-instances.
+     *
+     * <p>Instances set up before classes were registered or the registration requirement changed are dropped instead
+     * of being handed out again, even if they were in use during the change.</p>
+     *
+     * @param classLoader The class loader to resolve classes with or null to use the default one.
+     * @return The new pool.
+     */
+    public static Pool<Kryo> createKryoPool(ClassLoader classLoader) {
+        return new Pool<Kryo>(true, false, POOL_SIZE) {
+            @Override
+            protected Kryo create() {
+                Kryo kryo = setupKryoInstance();
+                if (classLoader != null) {
+                    kryo.setClassLoader(classLoader);
+                }
+                return kryo;
+            }
+
+            @Override
+            public Kryo obtain() {
+                Kryo kryo = super.obtain();
+                while (isOutdated(kryo)) {
+                    kryo = super.obtain(); // Pooled before the change -> drop it
+                }
+                return kryo;
+            }
+
+            @Override
+            public void free(Kryo kryo) {
+                if (!isOutdated(kryo)) {
+                    super.free(kryo);
+                }
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean isOutdated(Kryo kryo) {
+        return !Integer.valueOf(configuration).equals(kryo.getContext().get(CONFIGURATION));
+    }
+
+    /**
+     * Register classes to be written as a small id instead of their fully qualified name.
+     *
+     * <p>The same classes have to be registered in the same order on the {@link de.unikassel.LoadBalancer} and on
+     * every {@link de.unikassel.WorkerNode}.</p>
+     *
+     * @param classes The classes to register.
+     */
+    public static void registerClasses(Class<?>... classes) {
+        synchronized (registeredClasses) {
+            registeredClasses.addAll(Arrays.asList(classes));
+            ++configuration; // Instances set up before don't know the new classes
+        }
+    }
+
+    /**
+     * Only allow registered classes to be (de-)serialized.
+     *
+     * @param required True, if only classes registered with {@link Serializer#registerClasses(Class[])} may be used.
+     */
+    public static void setRegistrationRequired(boolean required) {
+        synchronized (registeredClasses) {
+            registrationRequired = required;
+            ++configuration;
+        }
+    }
+
+    /**
+     * Serialize an object with its class into a byte-array using a pooled {@link Kryo}.
+     *
+     * @param object The object to serialize.
+     * @return The serialized object.
+     */
+    public static byte[] serialize(Object object) {
+        return serialize(kryoPool, object);
+    }
+
+    /**
+     * Serialize an object with its class into a byte-array using a {@link Kryo} from the given pool.
+     *
+     * @param pool   The pool, e.g. created with {@link Serializer#createKryoPool(ClassLoader)}.
+     * @param object The object to serialize.
+     * @return The serialized object.
+     */
+    public static byte[] serialize(Pool<Kryo> pool, Object object) {
+        return serialize(pool, object, null);
+    }
+
+    /**
+     * Serialize an object with its class into a byte-array, writing large captured arguments of lambdas as blobs.
+     *
+     * @param object The object to serialize.
+     * @param blobs  The map to put the blobs into by their hash. The serialized object only contains the hashes.
+     * @return The serialized object.
+     * @see ModifiedClosureSerializer
+     */
+    public static byte[] serialize(Object object, Map<String, byte[]> blobs) {
+        return serialize(kryoPool, object, blobs);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] serialize(Pool<Kryo> pool, Object object, Map<String, byte[]> blobs) {
+        Kryo kryo = pool.obtain();
+        try {
+            if (blobs != null) {
+                kryo.getContext().put(ModifiedClosureSerializer.BLOBS, blobs);
+            }
+            return serialize(kryo, object);
+        } finally {
+            kryo.getContext().remove(ModifiedClosureSerializer.BLOBS);
+            pool.free(kryo);
+        }
+    }
+
+    /**
+     * Serialize an object with its class into a byte-array.
+     *
+     * @param kryo   The {@link Kryo} to use.
+     * @param object The object to serialize.
+     * @return The serialized object.
+     */
+    public static byte[] serialize(Kryo kryo, Object object) {
+        Output out = outputPool.obtain();
+        try {
+            kryo.writeClassAndObject(out, object);
+            return out.toBytes();
+        } finally {
+            if (out.getBuffer().length > MAX_POOLED_BUFFER_SIZE) {
+                out.setBuffer(new byte[INITIAL_BUFFER_SIZE], -1); // Don't keep huge buffers around
+            }
+            outputPool.free(out);
+        }
+    }
+
+    /**
+     * Deserialize an object written by {@link Serializer#serialize(Object)} using a pooled {@link Kryo}.
+     *
+     * @param bytes The serialized object.
+     * @return The deserialized object.
+     */
+    public static Object deserialize(byte[] bytes) {
+        return deserialize(kryoPool, bytes);
+    }
+
+    /**
+     * Deserialize an object written by {@link Serializer#serialize(Object, Map)} using a pooled {@link Kryo}.
+     *
+     * @param bytes The serialized object.
+     * @param blobs The blobs referenced by the serialized object, by their hash.
+     * @return The deserialized object.
+     */
+    public static Object deserialize(byte[] bytes, Map<String, byte[]> blobs) {
+        return deserialize(kryoPool, bytes, blobs);
+    }
+
+    /**
+     * Deserialize an object using a {@link Kryo} from the given pool.
+     *
+     * @param pool  The pool, e.g. created with {@link Serializer#createKryoPool(ClassLoader)}.
+     * @param bytes The serialized object.
+     * @return The deserialized object.
+     */
+    public static Object deserialize(Pool<Kryo> pool, byte[] bytes) {
+        return deserialize(pool, bytes, null);
+    }
+
+    /**
+     * Deserialize an object written by {@link Serializer#serialize(Object, Map)} using a {@link Kryo} from the given
+     * pool.
+     *
+     * @param pool  The pool, e.g. created with {@link Serializer#createKryoPool(ClassLoader)}.
+     * @param bytes The serialized object.
+     * @param blobs The blobs referenced by the serialized object, by their hash.
+     * @return The deserialized object.
+     */
+    @SuppressWarnings("unchecked")
+    public static Object deserialize(Pool<Kryo> pool, byte[] bytes, Map<String, byte[]> blobs) {
+        Kryo kryo = pool.obtain();
+        try {
+            if (blobs != null) {
+                kryo.getContext().put(ModifiedClosureSerializer.BLOBS, blobs);
+            }
+            return deserialize(kryo, bytes);
+        } finally {
+            kryo.getContext().remove(ModifiedClosureSerializer.BLOBS);
+            pool.free(kryo);
+        }
+    }
+
+    /**
+     * Deserialize an object written by {@link Serializer#serialize(Kryo, Object)}.
+     *
+     * @param kryo  The {@link Kryo} to use.
+     * @param bytes The serialized object.
+     * @return The deserialized object.
+     */
+    public static Object deserialize(Kryo kryo, byte[] bytes) {
+        Input in = inputPool.obtain();
+        try {
+            in.setBuffer(bytes);
+            return kryo.readClassAndObject(in);
+        } finally {
+            in.setBuffer(EMPTY); // Don't keep the bytes reachable
+            inputPool.free(in);
+        }
+    }
+
 }
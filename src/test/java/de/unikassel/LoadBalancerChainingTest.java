@@ -0,0 +1,81 @@
+package de.unikassel;
+
+import de.unikassel.schedule.SimpleScheduler;
+import de.unikassel.schedule.data.ScheduledFuture;
+import de.unikassel.schedule.data.TaskPrediction;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.AllPermission;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertTrue;
+
+public class LoadBalancerChainingTest {
+
+    private static final int CLIENTS = 8;
+    private static final int TASKS_PER_CLIENT = 50;
+
+    @Test
+    public void chainedTasksNeverOverlap() throws Exception {
+        int port = 40_000 + new Random().nextInt(10_000);
+        WorkerNode workerNode = new WorkerNode(port, CLIENTS);
+        Thread worker = new Thread(() -> {
+            PermissionCollection permissions = new Permissions();
+            permissions.add(new AllPermission()); // Allow everything while testing
+            try {
+                workerNode.start(permissions);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        worker.setDaemon(true);
+        worker.start();
+        Thread.sleep(300);
+
+        Map<TaskPrediction<?>, ScheduledFuture<long[]>> futures = new ConcurrentHashMap<>();
+        // A single slot -> every task has to wait for the one scheduled before
+        try (LoadBalancer loadBalancer = new LoadBalancer(new SimpleScheduler(1), x -> null, x -> null, x -> null)) {
+            loadBalancer.addWorkerNodeAddress(new InetSocketAddress("localhost", port), "");
+
+            ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> submitted = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; ++c) {
+                submitted.add(clients.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < TASKS_PER_CLIENT; ++i) {
+                        ScheduledFuture<long[]> future = loadBalancer.executeOnWorker(() -> {
+                            long started = System.nanoTime();
+                            Thread.sleep(1);
+                            return new long[]{started, System.nanoTime()};
+                        });
+                        futures.put(future.getTaskPrediction(), future);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : submitted) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            clients.shutdown();
+
+            for (ScheduledFuture<long[]> future : futures.values()) {
+                TaskPrediction<?> predecessor = future.getTaskPrediction().startAfter;
+                if (predecessor == null) {
+                    continue;
+                }
+                long started = future.get(60, TimeUnit.SECONDS)[0];
+                long predecessorFinished = futures.get(predecessor).get(60, TimeUnit.SECONDS)[1];
+                assertTrue("Task started before its predecessor finished", started >= predecessorFinished);
+            }
+        } finally {
+            workerNode.stop();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package de.unikassel;
+
+import de.unikassel.rpc.Heartbeats;
+import de.unikassel.schedule.QueueScheduler;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.AllPermission;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadBalancerReconnectTest {
+
+    @Test
+    public void workerStartedAfterTheLoadBalancerIsConnected() throws Exception {
+        int port = 40_000 + new Random().nextInt(10_000);
+        InetSocketAddress address = new InetSocketAddress("localhost", port);
+        Heartbeats heartbeats = new Heartbeats();
+        try (LoadBalancer loadBalancer = new LoadBalancer(new QueueScheduler(heartbeats::freeResources),
+                x -> new double[]{0}, x -> new double[]{1, 0, 0}, x -> null, heartbeats)) {
+            loadBalancer.addWorkerNodeAddress(address, ""); // Not running yet
+
+            WorkerNode workerNode = new WorkerNode(port, 1);
+            Thread worker = new Thread(() -> {
+                PermissionCollection permissions = new Permissions();
+                permissions.add(new AllPermission()); // Allow everything while testing
+                try {
+                    workerNode.start(permissions);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            worker.setDaemon(true);
+            worker.start();
+            try {
+                assertTrue("Not connected to the worker",
+                        heartbeats.awaitFirst(Collections.singleton(address), 10_000));
+                assertEquals(Integer.valueOf(42), loadBalancer.executeOnWorker(() -> 42).get());
+            } finally {
+                workerNode.stop();
+            }
+        }
+    }
+}
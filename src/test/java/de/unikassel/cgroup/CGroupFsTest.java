@@ -0,0 +1,119 @@
+package de.unikassel.cgroup;
+
+import de.unikassel.cgroup.options.Blkio;
+import de.unikassel.cgroup.options.Cpu;
+import de.unikassel.cgroup.options.Memory;
+import de.unikassel.util.nativ.jna.ThreadUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class CGroupFsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void v1() throws IOException {
+        Path root = temporaryFolder.getRoot().toPath();
+        Files.createDirectories(root.resolve("cpu"));
+        Files.createDirectories(root.resolve("memory"));
+
+        CGroupFs cGroupFs = new CGroupFs(root);
+        assertFalse(cGroupFs.isUnified());
+
+        CGroup cGroup = new CGroup("test", Controller.CPU, Controller.MEMORY)
+                .withOption(Cpu.SHARES, 512)
+                .withOption(Memory.LIMIT_IN_BYTES, 1024 * 1024);
+        cGroupFs.create(cGroup, "");
+        assertEquals("512", read(root.resolve("cpu/test/cpu.shares")));
+        assertEquals("1048576", read(root.resolve("memory/test/memory.limit_in_bytes")));
+
+        cGroupFs.adjust(cGroup, new CGroup("other", Controller.CPU).withOption(Cpu.SHARES, 1024), "");
+        assertEquals("1024", read(root.resolve("cpu/test/cpu.shares")));
+        assertEquals("1024", cGroup.getOptions(Controller.CPU).get(Cpu.SHARES));
+
+        cGroupFs.classify(cGroup, "");
+        assertEquals(String.valueOf(ThreadUtil.getThreadId()), read(root.resolve("cpu/test/tasks")));
+
+        cGroupFs.delete(cGroup, "");
+        assertFalse(Files.exists(root.resolve("cpu/test")));
+        assertFalse(Files.exists(root.resolve("memory/test")));
+        assertEquals(String.valueOf(ThreadUtil.getThreadId()), read(root.resolve("cpu/tasks")));
+    }
+
+    @Test
+    public void v2() throws IOException {
+        Path root = temporaryFolder.getRoot().toPath();
+        Files.write(root.resolve("cgroup.controllers"), "cpu io memory".getBytes(StandardCharsets.UTF_8));
+
+        CGroupFs cGroupFs = new CGroupFs(root);
+        assertTrue(cGroupFs.isUnified());
+
+        CGroup cGroup = new CGroup("parent/test", Controller.CPU, Controller.MEMORY, Controller.BLKIO)
+                .withOption(Cpu.SHARES, 1024)
+                .withOption(Cpu.CFS_QUOTA_US, 50000)
+                .withOption(Memory.LIMIT_IN_BYTES, -1)
+                .withOption(Blkio.Throttle.READ_BPS_DEVICE, "8:0 1048576");
+        cGroupFs.create(cGroup, "");
+        assertEquals("+io +cpu +memory", read(root.resolve("cgroup.subtree_control")));
+        assertEquals("+io +cpu +memory", read(root.resolve("parent/cgroup.subtree_control")));
+        Path dir = root.resolve("parent/test");
+        assertEquals("39", read(dir.resolve("cpu.weight")));
+        assertEquals("50000 100000", read(dir.resolve("cpu.max")));
+        assertEquals("max", read(dir.resolve("memory.max")));
+        assertEquals("8:0 rbps=1048576", read(dir.resolve("io.max")));
+        assertFalse(Files.exists(dir.resolve("cgroup.type")));
+
+        Files.delete(dir.resolve("cpu.max"));
+        cGroupFs.adjust(cGroup, new CGroup("other", Controller.MEMORY)
+                .withOption(Memory.LIMIT_IN_BYTES, 1024), "");
+        assertEquals("1024", read(dir.resolve("memory.max")));
+        assertFalse(Files.exists(dir.resolve("cpu.max"))); // Unchanged -> not written again
+
+        cGroupFs.delete(cGroup, "");
+        assertFalse(Files.exists(dir));
+    }
+
+    @Test
+    public void v2Threaded() throws IOException {
+        Path root = temporaryFolder.getRoot().toPath();
+        Files.write(root.resolve("cgroup.controllers"), "cpu".getBytes(StandardCharsets.UTF_8));
+
+        CGroupFs cGroupFs = new CGroupFs(root);
+        CGroup cGroup = new CGroup("test", Controller.CPU).withOption(Cpu.CFS_QUOTA_US, -1);
+        cGroupFs.create(cGroup, "");
+        assertEquals("threaded", read(root.resolve("test/cgroup.type")));
+        assertEquals("max 100000", read(root.resolve("test/cpu.max")));
+
+        cGroupFs.classify(cGroup, "");
+        assertEquals(String.valueOf(ThreadUtil.getThreadId()), read(root.resolve("test/cgroup.threads")));
+    }
+
+    @Test(expected = IOException.class)
+    public void v2Unsupported() throws IOException {
+        Path root = temporaryFolder.getRoot().toPath();
+        Files.write(root.resolve("cgroup.controllers"), "memory".getBytes(StandardCharsets.UTF_8));
+
+        new CGroupFs(root).create(new CGroup("test", Controller.MEMORY).withOption(Memory.SWAPPINESS, 0), "");
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidName() throws IOException {
+        Path root = temporaryFolder.getRoot().toPath();
+        Files.createDirectories(root.resolve("cpu"));
+
+        new CGroupFs(root).create(new CGroup("../../escape", Controller.CPU), "");
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    }
+}
@@ -0,0 +1,122 @@
+package de.unikassel.cgroup;
+
+import de.unikassel.cgroup.options.Cpu;
+import de.unikassel.cgroup.options.Memory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CGroupPoolTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void roundUp() {
+        assertEquals("1", CGroupPool.roundUp("1"));
+        assertEquals("7", CGroupPool.roundUp("7"));
+        assertEquals("8", CGroupPool.roundUp("8"));
+        assertEquals("10", CGroupPool.roundUp("9"));
+        assertEquals("1024", CGroupPool.roundUp("1024"));
+        assertEquals("1280", CGroupPool.roundUp("1025"));
+        assertEquals("1280", CGroupPool.roundUp("1280"));
+        assertEquals("1536", CGroupPool.roundUp("1281"));
+        assertEquals(String.valueOf(Long.MAX_VALUE), CGroupPool.roundUp(String.valueOf(Long.MAX_VALUE - 1)));
+
+        // Special values are kept
+        assertEquals("-1", CGroupPool.roundUp("-1"));
+        assertEquals("0", CGroupPool.roundUp("0"));
+        assertEquals("max", CGroupPool.roundUp("max"));
+    }
+
+    @Test
+    public void roundUpIsAtMostAQuarterLarger() {
+        for (long value = 1; value < 100_000; value += 7) {
+            long rounded = Long.parseLong(CGroupPool.roundUp(String.valueOf(value)));
+            assertTrue(rounded >= value);
+            assertTrue(value + " rounded to " + rounded, rounded <= value * 1.25);
+            assertEquals(String.valueOf(rounded), CGroupPool.roundUp(String.valueOf(rounded)));
+        }
+    }
+
+    @Test
+    public void quantize() {
+        CGroup cGroup = new CGroup("task", Controller.CPU, Controller.MEMORY)
+                .withOption(Cpu.SHARES, 1000)
+                .withOption(Cpu.CFS_PERIOD_US, 100_001)
+                .withOption(Memory.LIMIT_IN_BYTES, 1_000_000);
+
+        CGroup quantized = CGroupPool.quantize(cGroup, "pooled");
+        assertEquals("pooled", quantized.name);
+        assertEquals(cGroup.getControllers(), quantized.getControllers());
+        assertEquals("1024", quantized.getOptions(Controller.CPU).get(Cpu.SHARES));
+        assertEquals("100001", quantized.getOptions(Controller.CPU).get(Cpu.CFS_PERIOD_US));
+        assertEquals("1048576", quantized.getOptions(Controller.MEMORY).get(Memory.LIMIT_IN_BYTES));
+    }
+
+    @Test
+    public void releasedLeaseMovesThreadOut() throws IOException {
+        List<String> classified = new ArrayList<>();
+        CGroupBackend backend = new CGroupBackend() {
+            @Override
+            public void create(CGroup cGroup, String sudoPW) {
+            }
+
+            @Override
+            public void adjust(CGroup cGroup, CGroup target, String sudoPW) {
+            }
+
+            @Override
+            public void classify(CGroup cGroup, String sudoPW) {
+                classified.add(cGroup.name);
+            }
+
+            @Override
+            public void delete(CGroup cGroup, String sudoPW) {
+            }
+        };
+        CGroup requested = new CGroup("task", Controller.CPU).withOption(Cpu.SHARES, 1000);
+
+        try (CGroupPool pool = new CGroupPool(1, backend)) {
+            CGroupPool.Lease lease = pool.acquire(requested, "");
+            String pooled = lease.getCGroup().name;
+            lease.close();
+            assertEquals(1, pool.getIdleCount());
+
+            // Reused, but entered and left again
+            lease = pool.acquire(requested, "");
+            assertEquals(pooled, lease.getCGroup().name);
+            lease.close();
+            assertEquals(4, classified.size());
+            assertEquals(pooled, classified.get(2));
+            assertEquals("/", classified.get(3));
+
+            // Nothing left to leave
+            pool.leave("");
+            assertEquals(4, classified.size());
+        }
+    }
+
+    @Test
+    public void threadsCanOnlyBeLimitedByThreadedControllersOnV2() throws IOException {
+        Path root = temporaryFolder.getRoot().toPath();
+        Files.write(root.resolve("cgroup.controllers"), "cpu memory".getBytes(StandardCharsets.UTF_8));
+
+        try (CGroupPool pool = new CGroupPool(1, new CGroupFs(root))) {
+            pool.acquire(new CGroup("task", Controller.MEMORY).withOption(Memory.LIMIT_IN_BYTES, 1024), "");
+            fail("The task must not run without its memory limit");
+        } catch (IOException expected) {
+            // Rejected before creating anything
+            assertFalse(Files.exists(root.resolve("cgroup.subtree_control")));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package de.unikassel.rpc;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NioConnectionTest {
+
+    @Test
+    public void compressedMessageIsNotOvertaken() throws Exception {
+        int port = 40_000 + new Random().nextInt(10_000);
+        List<MessageType> handled = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(2);
+
+        try (EventLoop eventLoop = new EventLoop()) {
+            // Decompress slowly, so the uncompressed message is read long before
+            eventLoop.setDecompressionExecutor(task -> new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                    // Decompress right away
+                }
+                task.run();
+            }).start());
+            eventLoop.bind(port, (connection, message) -> {
+                handled.add(message.type);
+                done.countDown();
+            });
+            eventLoop.startThread("event-loop");
+
+            ByteBuffer[] task = new Compression().encode(new Message(1, MessageType.TASK, new byte[64 * 1024]));
+            assertEquals(2, task.length); // Compressed
+            ByteBuffer cancel = new Message(1, MessageType.CANCEL, new byte[0]).encode();
+
+            try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", port))) {
+                // Both frames in one write, so they are read at once
+                ByteBuffer[] frames = Arrays.copyOf(task, 3);
+                frames[2] = cancel;
+                while (cancel.hasRemaining()) {
+                    client.write(frames);
+                }
+                assertTrue(done.await(10, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(Arrays.asList(MessageType.TASK, MessageType.CANCEL), handled);
+    }
+}
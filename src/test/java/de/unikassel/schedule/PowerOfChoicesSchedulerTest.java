@@ -0,0 +1,88 @@
+package de.unikassel.schedule;
+
+import de.unikassel.schedule.data.TaskPrediction;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PowerOfChoicesSchedulerTest {
+
+    private final InetSocketAddress worker = InetSocketAddress.createUnresolved("worker", 1);
+    private final Set<InetSocketAddress> workers = Collections.singleton(worker);
+
+    @Test
+    public void aliasTableMatchesWeights() {
+        double[] weights = {1, 2, 0, 4, 3, -1};
+        PowerOfChoicesScheduler.AliasTable table = new PowerOfChoicesScheduler.AliasTable(weights);
+
+        // Probability of an index = (own column + columns aliasing to it) / columns
+        int n = weights.length;
+        double[] drawn = new double[n];
+        for (int i = 0; i < n; ++i) {
+            drawn[i] += table.probability[i] / n;
+            drawn[table.alias[i]] += (1 - table.probability[i]) / n;
+        }
+        assertArrayEquals(new double[]{.1, .2, 0, .4, .3, 0}, drawn, 1e-9);
+    }
+
+    @Test
+    public void aliasTableWithoutWeightsIsUniform() {
+        PowerOfChoicesScheduler.AliasTable table = new PowerOfChoicesScheduler.AliasTable(new double[]{0, 0, 0});
+        assertArrayEquals(new double[]{1, 1, 1}, table.probability, 0);
+    }
+
+    @Test
+    public void workersAreSampledByCapacity() {
+        InetSocketAddress large = InetSocketAddress.createUnresolved("large", 1);
+        InetSocketAddress small = InetSocketAddress.createUnresolved("small", 1);
+        InetSocketAddress none = InetSocketAddress.createUnresolved("none", 1);
+        Set<InetSocketAddress> fleet = new LinkedHashSet<>(Arrays.asList(large, small, none));
+        Map<InetSocketAddress, Double> capacities = new HashMap<>();
+        capacities.put(large, 3.);
+        capacities.put(small, 1.);
+        capacities.put(none, 0.);
+        PowerOfChoicesScheduler scheduler = new PowerOfChoicesScheduler(1, capacities::get);
+
+        Map<InetSocketAddress, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 4000; ++i) {
+            TaskPrediction<Integer> task = scheduler.schedule(() -> 1, 1, null, fleet);
+            counts.merge(task.worker, 1, Integer::sum);
+            scheduler.finished(task);
+        }
+        assertNull(counts.get(none));
+        assertEquals(3000, counts.get(large), 200);
+        assertEquals(1000, counts.get(small), 200);
+    }
+
+    @Test
+    public void tasksShareTheCpuOfAWorker() {
+        PowerOfChoicesScheduler scheduler = new PowerOfChoicesScheduler();
+        TaskPrediction<Integer> first = scheduler.schedule(() -> 1, 2e9, new double[]{.5}, workers);
+        TaskPrediction<Integer> second = scheduler.schedule(() -> 2, 1e9, new double[]{.5}, workers);
+        assertNull(first.startAfter);
+        assertNull(second.startAfter);
+
+        // Waits for the task ending first
+        TaskPrediction<Integer> third = scheduler.schedule(() -> 3, 1e9, new double[]{.5}, workers);
+        assertSame(second, third.startAfter);
+
+        // Needs the whole CPU -> waits for all of them
+        TaskPrediction<Integer> whole = scheduler.schedule(() -> 4, 1e9, null, workers);
+        assertSame(third, whole.startAfter);
+    }
+
+    @Test
+    public void finishedTaskFreesItsShare() {
+        PowerOfChoicesScheduler scheduler = new PowerOfChoicesScheduler();
+        TaskPrediction<Integer> first = scheduler.schedule(() -> 1, 1e9, null, workers);
+        TaskPrediction<Integer> second = scheduler.schedule(() -> 2, 1e9, new double[]{.1}, workers);
+        assertSame(first, second.startAfter);
+
+        scheduler.finished(first);
+        scheduler.finished(second);
+        assertNull(scheduler.schedule(() -> 3, 1e9, null, workers).startAfter);
+    }
+}
@@ -0,0 +1,185 @@
+package de.unikassel.schedule;
+
+import de.unikassel.schedule.data.TaskPrediction;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ResourceTimelineTest {
+
+    private static final int DIMENSIONS = 2;
+
+    @Test
+    public void waitsForTheTaskEndingAtTheSlot() {
+        ResourceTimeline timeline = new ResourceTimeline();
+        TaskPrediction<?> first = task(0, 10, 4, 4);
+        TaskPrediction<?> second = task(10, 5, 1, 1); // Starts the moment the first one ends
+        timeline.reserve(first);
+        timeline.reserve(second);
+
+        ResourceTimeline.Slot slot = timeline.earliestFit(0, new double[]{4, 4}, new double[]{2, 2}, 5);
+        assertEquals(10, slot.time, 0);
+        assertSame(first, slot.after);
+    }
+
+    @Test
+    public void overdueTaskStillTakesItsResources() {
+        ResourceTimeline timeline = new ResourceTimeline();
+        TaskPrediction<?> predecessor = task(0, 10, 4, 4);
+        TaskPrediction<?> waiting = task(10, 5, 4, 4); // Waits for its predecessor, which overruns
+        timeline.reserve(predecessor);
+        timeline.reserve(waiting);
+        timeline.started(predecessor);
+
+        // Both should have finished by now, but the waiting task did not even start. Once the predecessor returns
+        // its resources, the waiting task takes half of them.
+        ResourceTimeline.Slot slot = timeline.earliestFit(20, new double[]{4, 4}, new double[]{6, 6}, 5);
+        assertEquals(25, slot.time, 0);
+        assertSame(waiting, slot.after);
+
+        // Postponed once more, as it did not start in the meantime
+        slot = timeline.earliestFit(30, new double[]{4, 4}, new double[]{6, 6}, 5);
+        assertEquals(35, slot.time, 0);
+
+        timeline.started(waiting);
+        timeline.release(waiting, true);
+        timeline.release(predecessor, true);
+        assertTrue(timeline.isEmpty());
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; ++round) {
+            ResourceTimeline timeline = new ResourceTimeline();
+            Map<TaskPrediction<?>, Reserved> reserved = new LinkedHashMap<>();
+            double now = 0;
+            for (int step = 0; step < 200; ++step) {
+                List<TaskPrediction<?>> tasks = new ArrayList<>(reserved.keySet());
+                int operation = random.nextInt(4);
+                if (operation <= 1 || tasks.isEmpty()) {
+                    TaskPrediction<?> task = task(now + random.nextInt(100) - 20, 1 + random.nextInt(30),
+                            random.nextInt(6), random.nextInt(6));
+                    timeline.reserve(task);
+                    reserved.put(task, new Reserved(task));
+                } else if (operation == 2) {
+                    TaskPrediction<?> task = tasks.get(random.nextInt(tasks.size()));
+                    if (!reserved.get(task).started) {
+                        timeline.started(task);
+                        reserved.get(task).started = true;
+                    }
+                } else {
+                    TaskPrediction<?> task = tasks.get(random.nextInt(tasks.size()));
+                    timeline.release(task, reserved.remove(task).started);
+                }
+
+                now += random.nextInt(5);
+                double[] baseline = {random.nextInt(10), random.nextInt(10)};
+                double[] required = {random.nextInt(12), random.nextInt(12)};
+                double duration = 1 + random.nextInt(30);
+                ResourceTimeline.Slot slot = timeline.earliestFit(now, baseline, required, duration);
+                postponeOverdue(reserved.values(), now);
+                Double expected = earliestFit(reserved.values(), now, baseline, required, duration);
+
+                if (expected == null) {
+                    assertNull(slot);
+                    continue;
+                }
+                assertNotNull(slot);
+                assertEquals(expected, slot.time, 0);
+                if (slot.time > now) {
+                    // Started after a task, that returns its resources at this moment
+                    assertTrue(reserved.containsKey(slot.after));
+                    assertEquals(slot.time, reserved.get(slot.after).end, 0);
+                }
+            }
+            for (Map.Entry<TaskPrediction<?>, Reserved> task : reserved.entrySet()) {
+                timeline.release(task.getKey(), task.getValue().started);
+            }
+            assertTrue(timeline.isEmpty());
+        }
+    }
+
+    private static TaskPrediction<?> task(double time, double duration, double... resources) {
+        assertEquals(DIMENSIONS, resources.length);
+        return new TaskPrediction<>(() -> null, time, duration, null, resources, null);
+    }
+
+    /**
+     * Tasks, that did not start in time, start now.
+     */
+    private static void postponeOverdue(Collection<Reserved> reserved, double now) {
+        for (Reserved task : reserved) {
+            if (!task.started && task.start < now) {
+                task.end = now + task.end - task.start;
+                task.start = now;
+            }
+        }
+    }
+
+    /**
+     * Try every point in time the free resources change at.
+     */
+    private static Double earliestFit(Collection<Reserved> reserved, double now, double[] baseline,
+                                      double[] required, double duration) {
+        TreeSet<Double> changes = new TreeSet<>();
+        for (Reserved task : reserved) {
+            if (!task.started) {
+                changes.add(task.start);
+            }
+            changes.add(task.end);
+        }
+        List<Double> candidates = new ArrayList<>();
+        candidates.add(now);
+        candidates.addAll(changes.tailSet(now, false));
+        search:
+        for (double start : candidates) {
+            if (!fits(reserved, start, baseline, required)) {
+                continue;
+            }
+            for (double change : changes.subSet(start, false, start + duration, false)) {
+                if (!fits(reserved, change, baseline, required)) {
+                    continue search;
+                }
+            }
+            return start;
+        }
+        return null;
+    }
+
+    private static boolean fits(Collection<Reserved> reserved, double time, double[] baseline, double[] required) {
+        for (int i = 0; i < DIMENSIONS; ++i) {
+            double free = baseline[i];
+            for (Reserved task : reserved) {
+                if (!task.started && task.start <= time) {
+                    free -= task.resources[i];
+                }
+                if (task.end <= time) {
+                    free += task.resources[i];
+                }
+            }
+            if (free < required[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A reserved task, as the timeline should store it.
+     */
+    private static class Reserved {
+        final double[] resources;
+        double start;
+        double end;
+        boolean started;
+
+        Reserved(TaskPrediction<?> task) {
+            this.resources = task.resources;
+            this.start = task.time;
+            this.end = task.time + task.duration;
+        }
+    }
+}
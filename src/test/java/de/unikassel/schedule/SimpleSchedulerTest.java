@@ -0,0 +1,109 @@
+package de.unikassel.schedule;
+
+import de.unikassel.schedule.data.TaskPrediction;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SimpleSchedulerTest {
+
+    private final InetSocketAddress worker = InetSocketAddress.createUnresolved("worker", 1);
+    private final Set<InetSocketAddress> workers = Collections.singleton(worker);
+
+    @Test
+    public void cancelledTaskRestoresItsPredecessor() {
+        SimpleScheduler scheduler = new SimpleScheduler();
+        TaskPrediction<Integer> first = scheduler.schedule(() -> 1, -1, null, workers);
+        TaskPrediction<Integer> second = scheduler.schedule(() -> 2, -1, null, workers);
+        assertSame(first, second.startAfter);
+
+        scheduler.cancelled(second); // E.g. rolled back by a failed burst
+
+        TaskPrediction<Integer> third = scheduler.schedule(() -> 3, -1, null, workers);
+        assertSame(first, third.startAfter);
+    }
+
+    @Test
+    public void finishedTaskFreesItsSlot() {
+        SimpleScheduler scheduler = new SimpleScheduler();
+        TaskPrediction<Integer> first = scheduler.schedule(() -> 1, -1, null, workers);
+        scheduler.started(first);
+        scheduler.finished(first);
+
+        assertNull(scheduler.schedule(() -> 2, -1, null, workers).startAfter);
+    }
+
+    @Test
+    public void slotsAreSpreadAcrossLanes() {
+        SimpleScheduler scheduler = new SimpleScheduler(w -> 4, w -> 2);
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(i % 2, scheduler.schedule(() -> 1, -1, null, workers).lane);
+        }
+
+        SimpleScheduler withoutLanes = new SimpleScheduler(4);
+        assertEquals(TaskPrediction.ANY_LANE, withoutLanes.schedule(() -> 1, -1, null, workers).lane);
+    }
+
+    @Test
+    public void tasksFillFreeSlotsFirst() {
+        SimpleScheduler scheduler = new SimpleScheduler(3);
+        TaskPrediction<Integer> first = scheduler.schedule(() -> 1, 1e9, null, workers);
+        TaskPrediction<Integer> second = scheduler.schedule(() -> 2, 3e9, null, workers);
+        TaskPrediction<Integer> third = scheduler.schedule(() -> 3, 2e9, null, workers);
+        assertNull(first.startAfter);
+        assertNull(second.startAfter);
+        assertNull(third.startAfter);
+
+        // Behind the task predicted to finish first
+        assertSame(first, scheduler.schedule(() -> 4, 1e9, null, workers).startAfter);
+
+        // The slot of a finished task is free again
+        scheduler.finished(third);
+        assertNull(scheduler.schedule(() -> 5, 1e9, null, workers).startAfter);
+    }
+
+    @Test
+    public void slotCountIsQueriedAgain() {
+        int[] cores = {0}; // No heartbeat yet
+        SimpleScheduler scheduler = new SimpleScheduler(w -> cores[0]);
+        TaskPrediction<Integer> first = scheduler.schedule(() -> 1, -1, null, workers);
+        TaskPrediction<Integer> second = scheduler.schedule(() -> 2, -1, null, workers);
+        assertSame(first, second.startAfter);
+
+        cores[0] = 2;
+        TaskPrediction<Integer> third = scheduler.schedule(() -> 3, -1, null, workers);
+        assertNull(third.startAfter);
+
+        // Reconnected with fewer cores -> only the first slot is used, but its tasks still finish
+        cores[0] = 1;
+        assertSame(second, scheduler.schedule(() -> 4, -1, null, workers).startAfter);
+        scheduler.finished(third);
+    }
+
+    @Test
+    public void tasksWithoutPredictionUseTheLeastLoadedWorker() {
+        InetSocketAddress other = InetSocketAddress.createUnresolved("other", 1);
+        Set<InetSocketAddress> both = new LinkedHashSet<>(Arrays.asList(worker, other));
+        SimpleScheduler scheduler = new SimpleScheduler();
+
+        TaskPrediction<Integer> first = scheduler.schedule(() -> 1, -1, null, both);
+        TaskPrediction<Integer> second = scheduler.schedule(() -> 2, -1, null, both);
+        assertNotEquals(first.worker, second.worker);
+        assertNull(second.startAfter);
+
+        // Both are busy -> behind the task started first
+        TaskPrediction<Integer> third = scheduler.schedule(() -> 3, -1, null, both);
+        assertSame(first, third.startAfter);
+
+        // Fewer tasks queued on the other worker
+        TaskPrediction<Integer> fourth = scheduler.schedule(() -> 4, -1, null, both);
+        assertSame(second, fourth.startAfter);
+
+        scheduler.finished(first);
+        scheduler.finished(third);
+        assertEquals(first.worker, scheduler.schedule(() -> 5, -1, null, both).worker);
+    }
+}